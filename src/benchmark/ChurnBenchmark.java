@@ -0,0 +1,158 @@
+package benchmark;
+
+import akka.actor.ActorSystem;
+
+import com.typesafe.config.ConfigFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import network.Network;
+import network.Node;
+
+/*
+ * ChurnBenchmark class. Runs a grid network until it settles, then makes nodes
+ * join and leave one at a time and measures what each change costs the
+ * election: the time until the network settles again, the events and Updates
+ * it took, and the nodes that elected themselves on the way. Joining nodes
+ * link to random nodes of the network, and leaving nodes are picked at random
+ * among the ones that don't lead group 0 globally, whose failure the Scenario
+ * already measures.
+ *
+ * Usage: ChurnBenchmark [number of nodes] [hop bounds] [time scale] [rounds] [links per join]
+ *
+ * Each round adds a node and removes one, so the size of the network stays
+ * about the same and the ids of the removed nodes are reused.
+ */
+public class ChurnBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int[] hopBounds = Arrays.stream((args.length > 1 ? args[1] : "2").split(",")).mapToInt(Integer::parseInt)
+                .toArray();
+        String timeScale = args.length > 2 ? args[2] : "100";
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int links = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+
+        ActorSystem system = ActorSystem.create("churn",
+                ConfigFactory.parseString("akka.loglevel = WARNING\nnetwork.time-scale = " + timeScale)
+                        .withFallback(ConfigFactory.load()));
+        Scenario scenario = new Scenario("grid", Topologies.grid(size), hopBounds);
+        Network net = scenario.start(system);
+        settle(net, 0);
+
+        Random random = new Random(42);
+        long[][] totals = new long[2][4];
+        System.out.println("round\tchange\tnode\tconvergence(ms)\tevents\tmessages\tself elections\tleaders");
+        for (int r = 0; r < rounds; r++) {
+            List<Integer> live = live(net);
+            Set<Integer> targets = new HashSet<Integer>();
+            while (targets.size() < Math.min(links, live.size())) {
+                targets.add(live.get(random.nextInt(live.size())));
+            }
+            int[] neighborIds = targets.stream().mapToInt(Integer::intValue).toArray();
+            long[] before = counters(net);
+            long start = System.currentTimeMillis();
+            int id = net.addNode(neighborIds);
+            long last = settle(net, before[0]);
+            report(r, "join", id, Math.max(0, last - start), before, net, totals[0]);
+
+            live = live(net);
+            live.remove(Integer.valueOf(net.leaders(live.get(0)).globalLeaderId));
+            id = live.get(random.nextInt(live.size()));
+            before = counters(net);
+            Node gone = net.nodes[id]; // its counters leave the sums with it
+            before[0] -= gone.handledEvents;
+            before[1] -= gone.sentMessages;
+            before[2] -= gone.selfElections;
+            long events = Scenario.events(net);
+            start = System.currentTimeMillis();
+            net.removeNode(id);
+            last = settle(net, events - gone.handledEvents);
+            report(r, "leave", id, Math.max(0, last - start), before, net, totals[1]);
+        }
+        String[] changes = { "join", "leave" };
+        for (int c = 0; c < changes.length; c++) {
+            System.out.println("mean\t" + changes[c] + "\t-\t" + totals[c][0] / Math.max(1, rounds) + "\t"
+                    + totals[c][1] / Math.max(1, rounds) + "\t" + totals[c][2] / Math.max(1, rounds) + "\t"
+                    + totals[c][3] / Math.max(1, rounds) + "\t-");
+        }
+        Await.result(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+        System.exit(0);
+    }
+
+    /*
+     * Waits for the network to react to a change, or for a second if it doesn't,
+     * and then to settle.
+     *
+     * @param net The network
+     *
+     * @param events Events handled by the nodes of the network before the change
+     *
+     * @return The time of the last observed change in the number of handled
+     * events
+     */
+    private static long settle(Network net, long events) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (Scenario.events(net) == events && System.currentTimeMillis() - start < 1000) {
+            Thread.sleep(1);
+        }
+        return Scenario.awaitQuiescence(net);
+    }
+
+    /*
+     * Lists the ids of the nodes in the network.
+     *
+     * @param net The network
+     *
+     * @return The ids of the nodes not removed
+     */
+    private static List<Integer> live(Network net) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < net.nodes.length; i++) {
+            if (net.hasNode(i))
+                ids.add(i);
+        }
+        return ids;
+    }
+
+    /*
+     * Reads the counters the benchmark reports the change of.
+     *
+     * @param net The network
+     *
+     * @return The events, Updates and self elections of all nodes
+     */
+    private static long[] counters(Network net) {
+        return new long[] { Scenario.events(net), Scenario.messages(net), Scenario.selfElections(net) };
+    }
+
+    /*
+     * Prints the cost of a change and adds it to the totals.
+     *
+     * @param totals Convergence time, events, Updates and self elections of the
+     * changes of this kind so far
+     */
+    private static void report(int round, String change, int id, long convergenceMs, long[] before, Network net,
+            long[] totals) {
+        long[] after = counters(net);
+        Set<Integer> leaders = new HashSet<Integer>();
+        for (int i : live(net)) {
+            leaders.add(net.leaders(i).globalLeaderId);
+        }
+        System.out.println(round + "\t" + change + "\t" + id + "\t" + convergenceMs + "\t" + (after[0] - before[0])
+                + "\t" + (after[1] - before[1]) + "\t" + (after[2] - before[2]) + "\t" + leaders.size());
+        totals[0] += convergenceMs;
+        for (int k = 0; k < 3; k++) {
+            totals[k + 1] += after[k] - before[k];
+        }
+    }
+}
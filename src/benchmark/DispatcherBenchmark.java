@@ -0,0 +1,81 @@
+package benchmark;
+
+import akka.actor.ActorSystem;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/*
+ * DispatcherBenchmark class. Runs the leader failure Scenario on generated
+ * topologies once for each dispatcher and mailbox configuration and prints
+ * the results, so the fastest setup for the machine can be picked.
+ *
+ * Usage: DispatcherBenchmark [number of nodes] [hop bounds] [time scale] [groups]
+ *
+ * The hop bounds are separated by commas, from the widest level below the
+ * global one to the local level, e.g. 4,2 for three levels. A single bound is
+ * the MAX_HOPS of a network with two levels. Each group runs its own election
+ * over the same nodes and channels.
+ */
+public class DispatcherBenchmark {
+
+    /*
+     * Configurations compared by the benchmark. Each entry is a name and the
+     * overrides applied on top of application.conf. The priority and fifo
+     * entries pin the node mailbox, so the Updates wasted after the failure can
+     * be compared whatever application.conf sets.
+     */
+    public static final String[][] CONFIGURATIONS = {
+            { "akka-default", "network.node-dispatcher = akka.actor.default-dispatcher\n"
+                    + "network.channel-dispatcher = akka.actor.default-dispatcher" },
+            { "dedicated", "" },
+            { "throughput-1", "network.dispatchers.node.throughput = 1\n"
+                    + "network.dispatchers.channel.throughput = 1" },
+            { "throughput-100", "network.dispatchers.node.throughput = 100\n"
+                    + "network.dispatchers.channel.throughput = 100" },
+            { "parallelism-2", "network.dispatchers.node.fork-join-executor.parallelism-max = 2\n"
+                    + "network.dispatchers.channel.fork-join-executor.parallelism-max = 2" },
+            { "bounded", "network.node-mailbox = network.mailboxes.bounded\n"
+                    + "network.channel-mailbox = network.mailboxes.bounded" },
+            { "single-consumer", "network.node-mailbox = network.mailboxes.single-consumer\n"
+                    + "network.channel-mailbox = network.mailboxes.single-consumer" },
+            { "priority", "network.node-mailbox = network.mailboxes.priority" },
+            { "fifo", "network.node-mailbox = network.mailboxes.unbounded" } };
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+        int[] hopBounds = Arrays.stream((args.length > 1 ? args[1] : "2").split(",")).mapToInt(Integer::parseInt)
+                .toArray();
+        String timeScale = args.length > 2 ? args[2] : "100";
+        int groups = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+        Scenario[] scenarios = { new Scenario("ring", Topologies.ring(size), hopBounds),
+                new Scenario("grid", Topologies.grid(size), hopBounds),
+                new Scenario("random", Topologies.random(size, 0.2, 42), hopBounds) };
+        for (Scenario scenario : scenarios) {
+            scenario.groups = groups;
+        }
+
+        System.out.println("configuration\ttopology\tconvergence(ms)\tevents\tmessages\tbatches\tdiscarded\tleaders\tlargest cluster");
+        for (String[] configuration : CONFIGURATIONS) {
+            Config config = ConfigFactory.parseString(configuration[1])
+                    .withFallback(ConfigFactory.parseString("akka.loglevel = WARNING\nnetwork.time-scale = " + timeScale))
+                    .withFallback(ConfigFactory.load());
+            for (Scenario scenario : scenarios) {
+                ActorSystem system = ActorSystem.create("benchmark", config);
+                Scenario.Result r = scenario.run(system);
+                System.out.println(configuration[0] + "\t" + scenario.name + "\t" + r.convergenceMs + "\t" + r.events
+                        + "\t" + r.messages + "\t" + r.batches + "\t" + r.discarded + "\t" + r.leaders
+                        + "\t" + r.largestCluster);
+                Await.result(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+            }
+        }
+        System.exit(0);
+    }
+}
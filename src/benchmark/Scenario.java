@@ -0,0 +1,207 @@
+package benchmark;
+
+import akka.actor.ActorSystem;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import network.InitialState;
+import network.Network;
+import network.Node;
+
+/*
+ * Scenario class. Runs a network on a topology until it settles, makes the
+ * global leader fail and measures how long the other nodes take to agree on
+ * a new one.
+ */
+public class Scenario {
+
+    public static long QUIET_MS = 5000; /*
+                                         * Simulated time without any handled event after which the network
+                                         * is considered settled. Must be longer than the channel delays
+                                         */
+    public static long TIMEOUT_MS = 600000; /* Maximum time waited for the network to settle */
+
+    public String name; /* Name of the topology */
+    public int[][] topology; /* Topology graph */
+    public int[] hopBounds; /* Hop bounds of the levels below the global one, from the widest to the local level */
+    public int groups = 1; /* Number of election groups run over the network */
+
+    /*
+     * Result of a run of the scenario.
+     */
+    public static class Result {
+        public long convergenceMs; /* Time between the failure and the last handled event */
+        public long events; /* Events handled by all nodes after the failure */
+        public long messages; /* Updates sent by all nodes after the failure */
+        public long batches; /* Messages carrying those Updates, one per link and event */
+        public long discarded; /* Updates discarded by all nodes after the failure, because their channel changed */
+        public int leaders; /* Most distinct global leaders of a group among the surviving nodes. 1 if they agree */
+        public int largestCluster; /* Surviving nodes that share the most common local leader of group 0 */
+    }
+
+    /*
+     * Constructor. Initializes the variables.
+     *
+     * @param name Name of the topology
+     *
+     * @param topology Topology graph
+     *
+     * @param hopBounds Hop bounds of the levels below the global one. A single
+     * bound is the MAX_HOPS of a network with a global and a local level
+     */
+    public Scenario(String name, int[][] topology, int... hopBounds) {
+        this.name = name;
+        this.topology = topology;
+        this.hopBounds = hopBounds;
+    }
+
+    /*
+     * Creates the network in the given system, already converged. The global
+     * leader of group g is node g*n/groups, so node 0 leads group 0, and the
+     * leaders of the bounded levels are computed by InitialState.
+     *
+     * @param system ActorSystem where the actors will be created
+     *
+     * @return The created network
+     */
+    public Network start(ActorSystem system) {
+        int n = topology.length;
+        InitialState[] states = new InitialState[groups];
+        for (int g = 0; g < groups; g++) {
+            states[g] = InitialState.compute(system, topology, g * n / groups, hopBounds);
+        }
+        return new Network(system, topology, states, null);
+    }
+
+    /*
+     * Runs the scenario: waits for the network to settle, drops every channel of
+     * node 0, the global leader of group 0, and waits for the network to settle
+     * again.
+     *
+     * @param system ActorSystem where the actors will be created
+     *
+     * @return The measures of the run
+     */
+    public Result run(ActorSystem system) throws InterruptedException {
+        Network net = start(system);
+        awaitQuiescence(net);
+
+        long before = events(net);
+        long sentBefore = 0;
+        long batchesBefore = 0;
+        long discardedBefore = 0;
+        for (Node n : net.nodes) {
+            sentBefore += n.sentMessages;
+            batchesBefore += n.sentBatches;
+            discardedBefore += n.discardedUpdates;
+        }
+        long failure = System.currentTimeMillis();
+        for (int j = 1; j < topology.length; j++) {
+            if (topology[0][j] == 1)
+                net.dropChannel(0, j);
+        }
+        long last = awaitQuiescence(net);
+
+        Result r = new Result();
+        r.convergenceMs = Math.max(0, last - failure);
+        r.events = events(net) - before;
+        r.messages = -sentBefore;
+        r.batches = -batchesBefore;
+        r.discarded = -discardedBefore;
+        for (Node n : net.nodes) {
+            r.messages += n.sentMessages;
+            r.batches += n.sentBatches;
+            r.discarded += n.discardedUpdates;
+        }
+        for (int g = 0; g < groups; g++) {
+            Set<Integer> leaders = new HashSet<Integer>();
+            for (int i = 1; i < net.nodes.length; i++) {
+                leaders.add(net.nodes[i].elections[g].leaderIds[0]);
+            }
+            r.leaders = Math.max(r.leaders, leaders.size());
+        }
+        Map<Integer, Integer> clusters = new HashMap<Integer, Integer>();
+        for (int i = 1; i < net.nodes.length; i++) {
+            int[] leaderIds = net.nodes[i].elections[0].leaderIds;
+            int size = clusters.merge(leaderIds[leaderIds.length - 1], 1, Integer::sum);
+            r.largestCluster = Math.max(r.largestCluster, size);
+        }
+        return r;
+    }
+
+    /*
+     * Sums the events handled by every node.
+     *
+     * @param net The network
+     *
+     * @return The total number of handled events
+     */
+    public static long events(Network net) {
+        long total = 0;
+        for (Node n : net.nodes) {
+            if (n != null)
+                total += n.handledEvents;
+        }
+        return total;
+    }
+
+    /*
+     * Sums the Updates sent by every node.
+     *
+     * @param net The network
+     *
+     * @return The total number of sent Updates
+     */
+    public static long messages(Network net) {
+        long total = 0;
+        for (Node n : net.nodes) {
+            if (n != null)
+                total += n.sentMessages;
+        }
+        return total;
+    }
+
+    /*
+     * Sums the self elections of every node.
+     *
+     * @param net The network
+     *
+     * @return The total number of times a node elected itself
+     */
+    public static long selfElections(Network net) {
+        long total = 0;
+        for (Node n : net.nodes) {
+            if (n != null)
+                total += n.selfElections;
+        }
+        return total;
+    }
+
+    /*
+     * Waits until no node handles an event for QUIET_MS of simulated time.
+     *
+     * @param net The network
+     *
+     * @return The time of the last observed change in the number of handled
+     * events
+     */
+    public static long awaitQuiescence(Network net) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long lastChange = start;
+        long count = events(net);
+        long quiet = Math.max(10, (long) (QUIET_MS / Network.TIME_SCALE));
+        while (System.currentTimeMillis() - lastChange < quiet
+                && System.currentTimeMillis() - start < TIMEOUT_MS) {
+            Thread.sleep(Math.min(10, quiet / 4));
+            long now = events(net);
+            if (now != count) {
+                count = now;
+                lastChange = System.currentTimeMillis();
+            }
+        }
+        return lastChange;
+    }
+}
@@ -0,0 +1,99 @@
+package benchmark;
+
+import java.util.Random;
+
+/*
+ * Topologies class. Generates topology graphs in the format taken by the
+ * Network constructor. If topology[i][j] is 1, nodes i and j are connected.
+ */
+public class Topologies {
+
+    /*
+     * Creates a ring where node i is connected to nodes i-1 and i+1.
+     *
+     * @param n Number of nodes
+     *
+     * @return The topology graph
+     */
+    public static int[][] ring(int n) {
+        int[][] g = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            connect(g, i, (i + 1) % n);
+        }
+        return g;
+    }
+
+    /*
+     * Creates a grid with as many columns as the square root of n. The last row
+     * may be incomplete.
+     *
+     * @param n Number of nodes
+     *
+     * @return The topology graph
+     */
+    public static int[][] grid(int n) {
+        int[][] g = new int[n][n];
+        int columns = Math.max(1, (int) Math.ceil(Math.sqrt(n)));
+        for (int i = 0; i < n; i++) {
+            if ((i + 1) % columns != 0 && i + 1 < n)
+                connect(g, i, i + 1);
+            if (i + columns < n)
+                connect(g, i, i + columns);
+        }
+        return g;
+    }
+
+    /*
+     * Creates a connected random graph. A random spanning tree guarantees
+     * connectivity, then every other edge is added with the given probability.
+     *
+     * @param n Number of nodes
+     *
+     * @param p Probability of each extra edge
+     *
+     * @param seed Seed of the random generator, so runs are repeatable
+     *
+     * @return The topology graph
+     */
+    public static int[][] random(int n, double p, long seed) {
+        Random random = new Random(seed);
+        int[][] g = new int[n][n];
+        for (int i = 1; i < n; i++) {
+            connect(g, i, random.nextInt(i));
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (random.nextDouble() < p)
+                    connect(g, i, j);
+            }
+        }
+        return g;
+    }
+
+    /*
+     * Creates a complete graph.
+     *
+     * @param n Number of nodes
+     *
+     * @return The topology graph
+     */
+    public static int[][] complete(int n) {
+        int[][] g = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                connect(g, i, j);
+            }
+        }
+        return g;
+    }
+
+    /*
+     * Connects nodes i and j in both directions.
+     */
+    private static void connect(int[][] g, int i, int j) {
+        if (i != j) {
+            g[i][j] = 1;
+            g[j][i] = 1;
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package events;
 
 import akka.actor.ActorRef;
+import akka.dispatch.ControlMessage;
 
 /*
 ChannelDown event. Informs a node the channel is no longer active. 
+Control message, so priority mailboxes deliver it ahead of queued Updates.
  */
-public class ChannelDown extends Event {
+public class ChannelDown extends Event implements ControlMessage {
 
     public ActorRef channel; /*
                               * Mirrored channel. Node i will receive this event from Channelji. This
@@ -1,11 +1,13 @@
 package events;
 
 import akka.actor.ActorRef;
+import akka.dispatch.ControlMessage;
 
 /*
 ChannelUp event. Informs a node the channel is active again. 
+Control message, so priority mailboxes deliver it ahead of queued Updates.
  */
-public class ChannelUp extends Event {
+public class ChannelUp extends Event implements ControlMessage {
 
     public ActorRef channel;/*
                              * Mirrored channel. Node i will receive this event from Channelji. This
@@ -15,6 +17,10 @@ public class ChannelUp extends Event {
                            * The disconnected neighbor. Node i will receive this event from Channelji. This
                            * variable will hold the id of node j
                            */
+    public int weight;/*
+                       * Weight of the link, when the neighbor just joined the network and the link is
+                       * new. 0 for a link that comes back up
+                       */
 
     /*
      * Constructor. Initializes the variables
@@ -26,9 +32,20 @@ public class ChannelUp extends Event {
      * @param nid Neighbor id
      */
     public ChannelUp(int t, ActorRef c, int nid) {
+        this(t, c, nid, 0);
+    }
+
+    /*
+     * Constructor. Brings up a new link, to or from a node that joined the
+     * network.
+     * 
+     * @param w Weight of the link
+     */
+    public ChannelUp(int t, ActorRef c, int nid, int w) {
         super(t);
         channel = c;
         neighborId = nid;
+        weight = w;
     }
 
     /*
@@ -5,6 +5,10 @@ Event base class. All events extend Event.
 */
 public class Event {
     public int timestamp; /* Timestamp of the event. Used for nodes to keep logical causal clocks */
+    public int linkEpoch; /*
+                           * Epoch of the channel that delivered the event. Increases every time the
+                           * channel goes up or down, so nodes can discard messages from an older epoch
+                           */
 
     /*
      * Constructor. Initializes the variables.
@@ -0,0 +1,31 @@
+package events;
+
+/*
+LinkReuse event. Sent by a node to itself when the flap penalty of a suppressed link should have decayed
+enough for the node to bring the link back up.
+*/
+public class LinkReuse extends Event {
+
+    public int neighborId; /* The neighbor at the other end of the suppressed link */
+
+    /*
+     * Constructor. Initializes the variables
+     * 
+     * @param t Timestamp of the event
+     * 
+     * @param nid Neighbor id
+     */
+    public LinkReuse(int t, int nid) {
+        super(t);
+        neighborId = nid;
+    }
+
+    /*
+     * Creates a String representation of the event for logging purposes
+     * 
+     * @return The string representation
+     */
+    public String toString() {
+        return "LinkReuse(" + timestamp + "," + neighborId + ")";
+    }
+}
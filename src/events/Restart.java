@@ -0,0 +1,30 @@
+package events;
+
+import akka.dispatch.ControlMessage;
+
+/*
+Restart event. Simulates a restart of the process of a node: the node loses its state in memory,
+resumes from its persisted state, or from its initial configuration if there is none, and re-syncs
+with its neighbors. Its links stay up.
+Control message, so priority mailboxes deliver it ahead of queued Updates.
+*/
+public class Restart extends Event implements ControlMessage {
+
+    /*
+     * Constructor. Initializes the variables
+     * 
+     * @param t Timestamp of the event
+     */
+    public Restart(int t) {
+        super(t);
+    }
+
+    /*
+     * Creates a String representation of the event for logging purposes
+     * 
+     * @return The string representation
+     */
+    public String toString() {
+        return "Restart(" + timestamp + ")";
+    }
+}
@@ -0,0 +1,31 @@
+package events;
+
+/*
+SearchGrace event. Sent by a node to itself when the grace window of a deferred search is over.
+The node searches then if it's still a sink and nothing changed its height in the meantime.
+*/
+public class SearchGrace extends Event {
+
+    public int seq; /* Number of the deferral. Only the latest one is acted upon */
+
+    /*
+     * Constructor. Initializes the variables
+     * 
+     * @param t Timestamp of the event
+     * 
+     * @param s Number of the deferral
+     */
+    public SearchGrace(int t, int s) {
+        super(t);
+        seq = s;
+    }
+
+    /*
+     * Creates a String representation of the event for logging purposes
+     * 
+     * @return The string representation
+     */
+    public String toString() {
+        return "SearchGrace(" + timestamp + "," + seq + ")";
+    }
+}
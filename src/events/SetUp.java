@@ -1,13 +1,15 @@
 package events;
 
 import akka.actor.ActorRef;
+import akka.dispatch.ControlMessage;
 import height.Height;
 
 /* 
 SetUp event. Used for setting up the initial topology. 
-Behavior similar to ChannelUp, but stops the algorithm from running before the network is setup
+Behavior similar to ChannelUp, but stops the algorithm from running before the network is setup.
+Control message, so priority mailboxes deliver it ahead of queued Updates.
 */
-public class SetUp extends Event {
+public class SetUp extends Event implements ControlMessage {
 
     public ActorRef channel; /*
                               * Mirrored channel. Node i will receive this event from Channelji. This
@@ -17,10 +19,10 @@ public class SetUp extends Event {
                             * The disconnected neighbor. Node i will receive this event from Channelji This
                             * variable will hold the id of node j
                             */
-    public Height height; /*
-                           * Neighbors initial height.Node i will receive this event from Channelji This
-                           * variable will hold the height of node j
-                           */
+    public Height[] heights; /*
+                              * Neighbors initial height in each election group. Node i will receive this
+                              * event from Channelji This variable will hold the heights of node j
+                              */
 
     /*
      * Constructor. Initializes the variables
@@ -34,10 +36,25 @@ public class SetUp extends Event {
      * @param h Neighbors height
      */
     public SetUp(int t, ActorRef c, int nid, Height h) {
+        this(t, c, nid, new Height[] { h });
+    }
+
+    /*
+     * Constructor. Initializes the variables
+     * 
+     * @param t Timestamp of the event
+     * 
+     * @param c Mirrored channel
+     * 
+     * @param nid Neighbors id
+     * 
+     * @param hs Neighbors height in each election group
+     */
+    public SetUp(int t, ActorRef c, int nid, Height[] hs) {
         super(t);
         channel = c;
         neighborId = nid;
-        height = h;
+        heights = hs;
     }
 
     /*
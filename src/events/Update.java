@@ -1,5 +1,10 @@
 package events;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import height.Height;
 
 /* 
@@ -11,23 +16,119 @@ public class Update extends Event {
                           * Neighbors new height. Node i will receive this event from Channelji. This
                           * variable will hold the height of node j
                           */
+    public int group; /* Election group of the height */
+    public boolean resync; /* Sent by a node that restarted. The receiver answers with its own heights */
 
     /*
-     * Constructor. Initializes the variables
+     * Constructor. Initializes the variables for election group 0
      * 
      * @param h Neighbors height
      */
     public Update(int t, Height h) {
+        this(t, 0, h);
+    }
+
+    /*
+     * Constructor. Initializes the variables
+     * 
+     * @param g Election group of the height
+     * 
+     * @param h Neighbors height
+     */
+    public Update(int t, int g, Height h) {
         super(t);
+        group = g;
         height = h;
     }
 
+    /*
+     * Gets the number of heights carried by the message.
+     * 
+     * @return 1, or the size of the batch
+     */
+    public int size() {
+        return 1;
+    }
+
+    /*
+     * Gets the group of the i-th height carried by the message.
+     * 
+     * @param i Position of the height
+     * 
+     * @return The election group
+     */
+    public int group(int i) {
+        return group;
+    }
+
+    /*
+     * Gets the i-th height carried by the message.
+     * 
+     * @param i Position of the height
+     * 
+     * @return The height
+     */
+    public Height height(int i) {
+        return height;
+    }
+
+    /*
+     * Gets the last height of a group carried by the message.
+     * 
+     * @param g The election group
+     * 
+     * @return The height, or null if the message has none of the group
+     */
+    public Height heightOf(int g) {
+        Height h = null;
+        for (int i = 0; i < size(); i++) {
+            if (group(i) == g)
+                h = height(i);
+        }
+        return h;
+    }
+
+    /*
+     * Coalesces two messages queued on the same channel, when the queue is full.
+     * The newer heights replace the older ones of the same groups, the heights of
+     * the other groups are kept, and so is a resync request of either message.
+     * Both were queued under the same link epoch, which the result keeps.
+     * 
+     * @param older The message at the tail of the queue
+     * 
+     * @param newer The message being added
+     * 
+     * @return The message that replaces the tail
+     */
+    public static Update merge(Update older, Update newer) {
+        if (older.size() == 1 && newer.size() == 1 && older.group == newer.group) {
+            newer.resync |= older.resync;
+            return newer;
+        }
+        Set<Integer> replaced = new HashSet<Integer>();
+        for (int i = 0; i < newer.size(); i++) {
+            replaced.add(newer.group(i));
+        }
+        List<Update> updates = new ArrayList<Update>();
+        for (int i = 0; i < older.size(); i++) {
+            if (!replaced.contains(older.group(i)))
+                updates.add(new Update(older.timestamp, older.group(i), older.height(i)));
+        }
+        for (int i = 0; i < newer.size(); i++) {
+            updates.add(new Update(newer.timestamp, newer.group(i), newer.height(i)));
+        }
+        Update merged = updates.size() == 1 ? updates.get(0) : new UpdateBatch(newer.timestamp, updates);
+        merged.resync = older.resync || newer.resync;
+        merged.linkEpoch = newer.linkEpoch;
+        return merged;
+    }
+
     /*
      * Creates a String representation of the event for logging purposes
      * 
      * @return The string representation
      */
     public String toString() {
-        return "Update(" + timestamp + "," + height + ")";
+        return "Update(" + timestamp + "," + group + "," + height + ")";
     }
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package events;
+
+import java.util.List;
+
+import height.Height;
+
+/* 
+UpdateBatch event. The Updates of several election groups sent by a node on the same link while handling one
+event, delivered as a single message. The receiver handles them in order. height and group hold the first one.
+*/
+public class UpdateBatch extends Update {
+
+    public int[] groups; /* Election group of each height, in the order they were sent */
+    public Height[] heights; /* Heights of the sender, in the order they were sent */
+
+    /*
+     * Constructor. Initializes the variables
+     * 
+     * @param t Timestamp of the event
+     * 
+     * @param updates The Updates batched, in the order they were sent
+     */
+    public UpdateBatch(int t, List<Update> updates) {
+        super(t, updates.get(0).group, updates.get(0).height);
+        groups = new int[updates.size()];
+        heights = new Height[updates.size()];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = updates.get(i).group;
+            heights[i] = updates.get(i).height;
+        }
+    }
+
+    @Override
+    public int size() {
+        return heights.length;
+    }
+
+    @Override
+    public int group(int i) {
+        return groups[i];
+    }
+
+    @Override
+    public Height height(int i) {
+        return heights[i];
+    }
+
+    /*
+     * Creates a String representation of the event for logging purposes
+     * 
+     * @return The string representation
+     */
+    public String toString() {
+        return "UpdateBatch(" + timestamp + "," + heights.length + " updates from " + height.nodeId + ")";
+    }
+}
@@ -1,189 +1,278 @@
 package height;
 
-/* 
-Height of a node. Used to orient links on the network. 
+/*
+Height of a node. Used to orient links on the network.
 The direction of a link goes from the heighest to the lowest node.
+
+Leaders are organized in levels. Level 0 is the global level, and each
+following level is more local than the previous one, e.g. global, datacenter
+and rack. Each level has a delta and a leader pair, and the lowest level is
+called the local level.
 */
 public class Height implements Comparable<Height> {
+    public static final int GLOBAL = 0; /* Level of the global leader */
+
     public ReferenceLevel rl; /* Reference level */
-    public int globalDelta; /*
-                             * Orients links in the direction of a global search. When the network
-                             * converges, holds the number of hops to the global leader.
-                             */
-    public LeaderPair globalLeaderPair; /* LeaderPair for the global leader */
-    public int localDelta; /*
-                            * Orients links in the direction of a local search. When the network converges,
-                            * holds the number of hops to the local leader.
-                            */
-    public LeaderPair localLeaderPair; /* LeaderPair for the local leader */
+    public int[] deltas; /*
+                          * Orient links in the direction of a search of each level. When the network
+                          * converges, deltas[l] holds the number of hops to the leader of level l.
+                          */
+    public LeaderPair[] leaderPairs; /* LeaderPair for the leader of each level */
     public int nodeId; /* Id of the node */
+    public int via = -1; /* Neighbor on the path to the local leader, or -1 for the leader */
+    public int members = 1; /* Nodes that reach the local leader through this node, itself included */
+    public int clusterSize = 1; /* Members of the local cluster, as advertised by its leader */
+    public int splitId = -1; /* Member the local leader asks to lead a new cluster, or -1 */
 
     /*
-     * Constructor. Initializes the variables.
-     * 
+     * Constructor. Initializes the variables for a network with a global and a
+     * local level.
+     *
      * @param gd Global delta
-     * 
+     *
      * @param nglts Negative global leader timestamp
-     * 
+     *
      * @param glid Global leader id
-     * 
+     *
      * @param ld Local delta
-     * 
+     *
      * @param nllts Negative local leader timestamp
-     * 
+     *
      * @param id Node id
      */
     public Height(int gd, int nglts, int glid, int ld, int nllts, int llid, int id) {
+        this(new int[] { gd, ld }, new LeaderPair[] { new LeaderPair(nglts, glid), new LeaderPair(nllts, llid) }, id);
+    }
+
+    /*
+     * Constructor. Initializes the variables.
+     *
+     * @param deltas Delta of each level, starting from the global one
+     *
+     * @param leaderPairs LeaderPair of each level, starting from the global one
+     *
+     * @param id Node id
+     */
+    public Height(int[] deltas, LeaderPair[] leaderPairs, int id) {
         rl = new ReferenceLevel();
-        globalDelta = gd;
-        globalLeaderPair = new LeaderPair(nglts, glid);
-        localDelta = ld;
-        localLeaderPair = new LeaderPair(nllts, llid);
+        this.deltas = deltas;
+        this.leaderPairs = leaderPairs;
         nodeId = id;
     }
 
     /*
      * Copy constructor. Copies the values of this Height to a new one.
-     * 
+     *
      * @return The new Height
      */
     public Height copy() {
-        Height tmp = new Height(globalDelta, 0, 0, localDelta, 0, 0, nodeId);
+        LeaderPair[] pairs = new LeaderPair[leaderPairs.length];
+        for (int l = 0; l < pairs.length; l++) {
+            pairs[l] = leaderPairs[l].copy();
+        }
+        Height tmp = new Height(deltas.clone(), pairs, nodeId);
         tmp.rl = rl.copy();
-        tmp.globalLeaderPair = globalLeaderPair.copy();
-        tmp.localLeaderPair = localLeaderPair.copy();
+        tmp.via = via;
+        tmp.members = members;
+        tmp.clusterSize = clusterSize;
+        tmp.splitId = splitId;
         return tmp;
     }
 
+    /*
+     * Gets the number of levels of the hierarchy.
+     *
+     * @return The number of levels, at least 2
+     */
+    public int levels() {
+        return deltas.length;
+    }
+
+    /*
+     * Gets the lowest level of the hierarchy.
+     *
+     * @return The index of the local level
+     */
+    public int localLevel() {
+        return deltas.length - 1;
+    }
+
+    public int globalDelta() {
+        return deltas[GLOBAL];
+    }
+
+    public LeaderPair globalLeaderPair() {
+        return leaderPairs[GLOBAL];
+    }
+
+    public int localDelta() {
+        return deltas[localLevel()];
+    }
+
+    public LeaderPair localLeaderPair() {
+        return leaderPairs[localLevel()];
+    }
+
+    /*
+     * Redefines the components of the Height to elect the given node as the leader
+     * of a level. The leader of a level also leads every level below it.
+     *
+     * @param level Level of the election
+     *
+     * @param timestamp Timestamp of when the node was elected
+     *
+     * @param id Id of the elected node
+     */
+    public void elect(int level, int timestamp, int id) {
+        rl = new ReferenceLevel();
+        leaderPairs[level] = new LeaderPair(-timestamp, id);
+        deltas[level] = 0;
+        for (int l = level + 1; l < deltas.length; l++) {
+            if (leaderPairs[l].leaderId != id) {
+                leaderPairs[l] = new LeaderPair(-timestamp, id);
+                deltas[l] = 0;
+            }
+        }
+    }
+
     /*
      * Redefines the components of the Height to elect the given node as the global
      * leader.
-     * 
+     *
      * @param timestamp Timestamp of when the node was elected
-     * 
+     *
      * @param id Id of the elected node
      */
     public void electGlobal(int timestamp, int id) {
-        rl = new ReferenceLevel();
-        globalLeaderPair = new LeaderPair(-timestamp, id);
-        globalDelta = 0;
-        if (globalLeaderPair.leaderId != localLeaderPair.leaderId)
-            electLocal(timestamp, id);
+        elect(GLOBAL, timestamp, id);
     }
 
     /*
      * Redefines the components of the Height to elect the given node as the local
      * leader.
-     * 
+     *
      * @param timestamp Timestamp of when the node was elected
-     * 
+     *
      * @param id Id of the elected node
      */
     public void electLocal(int timestamp, int id) {
-        rl = new ReferenceLevel();
-        localLeaderPair = new LeaderPair(-timestamp, id);
-        localDelta = 0;
+        elect(localLevel(), timestamp, id);
+    }
+
+    /*
+     * Redefines the components of the Height to start a search for a leader of a
+     * level.
+     *
+     * @param level Level of the leader searched
+     *
+     * @param timestamp Timestamp of when the search was started
+     *
+     * @param originId Id of the node that started the search
+     */
+    public void startNewReferenceLevel(int level, int timestamp, int originId) {
+        if (level == GLOBAL) {
+            rl = new ReferenceLevel(timestamp, originId, 0, 0, GLOBAL);
+            deltas[GLOBAL] = 0;
+        } else {
+            rl = new ReferenceLevel(timestamp, originId, 0, 1, level);
+            deltas[level] = -1;
+        }
     }
 
     /*
      * Redefines the components of the Height to start a search for a global leader.
-     * 
+     *
      * @param timestamp Timestamp of when the search was started
-     * 
+     *
      * @param originId Id of the node that started the search
      */
     public void startNewReferenceLevelGlobal(int timestamp, int originId) {
-        rl = new ReferenceLevel(timestamp, originId, 0, 0);
-        globalDelta = 0;
+        startNewReferenceLevel(GLOBAL, timestamp, originId);
     }
 
     /*
      * Redefines the components of the Height to start a search for a local leader.
-     * 
+     *
      * @param timestamp Timestamp of when the search was started
-     * 
+     *
      * @param originId Id of the node that started the search
      */
     public void startNewReferenceLevelLocal(int timestamp, int originId) {
-        rl = new ReferenceLevel(timestamp, originId, 0, 1);
-        localDelta = -1;
+        startNewReferenceLevel(localLevel(), timestamp, originId);
     }
 
     /*
      * Copies the given ReferenceLevel and reflects it. Redefines the deltas
      * accordingly.
-     * 
+     *
      * @param rl The ReferenceLevel to be copied and relfected
      */
     public void reflectReferenceLevel(ReferenceLevel rl) {
         this.rl = rl.copy();
         this.rl.reflect();
-        if (this.rl.localHops == 0) {
-            globalDelta = 0;
+        if (this.rl.level == GLOBAL) {
+            deltas[GLOBAL] = 0;
         } else {
-            localDelta = -1;
+            deltas[this.rl.level] = -1;
         }
     }
 
+    /*
+     * Checks if another Height advertises the same load of the local cluster.
+     * The load is not part of the order of heights.
+     *
+     * @param h The other Height
+     *
+     * @return true if the path to the local leader, the members and the split
+     * are the same
+     */
+    public boolean sameLoad(Height h) {
+        return via == h.via && members == h.members && clusterSize == h.clusterSize && splitId == h.splitId;
+    }
+
     /*
      * Creates a String representation of the height for logging purposes
-     * 
+     *
      * @return The string representation
      */
     public String toString() {
-        return "(" + rl + "," + globalDelta + "," + globalLeaderPair + "," + localDelta + "," + localLeaderPair + ","
-                + nodeId + ")";
+        String s = "(" + rl;
+        for (int l = 0; l < deltas.length; l++) {
+            s += "," + deltas[l] + "," + leaderPairs[l];
+        }
+        return s + "," + nodeId + ")";
     }
 
     /*
-     * Compares to another Height lexicographicaly.
-     * 
+     * Compares to another Height lexicographicaly: the reference level, then the
+     * delta and leader pair of each level from the global one, then the node id.
+     *
      * @param h The compared Height
-     * 
+     *
      * @return 0 if they are equal
-     * 
+     *
      * @return 1 if this is greater than h
-     * 
+     *
      * @return -1 if this is smaller than h
      */
     @Override
     public int compareTo(Height h) {
-        if (rl.compareTo(h.rl) == 0) {
-            if (globalDelta == h.globalDelta) {
-                if (globalLeaderPair.compareTo(h.globalLeaderPair) == 0) {
-                    if (localDelta == h.localDelta) {
-                        if (localLeaderPair.compareTo(h.localLeaderPair) == 0) {
-                            if (nodeId == h.nodeId) {
-                                return 0;
-                            } else if (nodeId < h.nodeId) {
-                                return -1;
-                            } else {
-                                return 1;
-                            }
-                        } else if (localLeaderPair.compareTo(h.localLeaderPair) < 0) {
-                            return -1;
-                        } else {
-                            return 1;
-                        }
-                    } else if (localDelta < h.localDelta) {
-                        return -1;
-                    } else {
-                        return 1;
-                    }
-                } else if (globalLeaderPair.compareTo(h.globalLeaderPair) < 0) {
-                    return -1;
-                } else {
-                    return 1;
-                }
-            } else if (globalDelta < h.globalDelta) {
-                return -1;
-            } else {
-                return 1;
-            }
-        } else if (rl.compareTo(h.rl) < 0) {
+        int c = rl.compareTo(h.rl);
+        if (c != 0)
+            return c;
+        for (int l = 0; l < deltas.length; l++) {
+            if (deltas[l] != h.deltas[l])
+                return deltas[l] < h.deltas[l] ? -1 : 1;
+            c = leaderPairs[l].compareTo(h.leaderPairs[l]);
+            if (c != 0)
+                return c;
+        }
+        if (nodeId == h.nodeId) {
+            return 0;
+        } else if (nodeId < h.nodeId) {
             return -1;
         } else {
             return 1;
         }
     }
-}
\ No newline at end of file
+}
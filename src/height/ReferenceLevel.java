@@ -8,9 +8,11 @@ public class ReferenceLevel implements Comparable<ReferenceLevel> {
     public int originId; /* Id of the node that started the search */
     public int reflected; /* Reflected flag. If 0 the search hasn't been reflected, if 1 it has */
     public int localHops; /*
-                           * Number of hops taken in the search of a local leader. If the search is
+                           * Number of hops taken in the search of a leader below the global level, or
+                           * latency travelled when links are weighted by latency. If the search is
                            * global, this number is 0
                            */
+    public int level; /* Level of the leader searched. 0 is the global level, higher levels are more local */
 
     /*
      * Constructor. Initializes the variables. All values to 0 represent that a
@@ -21,10 +23,12 @@ public class ReferenceLevel implements Comparable<ReferenceLevel> {
         originId = 0;
         reflected = 0;
         localHops = 0;
+        level = 0;
     }
 
     /*
-     * Constructor. Initializes the variables.
+     * Constructor. Initializes the variables for a network with a global and a
+     * local level. Searches with hops are local.
      * 
      * @param t The timestamp
      * 
@@ -35,10 +39,28 @@ public class ReferenceLevel implements Comparable<ReferenceLevel> {
      * @param The number of hops
      */
     public ReferenceLevel(int t, int oid, int r, int lh) {
+        this(t, oid, r, lh, lh > 0 ? 1 : 0);
+    }
+
+    /*
+     * Constructor. Initializes the variables.
+     * 
+     * @param t The timestamp
+     * 
+     * @param oid The origin id
+     * 
+     * @param r The reflected flag
+     * 
+     * @param lh The number of hops
+     * 
+     * @param l The level of the search
+     */
+    public ReferenceLevel(int t, int oid, int r, int lh, int l) {
         timestamp = t;
         originId = oid;
         reflected = r;
         localHops = lh;
+        level = l;
     }
 
     /*
@@ -47,7 +69,7 @@ public class ReferenceLevel implements Comparable<ReferenceLevel> {
      * @return The new ReferenceValue
      */
     public ReferenceLevel copy() {
-        return new ReferenceLevel(timestamp, originId, reflected, localHops);
+        return new ReferenceLevel(timestamp, originId, reflected, localHops, level);
     }
 
     /*
@@ -63,12 +85,13 @@ public class ReferenceLevel implements Comparable<ReferenceLevel> {
      * @return The string representation
      */
     public String toString() {
-        return "(" + timestamp + "," + originId + "," + reflected + "," + localHops + ")";
+        return "(" + timestamp + "," + originId + "," + reflected + "," + localHops + "," + level + ")";
     }
 
     /*
      * Compares to another ReferenceLevel lexicographicaly. For the purposes of this
-     * comparison, all localHops greater than 0 are the same
+     * comparison, the number of hops is ignored and the level is compared instead,
+     * so a search of a wider level, like the global one, is smaller
      * 
      * @param rl The compared ReferenceLevel
      * 
@@ -83,9 +106,9 @@ public class ReferenceLevel implements Comparable<ReferenceLevel> {
         if (timestamp == rl.timestamp) {
             if (originId == rl.originId) {
                 if (reflected == rl.reflected) {
-                    if (((localHops == 0) && (rl.localHops == 0)) || ((localHops > 0) && (rl.localHops > 0))) {
+                    if (level == rl.level) {
                         return 0;
-                    } else if ((localHops == 0) && (rl.localHops > 0)) {
+                    } else if (level < rl.level) {
                         return -1;
                     } else {
                         return 1;
@@ -6,18 +6,28 @@ import akka.actor.UntypedAbstractActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import events.*;
+import profiling.ChannelEnqueueEvent;
+import profiling.ChannelForwardEvent;
 
 /* 
-* MessageForwarding Thread class. 
-* Used by the channel to keep forwarding the messages in the queue while the status is up.
+* MessageForwarding class. 
+* Loop run by the channel on its own thread to keep forwarding the messages in the queue while the status is up.
+* The thread is a platform or a virtual thread depending on network.forwarding. The loop never blocks while
+* holding a monitor, so virtual threads are not pinned to their carrier.
 */
-class MessageForwarding extends Thread {
+class MessageForwarding implements Runnable {
     public Channel channel; /* Channel that holds the messages to forward */
-    private final Object lock = new Object(); /* Stops the message forwarding when the status is down */
+    private final ReentrantLock lock = new ReentrantLock(); /* Guards the wait for the status to go up */
+    private final Condition up = lock.newCondition(); /* Signaled when the status goes up */
+    private volatile boolean running = true; /* Cleared when the channel stops */
+    private Thread thread; /* Thread running the loop. Null until the channel goes up for the first time */
 
     /*
      * Constructor. Initializes the variables.
@@ -29,42 +39,81 @@ class MessageForwarding extends Thread {
     }
 
     /*
-     * Restarts message forwarding when channel goes up.
+     * Restarts message forwarding when channel goes up. Starts the thread the
+     * first time, so channels that never go up cost no thread.
      */
     public void forward() {
-        synchronized (lock) {
-            lock.notifyAll();
+        if (thread == null) {
+            thread = NetworkConfig.forwardingThreads(channel.getContext().getSystem()).newThread(this);
+            thread.start();
+        }
+        lock.lock();
+        try {
+            up.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Stops the loop and its thread.
+     */
+    public void stop() {
+        running = false;
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /*
+     * Waits until the status of the channel is 1 (up).
+     */
+    private void awaitUp() throws InterruptedException {
+        lock.lock();
+        try {
+            while (channel.status == 0 && running) {
+                up.await();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     /*
-     * Main Thread method. If the channel is up, forwards the message at the head of
-     * the queue every 2 seconds. IF the channel is down, pauses and waits for it to
-     * go up.
+     * Main loop. If the channel is up, waits for the message at the head of the
+     * queue and forwards it after a delay drawn from the channel's DelayModel,
+     * divided by Network.TIME_SCALE. If the channel went up or down since the
+     * message was queued, the message is dropped. If the channel is down, pauses
+     * and waits for it to go up.
      */
     public void run() {
-        while (true) {
-            synchronized (lock) {
-                if (channel.status == 0) {
-                    synchronized (lock) {
-                        try {
-                            lock.wait();
-                        } catch (InterruptedException e) {
-                            break;
-                        }
-                    }
-                }
-                Update message;
-                if (!channel.messageQueue.isEmpty()) {
-                    message = channel.messageQueue.poll();
+        while (running) {
+            try {
+                awaitUp();
+                Update message = channel.messageQueue.take();
+                if (channel.holding)
+                    channel.getSelf().tell(Channel.DRAIN, ActorRef.noSender());
+                ChannelForwardEvent event = new ChannelForwardEvent();
+                event.begin();
+                int epoch = message.linkEpoch; // stamped when queued, so a status change before take() is seen
+                long delay = (long) (channel.delay.nextDelay() * 1000000 / Network.TIME_SCALE);
+                if (delay > 0)
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                boolean stale = channel.epoch != epoch;
+                if (!stale) {
                     channel.log("Forwarding message " + message);
                     channel.receiver.tell(message, channel.getSelf());
                 }
-                try {
-                    Thread.sleep(2000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                event.end();
+                if (event.shouldCommit()) {
+                    event.channel = channel.getSelf().path().name();
+                    event.senderId = message.height.nodeId;
+                    event.delay = delay;
+                    event.queueDepth = channel.messageQueue.size();
+                    event.stale = stale;
+                    event.commit();
                 }
+            } catch (InterruptedException e) {
+                break;
             }
         }
     }
@@ -77,12 +126,21 @@ class MessageForwarding extends Thread {
 public class Channel extends UntypedAbstractActor {
     public ActorRef sender; /* Sender node. Channel receives messages from this node */
     public ActorRef receiver; /* Receiver node. Channel forwards messages to this node */
-    public int status; /*
+    public volatile int status; /*
                         * Status of the channel. 0 is down, 1 is up. When up, received messages are
                         * added to the queue and queued messages are forwarded. When down, messages are
                         * ignored and the queue is emptied.
                         */
-    public Queue<Update> messageQueue; /* Queue of messages to forward */
+    public volatile int epoch; /* Epoch of the channel. Incremented every time the status changes */
+    public RingBuffer<Update> messageQueue; /* Bounded queue of messages to forward */
+    private final ArrayDeque<Update> held; /*
+                                            * Updates refused by the full queue with the block policy, in order, at
+                                            * most as many as the queue holds. Only touched by the actor
+                                            */
+    volatile boolean holding; /* Some Updates are held, so the forwarding thread asks for them when it frees space */
+    static final Object DRAIN = new Object(); /* Sent by the forwarding thread to move held Updates to the queue */
+    public DelayModel delay; /* Distribution of the time taken to forward each message */
+    private final List<RingBuffer<?>> queues; /* Outgoing queues of the sender, where this queue is registered, or null */
     private MessageForwarding mf; /* MessageForwarding system */
 
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this); /* Akka logger */
@@ -95,14 +153,40 @@ public class Channel extends UntypedAbstractActor {
      * @param r Receiver node
      * 
      * @param st Initial status
+     * 
+     * @param d Delay model of the channel
+     */
+    public Channel(ActorRef s, ActorRef r, int st, DelayModel d) {
+        this(s, r, st, d, null);
+    }
+
+    /*
+     * Constructor. The queue is registered in a list of the sender, so the
+     * messages it waits to send can be counted by adding up the sizes.
+     * 
+     * @param queues Outgoing queues of the sender, or null
+     */
+    public Channel(ActorRef s, ActorRef r, int st, DelayModel d, List<RingBuffer<?>> queues) {
+        this(s, r, st, d, queues, 0);
+    }
+
+    /*
+     * Constructor. The epochs of the channel start after the given one.
+     * 
+     * @param e Initial epoch
      */
-    public Channel(ActorRef s, ActorRef r, int st) {
+    public Channel(ActorRef s, ActorRef r, int st, DelayModel d, List<RingBuffer<?>> queues, int e) {
         sender = s;
         receiver = r;
         status = st;
-        messageQueue = new LinkedList<Update>();
+        delay = d;
+        epoch = e;
+        messageQueue = NetworkConfig.channelQueue(getContext().getSystem(), Update::merge);
+        held = new ArrayDeque<Update>(messageQueue.capacity());
+        this.queues = queues;
+        if (queues != null)
+            queues.add(messageQueue);
         mf = new MessageForwarding(this);
-        mf.start();
     }
 
     /*
@@ -114,11 +198,38 @@ public class Channel extends UntypedAbstractActor {
      * 
      * @param st Initial status
      * 
+     * @param d Delay model of the channel
+     * 
+     * @return Props object of the created actor
+     */
+    public static Props createActor(ActorRef s, ActorRef r, int st, DelayModel d) {
+        return createActor(s, r, st, d, null);
+    }
+
+    /*
+     * Creates an actor of type Channel in the akka system, whose queue is
+     * registered in the outgoing queues of the sender.
+     * 
+     * @param queues Outgoing queues of the sender, or null
+     * 
      * @return Props object of the created actor
      */
-    public static Props createActor(ActorRef s, ActorRef r, int st) {
+    public static Props createActor(ActorRef s, ActorRef r, int st, DelayModel d, List<RingBuffer<?>> queues) {
+        return createActor(s, r, st, d, queues, 0);
+    }
+
+    /*
+     * Creates an actor of type Channel in the akka system, whose epochs start
+     * after the given one.
+     * 
+     * @param e Initial epoch
+     * 
+     * @return Props object of the created actor
+     */
+    public static Props createActor(ActorRef s, ActorRef r, int st, DelayModel d, List<RingBuffer<?>> queues,
+            int e) {
         return Props.create(Channel.class, () -> {
-            return new Channel(s, r, st);
+            return new Channel(s, r, st, d, queues, e);
         });
     }
 
@@ -136,7 +247,8 @@ public class Channel extends UntypedAbstractActor {
      * queue.
      */
     public void logState() {
-        String s = "Status:" + status + "\nMessages:\n";
+        String s = "Status:" + status + "\nDelay:" + delay + "\nHigh-water mark:" + messageQueue.highWaterMark() + "/"
+                + messageQueue.capacity() + "\nDropped:" + messageQueue.dropped() + "\nMessages:\n";
         for (Update u : messageQueue) {
             s += "\t" + u + "\n";
         }
@@ -146,43 +258,92 @@ public class Channel extends UntypedAbstractActor {
     /*
      * Called when a message is received by the actor.
      * 
+     * Status changes increment the epoch of the channel, which is stamped on every
+     * event sent to the receiver node. Updates are stamped when they enter the
+     * queue: only this actor changes the epoch and empties the queue, so every
+     * queued Update carries the epoch it was queued under, and the forwarding
+     * thread drops it if the epoch moved on before it was delivered.
+     * 
      * A ChannelDown event will change the status to 0 (down), empty the queue and
      * send the event to the receiver node.
      * 
      * A ChannelUp event will change the status to 1 (up), restart the
      * MessageForwarding thread and send the event to the receiver node.
      * 
-     * An Update event will be added to the message queue if the channel is up.
+     * An Update event will be added to the message queue if the channel is up. If
+     * the queue is full, the configured policy holds it back, drops the oldest
+     * message or replaces the newest one. Held Updates wait in the actor, in
+     * order, and move to the queue as the forwarding thread frees space, so the
+     * actor never waits and keeps handling status changes. At most as many
+     * Updates as the queue holds are held, so the memory of a link doesn't
+     * depend on the load, and the ones past that are dropped and counted with
+     * the drops of the queue. A ChannelDown drops them with the queue.
      * 
      * A SetUp event will do the same as a ChannelUp.
      * 
      * @param message The received message
      */
     @Override
-    public void onReceive(Object message) {
+    public void onReceive(Object message) throws Throwable {
         if (message instanceof ChannelDown && status == 1) {
             ChannelDown chdown = (ChannelDown) message;
             status = 0;
-            messageQueue = new LinkedList<Update>();
+            epoch++;
+            messageQueue.clear();
+            held.clear();
+            holding = false;
+            chdown.linkEpoch = epoch;
             receiver.tell(message, getSelf());
             log.info("\n[{}]: Received {}", getSelf().path().name(), chdown);
             logState();
         } else if (message instanceof ChannelUp && status == 0) {
             ChannelUp chup = (ChannelUp) message;
             status = 1;
+            epoch++;
+            chup.linkEpoch = epoch;
             mf.forward();
             receiver.tell(message, getSelf());
             log.info("\n[{}]: Received {}", getSelf().path().name(), chup);
             logState();
         } else if (message instanceof Update) {
             Update u = (Update) message;
-            if (status == 1)
-                messageQueue.add(u);
+            if (status == 1) {
+                ChannelEnqueueEvent event = new ChannelEnqueueEvent();
+                event.begin();
+                u.linkEpoch = epoch;
+                if (held.isEmpty()) {
+                    holding = true; // before trying, so a slot freed after a refusal is always reported
+                    holding = !messageQueue.add(u);
+                }
+                if (holding) {
+                    if (held.size() < messageQueue.capacity()) {
+                        held.add(u);
+                        messageQueue.countHeld(held.size());
+                    } else {
+                        messageQueue.countDropped();
+                    }
+                }
+                event.end();
+                if (event.shouldCommit()) {
+                    event.channel = getSelf().path().name();
+                    event.senderId = u.height.nodeId;
+                    event.queueDepth = messageQueue.size();
+                    event.dropped = messageQueue.dropped();
+                    event.commit();
+                }
+            }
             log.info("\n[{}]: Received {}", getSelf().path().name(), u);
             logState();
+        } else if (message == DRAIN) {
+            while (!held.isEmpty() && messageQueue.add(held.peek())) {
+                held.poll();
+            }
+            holding = !held.isEmpty();
         } else if (message instanceof SetUp) {
             SetUp sup = (SetUp) message;
             status = 1;
+            epoch++;
+            sup.linkEpoch = epoch;
             mf.forward();
             receiver.tell(message, getSelf());
             log.info("\n[{}]: Received {}", getSelf().path().name(), sup);
@@ -192,11 +353,14 @@ public class Channel extends UntypedAbstractActor {
     }
 
     /*
-     * Called when the actor is terminated. Destroys the MessageForwarding thread.
+     * Called when the actor is terminated. Stops the MessageForwarding thread and
+     * unregisters the queue from the sender.
      */
     @Override
     public void postStop() {
         log.info("\n[{}]: Terminating...", getSelf().path().name());
-        mf.destroy();
+        mf.stop();
+        if (queues != null)
+            queues.remove(messageQueue);
     }
 }
\ No newline at end of file
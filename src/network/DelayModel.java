@@ -0,0 +1,194 @@
+package network;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * DelayModel class. Distribution of the time a channel takes to forward each
+ * message, in milliseconds of simulated time, and the fraction of heartbeats
+ * it loses. Samples use the random generator of the calling thread, so a single
+ * model can be shared by many channels.
+ */
+public abstract class DelayModel {
+
+    /*
+     * Draws the delay of the next message.
+     *
+     * @return The delay in milliseconds
+     */
+    public abstract double nextDelay();
+
+    /*
+     * Mean of the distribution. Used where a single value per link is needed.
+     *
+     * @return The mean delay in milliseconds
+     */
+    public abstract double mean();
+
+    /*
+     * Fraction of the heartbeats of the failure detector lost by the channel.
+     * Updates are never lost, since the election assumes reliable channels.
+     *
+     * @return The probability of losing each heartbeat, 0 by default
+     */
+    public double loss() {
+        return 0;
+    }
+
+    /*
+     * Draws whether the next heartbeat is lost.
+     *
+     * @return true with probability loss()
+     */
+    public boolean lost() {
+        double p = loss();
+        return p > 0 && ThreadLocalRandom.current().nextDouble() < p;
+    }
+
+    /*
+     * Same delays, losing a fraction of the heartbeats.
+     *
+     * @param p The probability of losing each heartbeat
+     *
+     * @return The lossy model
+     */
+    public DelayModel withLoss(double p) {
+        if (p < 0 || p > 1)
+            throw new IllegalArgumentException("Loss must be between 0 and 1: " + p);
+        DelayModel delays = this;
+        return new DelayModel() {
+            public double nextDelay() {
+                return delays.nextDelay();
+            }
+
+            public double mean() {
+                return delays.mean();
+            }
+
+            public double loss() {
+                return p;
+            }
+
+            public String toString() {
+                return delays + " losing " + p;
+            }
+        };
+    }
+
+    /*
+     * Every message takes the same time.
+     *
+     * @param ms The delay
+     */
+    public static DelayModel constant(double ms) {
+        return new DelayModel() {
+            public double nextDelay() {
+                return ms;
+            }
+
+            public double mean() {
+                return ms;
+            }
+
+            public String toString() {
+                return "constant(" + ms + ")";
+            }
+        };
+    }
+
+    /*
+     * Delays uniformly distributed between min and max.
+     *
+     * @param min The minimum delay
+     *
+     * @param max The maximum delay
+     */
+    public static DelayModel uniform(double min, double max) {
+        return new DelayModel() {
+            public double nextDelay() {
+                return min + (max - min) * ThreadLocalRandom.current().nextDouble();
+            }
+
+            public double mean() {
+                return (min + max) / 2;
+            }
+
+            public String toString() {
+                return "uniform(" + min + "," + max + ")";
+            }
+        };
+    }
+
+    /*
+     * Exponentially distributed delays.
+     *
+     * @param mean The mean delay
+     */
+    public static DelayModel exponential(double mean) {
+        return new DelayModel() {
+            public double nextDelay() {
+                return -mean * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+            }
+
+            public double mean() {
+                return mean;
+            }
+
+            public String toString() {
+                return "exponential(" + mean + ")";
+            }
+        };
+    }
+
+    /*
+     * Empirical distribution of measured delays. Samples interpolate linearly
+     * between the sorted measures, so the shape of the distribution is kept.
+     *
+     * @param samples The measured delays
+     */
+    public static DelayModel empirical(double[] samples) {
+        if (samples.length == 0)
+            throw new IllegalArgumentException("Empirical distribution without samples");
+        double[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).average().getAsDouble();
+        return new DelayModel() {
+            public double nextDelay() {
+                double q = ThreadLocalRandom.current().nextDouble() * (sorted.length - 1);
+                int i = (int) q;
+                if (i + 1 >= sorted.length)
+                    return sorted[i];
+                return sorted[i] + (q - i) * (sorted[i + 1] - sorted[i]);
+            }
+
+            public double mean() {
+                return mean;
+            }
+
+            public String toString() {
+                return "empirical(" + sorted.length + " samples)";
+            }
+        };
+    }
+
+    /*
+     * Loads an empirical distribution from a text file with one delay in
+     * milliseconds per line. Empty lines and lines starting with # are ignored.
+     *
+     * @param path Path of the file
+     */
+    public static DelayModel empirical(String path) throws IOException {
+        List<Double> samples = new ArrayList<Double>();
+        for (String line : Files.readAllLines(Paths.get(path))) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#"))
+                samples.add(Double.parseDouble(line));
+        }
+        return empirical(samples.stream().mapToDouble(Double::doubleValue).toArray());
+    }
+}
@@ -0,0 +1,702 @@
+package network;
+
+import akka.actor.ActorRef;
+
+import height.Height;
+import height.LeaderPair;
+import height.ReferenceLevel;
+import profiling.ReflectionEvent;
+import profiling.SearchStartEvent;
+import profiling.SelfElectionEvent;
+
+/*
+ * Election class. The state of one election group in a node, and the algorithm
+ * that runs it. A node runs one election per group over the same neighbors and
+ * channels, so a group costs its heights and messages, not actors or threads.
+ * Called only by the node actor, which sends the Updates of every group on a
+ * link in a single message at the end of each event.
+ */
+public class Election {
+
+    public final int group; /* Id of the election group */
+    public final int nodeId; /* Id of the node */
+    public Height height; /* Height of the node in this group */
+    public Height[] heights; /* Set of heights of neighbor nodes in this group, indexed by the slot of each neighbor in the node */
+    public int[] leaderIds; /* Id of the leader of each level. leaderIds[0] is the global leader */
+    volatile LeaderView leaders; /* Latest published leader pairs of the node in this group */
+    boolean touched; /* Handled the current event of the node. Its leaders are checked when the node publishes */
+    private Height deferred; /* Height of the node when it deferred a search or self election, or null */
+    private final Node node; /* Node running the election */
+
+    /*
+     * Constructor. Initializes the variables.
+     * 
+     * @param node Node running the election
+     * 
+     * @param group Id of the group
+     * 
+     * @param deltas Number of hops from the node to its leader of each level in
+     * initial configuration, starting from the global level
+     * 
+     * @param leaderIds Initial leader id of each level, starting from the global
+     * level
+     * 
+     * @param timestamps Timestamp of the initial leader pair of each level, or
+     * null to give them all timestamp 1
+     */
+    Election(Node node, int group, int[] deltas, int[] leaderIds, int[] timestamps) {
+        this.node = node;
+        this.group = group;
+        nodeId = node.nodeId;
+        this.leaderIds = leaderIds.clone();
+        heights = new Height[node.slotIds.length];
+        LeaderPair[] pairs = new LeaderPair[leaderIds.length];
+        for (int l = 0; l < pairs.length; l++) {
+            pairs[l] = new LeaderPair(timestamps == null ? -1 : -timestamps[l], leaderIds[l]);
+        }
+        height = new Height(deltas.clone(), pairs, nodeId);
+    }
+
+    public Height getHeight() {
+        return height;
+    }
+
+    /*
+     * Gets the height of a neighbor in this group.
+     * 
+     * @param neighborId Id of the neighbor
+     * 
+     * @return The last height received from it, or null if the link is down or
+     * it never sent one
+     */
+    Height neighbor(int neighborId) {
+        int s = node.slotOf(neighborId);
+        return s < 0 ? null : heights[s];
+    }
+
+    /*
+     * Saves the height of a neighbor in the height set, in the slot of the
+     * neighbor. The slot is taken if the neighbor has none yet, which may grow
+     * the height sets of every group.
+     * 
+     * @param h Height of the neighbor, not modified later by the caller
+     */
+    void saveNeighbor(Height h) {
+        int s = node.slot(h.nodeId);
+        heights[s] = h;
+    }
+
+    /*
+     * Handles the loss of a neighbor. Checks if there is a path to the leader. If
+     * there isn't, starts a search, unless the node was asked to wait for the
+     * link to come back.
+     * 
+     * @param neighborId Id of the neighbor removed
+     * 
+     * @param defer true to wait for the grace window instead of searching
+     */
+    void channelDown(int neighborId, boolean defer) {
+        int s = node.slotOf(neighborId);
+        if (s >= 0)
+            heights[s] = null;
+        if (!node.hasNeighbors() && (nodeId != leaderIds[Height.GLOBAL])) {
+            if (defer) {
+                deferred = height.copy();
+                return;
+            }
+            //log.info("\n[{}]: No neighbors, electing self...", getSelf().path().name());
+            electSelf(Height.GLOBAL);
+            updateLoad();
+            sendToForming(height);
+        } else if (isSink() && nodeId != leaderIds[Height.GLOBAL]) {
+            if (defer) {
+                deferred = height.copy();
+                return;
+            }
+            //log.info("\n[{}]: Is a sink, searching the lowest level it doesn't lead", getSelf().path().name());
+            startSearch(searchLevel());
+            updateLoad();
+            sendToAll(height);
+        } else{
+            Height myOldHeight = height.copy();
+            updateDeltas();
+            updateLoad();
+            if (myOldHeight.compareTo(height) != 0 || !myOldHeight.sameLoad(height)) {
+                sendToAll(height);
+            }
+        }
+    }
+
+    /*
+     * Handles the end of the grace window of a deferred search. If nothing
+     * changed the height of the node since, and it still has no path to the
+     * leader, does what the loss of the link would have done.
+     * 
+     * @return true if the election handled the deferral
+     */
+    boolean graceExpired() {
+        if (deferred == null)
+            return false;
+        boolean unchanged = deferred.compareTo(height) == 0;
+        deferred = null;
+        if (!unchanged || nodeId == leaderIds[Height.GLOBAL])
+            return true;
+        if (!node.hasNeighbors()) {
+            //log.info("\n[{}]: Link did not come back, electing self...", getSelf().path().name());
+            electSelf(Height.GLOBAL);
+            updateLoad();
+            sendToForming(height);
+        } else if (isSink()) {
+            //log.info("\n[{}]: Link did not come back, searching...", getSelf().path().name());
+            startSearch(searchLevel());
+            updateLoad();
+            sendToAll(height);
+        }
+        return true;
+    }
+
+    /*
+     * Handles an Update of a neighbor in this group. Saves its height in the
+     * height set and decides how to change its own height based on the algortihm.
+     * If the height was changed, sends an update to neighbors.
+     * 
+     * @param h Height of the neighbor
+     */
+    void update(Height h) {
+        saveNeighbor(h.copy());
+        Height myOldHeight = height.copy();
+        ReferenceLevel neighborsRL = h.rl;
+        int level = firstDifferentLeader(myOldHeight, h);
+        if (level > Height.GLOBAL) { // same global leaders
+            if (level == leaderIds.length || (neighborsRL.timestamp>0 && neighborsRL.level < level) ) { // same leaders below the search
+                if (isSink()) {
+                    //log.info("\n[{}]: Is sink...", getSelf().path().name());
+                    if (nodeId != leaderIds[Height.GLOBAL] && h.rl.level > Height.GLOBAL
+                            && nodeId == leaderIds[h.rl.level]) { // search found a leader of its level
+                        //log.info("\n[{}]: Search found a leader of its level, searching a level above...",
+                        //        getSelf().path().name());
+                        startSearch(searchLevel());
+                    }
+                    if(nodeId != leaderIds[Height.GLOBAL]){
+                        if (h.rl.reflected == 0 && h.rl.level > Height.GLOBAL
+                                && h.rl.localHops + weight(h.nodeId, h.rl.level)
+                                        > Network.HOP_BOUNDS[h.rl.level] + 1) { // search has gone too far
+                            //log.info("\n[{}]: Local search gone too far, reflecting...", getSelf().path().name());
+                            reflect(h.rl);
+                        }  else if (neighborsHaveSameRL(neighborsRL)) { // neighbors have the same RL
+                            //log.info("\n[{}]: All neighbors have the same RL (dead end)...", getSelf().path().name());
+                            if (neighborsRL.timestamp > 0 && neighborsRL.reflected == 0) { // search hasn't been reflected
+                                                                                        // yet
+                                //log.info("\n[{}]: The search has not been reflected, reflecting it...",
+                                //        getSelf().path().name());
+                                reflect(h.rl);
+                            } else if (neighborsRL.timestamp > 0 && neighborsRL.reflected == 1
+                                    && neighborsRL.originId == nodeId) { // search has been reflected and it was started by
+                                                                        // this node
+                                //log.info("\n[{}]: The reflected search has reached the origin, electing self...",
+                                //        getSelf().path().name());
+
+                                electSelf(neighborsRL.level);
+                            } else { // the search has been relfected and this node didn't start it
+                                //log.info(
+                                //        "\n[{}]: There is no search happening, or a reflected search reached a second dead end, starting new search...",
+                                //        getSelf().path().name());
+
+                                startSearch(searchLevel());
+                            }
+                        } else { // neighbors have different RL
+                            //log.info("\n[{}]: Neighbors have different RL, propagating largest...",
+                            //        getSelf().path().name());
+                            propagateLargestRL();
+                        }
+                    }
+                } else{ // is not a sink
+                    // the search is done send a message back with your height
+                    if(minDelta(myOldHeight)>0 || nodeId == leaderIds[leaderIds.length - 1]){
+                        if(minDelta(h) <=0)
+                            sendMessage(node.neighbors[h.nodeId], height);
+                    }
+                    // the search was done and you received a new height
+                    updateDeltas();
+                }
+            } else { // different leaders of a level below the global one
+                if (!leadersInNeighborhood(level) && nodeId != leaderIds[level]) {
+                    //log.info("\n[{}]: Different leaders, leaders far away, electing self...",
+                    //        getSelf().path().name());
+                    electSelf(level);
+                } else {
+                    //log.info("\n[{}]: Different leaders, checking priority...", getSelf().path().name());
+                    adoptLPIfPriority(level, h.nodeId);
+                }
+            }
+        } else { // different global leaders
+            //log.info("\n[{}]: Different global leaders, checking priority...", getSelf().path().name());
+            adoptGLPIfPriority(h.nodeId);
+        }
+
+        updateLoad();
+        if (myOldHeight.compareTo(height) != 0 || !myOldHeight.sameLoad(height)) {
+            sendToAll(height);
+        }
+    }
+
+    /*
+     * Checks if a neighbor's local leader is not this node's and already leads
+     * MAX_CLUSTER nodes, so it takes no more members.
+     * 
+     * @param h Height of the neighbor
+     * 
+     * @return true if the cluster size is capped and the neighbor's cluster is
+     * full
+     */
+    private boolean fullCluster(Height h) {
+        int local = h.localLevel();
+        return Network.MAX_CLUSTER > 0 && h.clusterSize >= Network.MAX_CLUSTER
+                && h.leaderPairs[local].compareTo(height.leaderPairs[local]) != 0;
+    }
+
+    /*
+     * Updates the load of its local cluster, when the cluster size is capped.
+     * The members of a cluster form a tree rooted at the local leader: each node
+     * points to the neighbor closest to the leader, counts the nodes of its
+     * subtree and passes the count up, and the leader passes the size of the
+     * cluster back down. A leader with more than MAX_CLUSTER members asks its
+     * largest subtree to split. The request goes down the largest subtrees to the
+     * smallest one that still holds the excess members, whose root elects itself
+     * local leader and takes them along.
+     */
+    private void updateLoad() {
+        if (Network.MAX_CLUSTER <= 0)
+            return;
+        Height my = height;
+        int local = my.localLevel();
+        boolean leader = nodeId == leaderIds[local];
+        my.via = -1;
+        if (!leader && my.deltas[local] >= 0) {
+            int best = my.deltas[local];
+            for (Height h : heights) {
+                if (h != null && h.deltas[local] >= 0 && h.deltas[local] < best
+                        && h.leaderPairs[local].compareTo(my.leaderPairs[local]) == 0) {
+                    best = h.deltas[local];
+                    my.via = h.nodeId;
+                }
+            }
+        }
+        my.members = 1;
+        int child = -1;
+        int largest = 0;
+        for (Height h : heights) {
+            if (h != null && h.via == nodeId
+                    && h.leaderPairs[local].compareTo(my.leaderPairs[local]) == 0) {
+                my.members += h.members;
+                if (h.members > largest) {
+                    largest = h.members;
+                    child = h.nodeId;
+                }
+            }
+        }
+        Height parent = my.via < 0 ? null : neighbor(my.via);
+        my.clusterSize = leader || parent == null ? my.members : parent.clusterSize;
+        my.splitId = -1;
+        int excess = my.clusterSize - Network.MAX_CLUSTER;
+        if (excess > 0 && (leader || (parent != null && parent.splitId == nodeId))) {
+            if (child >= 0 && (leader || largest >= excess)) {
+                my.splitId = child;
+            } else {
+                //log.info("\n[{}]: Local cluster is full, splitting...", getSelf().path().name());
+                electSelf(local);
+                my.via = -1;
+                my.clusterSize = my.members;
+            }
+        }
+    }
+
+    /*
+     * Gets the distance the link to a neighbor adds to the paths through that
+     * neighbor, at a level. Global deltas only orient the links towards the
+     * global leader, so they always count hops.
+     * 
+     * @param neighborId Id of the neighbor
+     * 
+     * @param level The level
+     * 
+     * @return 1 when distances count hops, the latency of the link otherwise
+     */
+    private int weight(int neighborId, int level) {
+        return level == Height.GLOBAL ? 1 : node.linkWeights[neighborId];
+    }
+
+    /*
+     * Checks if neighbors know of a leader of a level within the hop bound of
+     * the level, that takes more members if it's a local leader.
+     * 
+     * @param level The level
+     * 
+     * @return true if there is at least one leader of the level within its bound
+     * 
+     * @return false otherwise
+     */
+    private boolean leadersInNeighborhood(int level) {
+        for (Height h : heights) {
+            if (h != null && h.deltas[level] >= 0
+                    && h.deltas[level] + weight(h.nodeId, level) <= Network.HOP_BOUNDS[level]
+                    && (level < h.localLevel() || !fullCluster(h))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Finds the widest level at which two heights have different leader pairs.
+     * 
+     * @param a A height
+     * 
+     * @param b Another height
+     * 
+     * @return The level, or the number of levels if all the leader pairs are the
+     * same
+     */
+    private static int firstDifferentLeader(Height a, Height b) {
+        for (int l = 0; l < a.leaderPairs.length; l++) {
+            if (a.leaderPairs[l].compareTo(b.leaderPairs[l]) != 0)
+                return l;
+        }
+        return a.leaderPairs.length;
+    }
+
+    /*
+     * Gets the smallest delta of a height, over all levels.
+     * 
+     * @param h The height
+     * 
+     * @return The smallest delta
+     */
+    private static int minDelta(Height h) {
+        int min = h.deltas[0];
+        for (int d : h.deltas) {
+            min = Math.min(min, d);
+        }
+        return min;
+    }
+
+    /*
+     * Gets the level of the search this node starts when it loses its path to a
+     * leader: the lowest level it doesn't lead. A node that leads its local level
+     * searches for the leader of the level above, and so on up to the global one.
+     * 
+     * @return The level
+     */
+    private int searchLevel() {
+        for (int l = leaderIds.length - 1; l > Height.GLOBAL; l--) {
+            if (leaderIds[l] != nodeId)
+                return l;
+        }
+        return Height.GLOBAL;
+    }
+
+    /*
+     * Checks if the node has no outgoing links.
+     * 
+     * @return true if the node is not a global leader and is the lowest among its
+     * neighbors
+     * 
+     * @return false otherwise
+     */
+    private boolean isSink() {
+        boolean isSink = true;
+        for (Height h : heights) {
+            if (h != null) {
+                isSink = isSink && (h.globalLeaderPair().compareTo(height.globalLeaderPair()) == 0)
+                        && (height.compareTo(h) < 0);
+            }
+            if (!isSink) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Check if all neighbors have the same ReferenceLevel.
+     * 
+     * @return true if all neighbors have the same RL
+     * 
+     * @return false otherwise
+     */
+    private boolean neighborsHaveSameRL(ReferenceLevel rl) {
+        for (Height h : heights) {
+            if (h != null && h.rl.compareTo(rl) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Adopts the largest ReferenceLevel among its neighbors as its own.
+     */
+    private void propagateLargestRL() {
+        ReferenceLevel rl = new ReferenceLevel();
+        int from = nodeId;
+        for (Height h : heights) {
+            if (h != null && h.rl.compareTo(rl) > 0) {
+                rl = h.rl;
+                from = h.nodeId;
+            }
+        }
+        int delta = 0;
+        for (Height h : heights) {
+            if (h != null) {
+                if (h.rl.compareTo(rl) == 0 && h.deltas[rl.level] < delta) {
+                    delta = h.deltas[rl.level];
+                }
+            }
+        }
+        height.rl = rl.copy();
+        if (rl.level > Height.GLOBAL) {
+            height.rl.localHops += weight(from, rl.level);
+        }
+        height.deltas[rl.level] = delta - 1;
+    }
+
+    /*
+     * Redefine its leader pair of a level to elect itself as leader with
+     * causalClock as timestamp. It also becomes the leader of the levels below.
+     * 
+     * @param level The level
+     */
+    private void electSelf(int level) {
+        height.elect(level, node.causalClock, nodeId);
+        for (int l = level; l < leaderIds.length; l++) {
+            leaderIds[l] = nodeId;
+        }
+        node.selfElections++;
+        SelfElectionEvent event = new SelfElectionEvent();
+        if (event.shouldCommit()) {
+            event.height(height, node.causalClock);
+            event.group = group;
+            event.level = level;
+            event.global = level == Height.GLOBAL;
+            event.commit();
+        }
+    }
+
+    /*
+     * Starts a search for a leader of a level, with causalClock as timestamp.
+     * 
+     * @param level The level
+     */
+    private void startSearch(int level) {
+        height.startNewReferenceLevel(level, node.causalClock, nodeId);
+        SearchStartEvent event = new SearchStartEvent();
+        if (event.shouldCommit()) {
+            event.height(height, node.causalClock);
+            event.group = group;
+            event.level = level;
+            event.global = level == Height.GLOBAL;
+            event.commit();
+        }
+    }
+
+    /*
+     * Reflects a search back to its origin.
+     * 
+     * @param rl The ReferenceLevel of the search
+     */
+    private void reflect(ReferenceLevel rl) {
+        height.reflectReferenceLevel(rl);
+        ReflectionEvent event = new ReflectionEvent();
+        if (event.shouldCommit()) {
+            event.height(height, node.causalClock);
+            event.group = group;
+            event.commit();
+        }
+    }
+
+    /*
+     * Adopts the neighbor's global leader if its been elected more recently.
+     * 
+     * @param neighborId Id of the neighbor whose leader it may adopt
+     */
+    private void adoptGLPIfPriority(int neighborId) {
+        Height h = neighbor(neighborId);
+        if (h.globalLeaderPair().compareTo(height.globalLeaderPair()) < 0) {
+            height.rl = h.rl.copy();
+            height.deltas[Height.GLOBAL] = h.globalDelta()+1;
+            height.leaderPairs[Height.GLOBAL] = h.globalLeaderPair().copy();
+            if(h.deltas[1] + weight(neighborId, 1) <= Network.HOP_BOUNDS[1]){
+                adoptLPIfPriority(1, neighborId);
+            }
+            leaderIds[Height.GLOBAL] = h.globalLeaderPair().leaderId;
+        } else {
+            sendMessage(node.neighbors[neighborId], height);
+        }
+    }
+
+    /*
+     * Adopts the neighbor's leader of a level below the global one if it's closer
+     * than its own leader, or if it's closer to the leader of the level above.
+     * Then does the same for the level below, if the neighbor's leader of that
+     * level is within its bound. A node with a local leader never moves to a
+     * full local cluster.
+     * 
+     * @param level The level
+     * 
+     * @param neighborId Id of the neighbor whose leader it may adopt
+     */
+    private void adoptLPIfPriority(int level, int neighborId) {
+        Height h = neighbor(neighborId);
+        Height my = height;
+        int above = level - 1;
+        int wa = weight(neighborId, above);
+        int w = weight(neighborId, level);
+        boolean known = true;
+        for (int l = 0; l <= level; l++) {
+            known = known && h.deltas[l] >= 0;
+        }
+        if (level == h.localLevel() && my.deltas[level] >= 0 && fullCluster(h))
+            return; // its leader takes no more members
+        if (known) {
+            if ((my.deltas[level] < 0)
+                    || (h.deltas[above] + wa < my.deltas[above])
+                    || ((h.deltas[above] + wa == my.deltas[above])
+                            && (h.deltas[level] + w < my.deltas[level]))
+                    || ((h.deltas[above] + wa == my.deltas[above])
+                            && (h.deltas[level] + w >= my.deltas[level])
+                            && h.leaderPairs[level].compareTo(my.leaderPairs[level]) < 0)) {
+                my.rl = h.rl.copy();
+                for (int l = 0; l <= level; l++) {
+                    my.deltas[l] = h.deltas[l]+weight(neighborId, l);
+                    my.leaderPairs[l] = h.leaderPairs[l].copy();
+                    leaderIds[l] = h.leaderPairs[l].leaderId;
+                }
+                int below = level + 1;
+                if (below < leaderIds.length && h.deltas[below] + weight(neighborId, below) <= Network.HOP_BOUNDS[below]) {
+                    adoptLPIfPriority(below, neighborId);
+                }
+            }
+        } else {
+            sendMessage(node.neighbors[neighborId], height);
+        }
+    }
+
+    /* 
+     * Updates its global delta to the shortest path to the global leader
+     */
+    private void updateGlobalDelta(){
+        int delta = height.globalDelta()>=0?height.globalDelta()+1:node.neighbors.length;
+        for(Height h: heights){
+            if(h != null && h.globalDelta()>=0){
+                if(h.globalLeaderPair().leaderId == leaderIds[Height.GLOBAL] && h.globalDelta() < delta){
+                    delta = h.globalDelta();
+                }
+            }
+        }
+        height.deltas[Height.GLOBAL] = delta+1;
+        if(nodeId == leaderIds[Height.GLOBAL]){
+            height.deltas[Height.GLOBAL] = 0;
+        }
+    }
+
+    /* 
+     * Updates its delta of a level below the global one to the shortest path to
+     * its leader of that level. If the leader is too far, elect self as leader
+     * of the level. Below a bounded level, only neighbors with the same leader of
+     * the level above lead to the leader, so a leader left in another region
+     * ends up too far.
+     * 
+     * @param level The level
+     */
+    private void updateDelta(int level){
+        int bound = Network.HOP_BOUNDS[level];
+        int above = level - 1;
+        int delta = height.deltas[level]>=0?height.deltas[level]+1:bound;
+        int w = 1;
+        for(Height h: heights){
+            if(h != null && h.deltas[level]>=0){
+                if(above > Height.GLOBAL
+                        && h.leaderPairs[above].compareTo(height.leaderPairs[above]) != 0)
+                    continue;
+                if(h.leaderPairs[level].leaderId == leaderIds[level]
+                        && h.deltas[level] + weight(h.nodeId, level) < delta + w){
+                    delta = h.deltas[level];
+                    w = weight(h.nodeId, level);
+                }
+            }
+        }
+        if(nodeId == leaderIds[level]){
+            delta = -1;
+            w = 1;
+        }
+        if(delta+w > bound){
+            electSelf(level);
+        }
+        else{
+            height.deltas[level] = delta+w;
+        }
+    }
+
+    /* 
+     * Updates its deltas to the shortest paths to its leaders, from the local
+     * level up to the global one.
+     */
+    private void updateDeltas(){
+        for (int l = leaderIds.length - 1; l > Height.GLOBAL; l--) {
+            updateDelta(l);
+        }
+        updateGlobalDelta();
+    }
+
+    /*
+     * Sends an Update message of this group to the target with the given height
+     * 
+     * @param target Channel to send the message to
+     * 
+     * @param height Height to send to target
+     */
+    void sendMessage(ActorRef target, Height height) {
+        node.send(target, group, height);
+    }
+
+    /*
+     * Sends an Update message to all channels in the neighbor set
+     * 
+     * @height Height to send to neighbors
+     */
+    private void sendToNeihgbors(Height height) {
+        for (int s = 0; s < node.slotCount; s++) {
+            ActorRef target = node.neighbors[node.slotIds[s]];
+            if (target != null)
+                sendMessage(target, height);
+        }
+    }
+
+    /*
+     * Sends an Update message to all channels in the forming set
+     * 
+     * @height Height to send to neighbors
+     */
+    private void sendToForming(Height height) {
+        for (int s = 0; s < node.slotCount; s++) {
+            ActorRef target = node.forming[node.slotIds[s]];
+            if (target != null)
+                sendMessage(target, height);
+        }
+    }
+
+    /*
+     * Sends an Update message to all channels in the forming and neighbor sets
+     * 
+     * @height Height to send to neighbors
+     */
+    private void sendToAll(Height height) {
+        sendToNeihgbors(height);
+        for (int s = 0; s < node.slotCount; s++) {
+            int j = node.slotIds[s];
+            if (node.forming[j] != null && node.neighbors[j] == null) {
+                sendMessage(node.forming[j], height);
+            }
+        }
+    }
+}
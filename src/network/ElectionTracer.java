@@ -0,0 +1,271 @@
+package network;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import height.Height;
+import height.LeaderPair;
+import height.ReferenceLevel;
+
+/*
+ * ElectionTracer class. Follows every leader search from the event that
+ * triggered it to the moment the whole network agrees on the elected leader.
+ * A search is identified by the (timestamp, originId) of its reference level.
+ * Its span records the trigger, the hops the search travelled, the reflections,
+ * the messages sent while it was the reference level of the sender, and the
+ * outcome. After an election the span lasts until the last node adopts the new
+ * leader pair, and the messages carrying the pair are attributed to it.
+ *
+ * Nodes report the change of their height after every event. Times are in
+ * simulated microseconds since the tracer was created. Spans are exported in
+ * the Trace Event Format read by chrome://tracing and Perfetto.
+ */
+public class ElectionTracer {
+
+    /*
+     * Span class. A search and, if it succeeded, the spreading of its leader.
+     */
+    public static class Span {
+        public final int level; /* Level of the leader searched, 0 being the global one */
+        public final int timestamp; /* Timestamp of the reference level */
+        public final int originId; /* Node that started the search */
+        public final String trigger; /* Event that made the origin start the search */
+        public final double start; /* Time the search started */
+        public double end; /* Time of the last event attributed to the span */
+        public int hops; /* Longest path travelled by the search, in hops */
+        public int reflections; /* Number of nodes that reflected the search */
+        public long messages; /* Updates attributed to the span */
+        public String outcome = "unfinished"; /* elected, abandoned or unfinished */
+        public double electedAt = -1; /* Time the origin elected itself, or -1 */
+        public final Set<Integer> agreed = new HashSet<Integer>(); /* Nodes that adopted the elected leader pair */
+        final Map<Integer, Integer> nodeHops = new HashMap<Integer, Integer>(); /* Hops from the origin of each node reached */
+
+        Span(int level, int timestamp, int originId, String trigger, double start) {
+            this.level = level;
+            this.timestamp = timestamp;
+            this.originId = originId;
+            this.trigger = trigger;
+            this.start = start;
+            this.end = start;
+            nodeHops.put(originId, 0);
+        }
+    }
+
+    private final long origin = System.nanoTime(); /* Time 0 of the trace */
+    private final List<Span> spans = new ArrayList<Span>(); /* Every span, in order of start */
+    private final Map<Long, Span> searches = new HashMap<Long, Span>(); /* Spans by reference level */
+    private final Map<Long, Span> elections = new HashMap<Long, Span>(); /* Spans by elected leader pair */
+    private final List<String> instants = new ArrayList<String>(); /* Reflections and elections, as trace events */
+    private int levels = 2; /* Number of levels of the network, as seen in the reported heights */
+
+    /*
+     * Gets the current simulated time.
+     *
+     * @return Microseconds since the tracer was created
+     */
+    private double now() {
+        return (System.nanoTime() - origin) / 1e3 * Network.TIME_SCALE;
+    }
+
+    private static long key(int a, int b) {
+        return ((long) a << 32) | (b & 0xffffffffL);
+    }
+
+    private static long key(LeaderPair lp) {
+        return key(lp.negativeTimestamp, lp.leaderId);
+    }
+
+    /*
+     * Reports the change of the height of a node after it handled an event, and
+     * the Updates it sent while handling it.
+     *
+     * @param nodeId Id of the node
+     *
+     * @param before Height of the node before the event
+     *
+     * @param after Height of the node after the event
+     *
+     * @param e The event
+     *
+     * @param from Height of the neighbor that sent the event, or null if it was
+     * not an Update
+     *
+     * @param sent Heights carried by the Updates sent
+     */
+    public synchronized void eventHandled(int nodeId, Height before, Height after, Object e, Height from,
+            List<Height> sent) {
+        heightChanged(nodeId, before, after, e, from);
+        for (Height h : sent) {
+            messageSent(h);
+        }
+    }
+
+    private void heightChanged(int nodeId, Height before, Height after, Object e, Height from) {
+        double t = now();
+        levels = after.levels();
+        ReferenceLevel rb = before.rl;
+        ReferenceLevel ra = after.rl;
+        boolean newRL = ra.timestamp > 0 && (ra.timestamp != rb.timestamp || ra.originId != rb.originId);
+
+        if (newRL && ra.originId == nodeId && ra.reflected == 0) {
+            // Search started by this node
+            abandon(rb, nodeId, t);
+            Span s = new Span(ra.level, ra.timestamp, ra.originId, e.getClass().getSimpleName(), t);
+            spans.add(s);
+            searches.put(key(ra.timestamp, ra.originId), s);
+        } else if (ra.timestamp > 0) {
+            Span s = searches.get(key(ra.timestamp, ra.originId));
+            if (s != null) {
+                if (newRL || !s.nodeHops.containsKey(nodeId)) {
+                    Integer h = from == null ? null : s.nodeHops.get(from.nodeId);
+                    int hops = h == null ? s.hops : h + 1;
+                    s.nodeHops.put(nodeId, hops);
+                    s.hops = Math.max(s.hops, hops);
+                }
+                if (ra.reflected == 1 && (newRL || rb.reflected == 0) && from != null && from.rl.reflected == 0) {
+                    s.reflections++;
+                    instant("reflect", s, nodeId, t);
+                }
+                s.end = t;
+            }
+        }
+
+        Span elected = null;
+        for (int l = 0; l < levels; l++) {
+            LeaderPair b = before.leaderPairs[l];
+            LeaderPair a = after.leaderPairs[l];
+            if (elected != null && a.leaderId == nodeId && b.compareTo(a) != 0) {
+                // An election also makes the node its own leader of the levels below
+                elections.put(key(a), elected);
+            } else {
+                Span s = checkLeader(nodeId, b, a, rb, l, t);
+                if (elected == null && s != null && s.electedAt == t)
+                    elected = s;
+            }
+        }
+    }
+
+    /*
+     * Attributes a change of leader pair to the span that elected it. If the node
+     * elected itself at the end of its own search, closes the search.
+     *
+     * @return The span, or null if the pair did not change or was not traced
+     */
+    private Span checkLeader(int nodeId, LeaderPair before, LeaderPair after, ReferenceLevel rb, int level, double t) {
+        if (before.compareTo(after) == 0)
+            return null;
+        if (after.leaderId == nodeId) {
+            Span s = rb.originId == nodeId ? searches.get(key(rb.timestamp, rb.originId)) : null;
+            if (s == null || s.level != level) {
+                // Election without a search of this level, e.g. the node lost every neighbor
+                s = new Span(level, 0, nodeId, "no search", t);
+                spans.add(s);
+            }
+            s.outcome = "elected";
+            s.electedAt = t;
+            s.end = t;
+            s.agreed.add(nodeId);
+            elections.put(key(after), s);
+            instant("elect", s, nodeId, t);
+            return s;
+        }
+        Span s = elections.get(key(after));
+        if (s != null) {
+            s.agreed.add(nodeId);
+            s.end = t;
+        }
+        return s;
+    }
+
+    /*
+     * Marks the search of a node as abandoned, when it starts another one.
+     */
+    private void abandon(ReferenceLevel rl, int nodeId, double t) {
+        if (rl.timestamp == 0 || rl.originId != nodeId)
+            return;
+        Span s = searches.get(key(rl.timestamp, rl.originId));
+        if (s != null && s.outcome.equals("unfinished")) {
+            s.outcome = "abandoned";
+            s.end = t;
+        }
+    }
+
+    /*
+     * Attributes an Update sent by a node to the span of its height: its search,
+     * or the election of its leader once the search is over.
+     *
+     * @param height Height carried by the Update
+     */
+    private void messageSent(Height height) {
+        Span s = null;
+        if (height.rl.timestamp > 0) {
+            s = searches.get(key(height.rl.timestamp, height.rl.originId));
+        } else {
+            for (LeaderPair lp : height.leaderPairs) {
+                Span e = elections.get(key(lp));
+                if (e != null && (s == null || e.start > s.start))
+                    s = e;
+            }
+        }
+        if (s != null)
+            s.messages++;
+    }
+
+    private void instant(String name, Span s, int nodeId, double t) {
+        instants.add(String.format(Locale.ROOT,
+                "{\"name\":\"%s\",\"cat\":\"election\",\"ph\":\"i\",\"s\":\"t\",\"ts\":%.3f,\"pid\":%d,\"tid\":%d,"
+                        + "\"args\":{\"node\":%d,\"search\":\"(%d,%d)\"}}",
+                name, t, s.level + 1, s.originId, nodeId, s.timestamp, s.originId));
+    }
+
+    /*
+     * Gets a copy of the spans recorded so far.
+     *
+     * @return The spans, in order of start
+     */
+    public synchronized List<Span> spans() {
+        return new ArrayList<Span>(spans);
+    }
+
+    /*
+     * Writes the spans in the Trace Event Format. Each span is a complete event
+     * on the thread of its origin, in the process of its level.
+     *
+     * @param path Path of the JSON file. Missing directories are created
+     */
+    public synchronized void export(String path) throws IOException {
+        Path file = Paths.get(path).toAbsolutePath();
+        Files.createDirectories(file.getParent());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+            for (int l = 0; l < levels; l++) {
+                out.println(String.format(Locale.ROOT,
+                        "%s{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":%d,\"args\":{\"name\":\"%s elections\"}}",
+                        l > 0 ? "," : "", l + 1, Network.levelName(l, levels)));
+            }
+            for (Span s : spans) {
+                out.println(String.format(Locale.ROOT,
+                        ",{\"name\":\"%s search (%d,%d)\",\"cat\":\"election\",\"ph\":\"X\",\"ts\":%.3f,\"dur\":%.3f,"
+                                + "\"pid\":%d,\"tid\":%d,\"args\":{\"trigger\":\"%s\",\"outcome\":\"%s\",\"hops\":%d,"
+                                + "\"reflections\":%d,\"messages\":%d,\"agreed\":%d,\"electedAt\":%.3f}}",
+                        Network.levelName(s.level, levels), s.timestamp, s.originId, s.start, s.end - s.start,
+                        s.level + 1, s.originId, s.trigger, s.outcome, s.hops, s.reflections, s.messages, s.agreed.size(),
+                        s.electedAt));
+            }
+            for (String i : instants) {
+                out.println("," + i);
+            }
+            out.println("]}");
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * FailureDetector class. Sends heartbeats on every link of the topology, in
+ * both directions, and declares a link down when its policy suspects either
+ * direction, and up again when heartbeats come back in both. Declaring a link
+ * down or up sends ChannelDown or ChannelUp to its channels, as dropChannel and
+ * remakeChannel do.
+ *
+ * Heartbeats travel the delay model of their channel and are lost as often as
+ * it says. failLink cuts a link silently, like a broken cable: no event is sent
+ * and the detector has to find out. Heartbeats, arrivals and timeouts of every
+ * link share a single TimerWheel, and the state of the links is kept in flat
+ * arrays, so large networks only cost a few numbers per link.
+ */
+public class FailureDetector {
+
+    private static final double ALPHA = 1.0 / 64; /* Weight of each new interval in the mean and variance */
+
+    private final Network network; /* Network whose links are watched */
+    public final FailurePolicy policy; /* Decides when a link is suspected */
+    public final double intervalMs; /* Time between the heartbeats of a link */
+    private final TimerWheel wheel; /* Timers of every link */
+    private final int[] from; /* Sender of each directed link */
+    private final int[] to; /* Receiver of each directed link */
+    private final int[] reverse; /* Directed link going the other way */
+    private final DelayModel[] delays; /* Delay model of each directed link */
+    private final double[] lastArrival; /* Time of the last heartbeat received on each link, or -1 */
+    private final double[] mean; /* Mean interval between heartbeats, on each link */
+    private final double[] variance; /* Variance of the intervals, on each link */
+    private final boolean[] checking; /* A timeout check is waiting in the wheel, for each link */
+    private final boolean[] suspected; /* The policy suspects the link */
+    private final boolean[] cut; /* The link was cut by failLink and drops every heartbeat */
+    public volatile long heartbeats; /* Number of heartbeats received */
+    public volatile long suspicions; /* Number of times a link was declared down */
+    public volatile long recoveries; /* Number of times a link was declared up again */
+
+    /*
+     * Constructor. Initializes the variables. The heartbeats start with start().
+     *
+     * @param network The network
+     *
+     * @param topologyGraph Graph of the links to watch
+     *
+     * @param delays Delay model of each channel
+     *
+     * @param policy The failure policy
+     *
+     * @param intervalMs Time between the heartbeats of a link
+     *
+     * @param wheel The timer wheel
+     */
+    public FailureDetector(Network network, int[][] topologyGraph, DelayModel[][] delays, FailurePolicy policy,
+            double intervalMs, TimerWheel wheel) {
+        this.network = network;
+        this.policy = policy;
+        this.intervalMs = intervalMs;
+        this.wheel = wheel;
+        int n = topologyGraph.length;
+        List<int[]> links = new ArrayList<int[]>();
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (topologyGraph[i][j] == 1)
+                    links.add(new int[] { i, j });
+            }
+        }
+        int m = 2 * links.size();
+        from = new int[m];
+        to = new int[m];
+        reverse = new int[m];
+        this.delays = new DelayModel[m];
+        for (int k = 0; k < links.size(); k++) {
+            int i = links.get(k)[0], j = links.get(k)[1];
+            from[2 * k] = i;
+            to[2 * k] = j;
+            from[2 * k + 1] = j;
+            to[2 * k + 1] = i;
+            reverse[2 * k] = 2 * k + 1;
+            reverse[2 * k + 1] = 2 * k;
+            this.delays[2 * k] = delays[i][j];
+            this.delays[2 * k + 1] = delays[j][i];
+        }
+        lastArrival = new double[m];
+        mean = new double[m];
+        variance = new double[m];
+        checking = new boolean[m];
+        suspected = new boolean[m];
+        cut = new boolean[m];
+        for (int k = 0; k < m; k++) {
+            lastArrival[k] = -1;
+            mean[k] = intervalMs;
+            variance[k] = intervalMs * intervalMs / 16;
+        }
+    }
+
+    /*
+     * Starts the heartbeats of every link, spread over one interval, and the
+     * timeouts of the links that never receive any.
+     */
+    public void start() {
+        for (int k = 0; k < from.length; k++) {
+            int link = k;
+            wheel.schedule(() -> send(link), ThreadLocalRandom.current().nextDouble() * intervalMs);
+            wheel.schedule(() -> check(link), intervalMs + policy.timeout(mean[link], variance[link]));
+            checking[k] = true;
+        }
+        wheel.start("failure-detector");
+    }
+
+    /*
+     * Stops the heartbeats and the timeouts.
+     */
+    public void stop() {
+        wheel.stop();
+    }
+
+    /*
+     * Gets the number of directed links watched.
+     *
+     * @return Twice the number of links of the topology
+     */
+    public int links() {
+        return from.length;
+    }
+
+    /*
+     * Finds the directed link from a node to another. Links are numbered in
+     * order of their lowest and then highest node, so the search is binary.
+     *
+     * @return The index of the link, or -1 if they are not linked
+     */
+    private int link(int i, int j) {
+        int a = Math.min(i, j), b = Math.max(i, j);
+        int lo = 0, hi = from.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = from[2 * mid] != a ? Integer.compare(from[2 * mid], a) : Integer.compare(to[2 * mid], b);
+            if (c == 0)
+                return i < j ? 2 * mid : 2 * mid + 1;
+            if (c < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Cuts a link silently. Its heartbeats are lost in both directions until
+     * healLink, and only the detector can tell the nodes.
+     *
+     * @param i Id of one of the nodes of the link
+     *
+     * @param j Id of the other node
+     */
+    public void failLink(int i, int j) {
+        setCut(i, j, true);
+    }
+
+    /*
+     * Repairs a link cut by failLink.
+     *
+     * @param i Id of one of the nodes of the link
+     *
+     * @param j Id of the other node
+     */
+    public void healLink(int i, int j) {
+        setCut(i, j, false);
+    }
+
+    /*
+     * Stops watching the links of a node removed from the network. They are cut
+     * and taken as suspected, so they never raise a ChannelDown or ChannelUp
+     * again, even for a node that later takes the same id. Links of nodes that
+     * join at runtime are not watched.
+     *
+     * @param nodeId Id of the removed node
+     */
+    public void forget(int nodeId) {
+        wheel.schedule(() -> {
+            for (int k = 0; k < from.length; k++) {
+                if (from[k] == nodeId || to[k] == nodeId) {
+                    cut[k] = true;
+                    suspected[k] = true;
+                }
+            }
+        }, 0);
+    }
+
+    private void setCut(int i, int j, boolean c) {
+        int k = link(i, j);
+        if (k < 0)
+            throw new IllegalArgumentException("No link between " + i + " and " + j);
+        wheel.schedule(() -> {
+            cut[k] = c;
+            cut[reverse[k]] = c;
+        }, 0);
+    }
+
+    /*
+     * Gets the current suspicion level of the link from a node to another.
+     * Read without synchronization, so the value may be slightly out of date.
+     *
+     * @param i Id of the sender of the heartbeats
+     *
+     * @param j Id of the receiver
+     *
+     * @return The phi of the link
+     */
+    public double phi(int i, int j) {
+        int k = link(i, j);
+        if (k < 0)
+            throw new IllegalArgumentException("No link between " + i + " and " + j);
+        double last = lastArrival[k] < 0 ? 0 : lastArrival[k];
+        return policy.phi(wheel.now() - last, mean[k], variance[k]);
+    }
+
+    /*
+     * Sends the next heartbeat of a link, unless the link is cut or loses it,
+     * and schedules the following one.
+     *
+     * @param k The directed link
+     */
+    private void send(int k) {
+        if (!cut[k] && !delays[k].lost())
+            wheel.schedule(() -> arrive(k), delays[k].nextDelay());
+        wheel.schedule(() -> send(k), intervalMs);
+    }
+
+    /*
+     * Handles the arrival of a heartbeat. Updates the mean and variance of the
+     * intervals of the link, trusts it again if it was suspected, and makes sure
+     * its timeout is checked.
+     *
+     * @param k The directed link
+     */
+    private void arrive(int k) {
+        heartbeats++;
+        double now = wheel.now();
+        if (lastArrival[k] >= 0 && !suspected[k]) {
+            double d = now - lastArrival[k] - mean[k];
+            mean[k] += ALPHA * d;
+            variance[k] = (1 - ALPHA) * (variance[k] + ALPHA * d * d);
+        }
+        lastArrival[k] = now;
+        if (suspected[k]) {
+            suspected[k] = false;
+            if (!suspected[reverse[k]]) {
+                recoveries++;
+                network.remakeChannel(from[k], to[k]);
+            }
+        }
+        if (!checking[k]) {
+            checking[k] = true;
+            wheel.schedule(() -> check(k), policy.timeout(mean[k], variance[k]));
+        }
+    }
+
+    /*
+     * Checks the timeout of a link. Heartbeats don't move the check, so a link
+     * whose timeout was pushed back by a later heartbeat is checked again then.
+     *
+     * @param k The directed link
+     */
+    private void check(int k) {
+        double last = lastArrival[k] < 0 ? 0 : lastArrival[k];
+        double left = last + policy.timeout(mean[k], variance[k]) - wheel.now();
+        if (left > 0) {
+            wheel.schedule(() -> check(k), left);
+            return;
+        }
+        checking[k] = false;
+        if (!suspected[k]) {
+            suspected[k] = true;
+            if (!suspected[reverse[k]]) {
+                suspicions++;
+                network.dropChannel(from[k], to[k]);
+            }
+        }
+    }
+}
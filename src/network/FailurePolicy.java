@@ -0,0 +1,118 @@
+package network;
+
+/*
+ * FailurePolicy class. Decides when the failure detector suspects a link,
+ * from the heartbeats it received on it. Each link keeps the mean and variance
+ * of the intervals between its heartbeats, and the policy gives the time after
+ * the last heartbeat at which the link is suspected. Times are in milliseconds
+ * of simulated time.
+ */
+public abstract class FailurePolicy {
+
+    /*
+     * Gets the time a link can stay silent before being suspected.
+     *
+     * @param mean Mean interval between the heartbeats of the link
+     *
+     * @param variance Variance of the intervals
+     *
+     * @return The time after the last heartbeat
+     */
+    public abstract double timeout(double mean, double variance);
+
+    /*
+     * Suspicion level of a link, in the scale of the phi accrual detector: phi is
+     * 1 when the probability that the next heartbeat is still on its way is 10%,
+     * 2 when it's 1%, and so on.
+     *
+     * @param elapsed Time since the last heartbeat
+     *
+     * @param mean Mean interval between the heartbeats of the link
+     *
+     * @param variance Variance of the intervals
+     *
+     * @return The suspicion level
+     */
+    public abstract double phi(double elapsed, double mean, double variance);
+
+    /*
+     * Suspects a link after a fixed time without heartbeats.
+     *
+     * @param ms The timeout
+     */
+    public static FailurePolicy fixedTimeout(double ms) {
+        if (ms <= 0)
+            throw new IllegalArgumentException("Timeout must be positive: " + ms);
+        return new FailurePolicy() {
+            public double timeout(double mean, double variance) {
+                return ms;
+            }
+
+            public double phi(double elapsed, double mean, double variance) {
+                return elapsed < ms ? 0 : Double.POSITIVE_INFINITY;
+            }
+
+            public String toString() {
+                return "fixed-timeout(" + ms + ")";
+            }
+        };
+    }
+
+    /*
+     * Phi accrual failure detector (Hayashibara et al.). The intervals between
+     * heartbeats are taken as normally distributed, and a link is suspected when
+     * phi reaches the threshold. The cumulative distribution is approximated by a
+     * logistic function, as in akka. Phi only depends on how many standard
+     * deviations the silence exceeds the mean by, so the threshold is turned into
+     * that number once and each timeout is a closed formula.
+     *
+     * @param threshold Phi at which links are suspected
+     *
+     * @param minStdDeviation Lower bound of the standard deviation, so regular
+     * heartbeats don't make the detector too sensitive
+     *
+     * @param acceptablePause Extra silence tolerated on top of the distribution
+     */
+    public static FailurePolicy phiAccrual(double threshold, double minStdDeviation, double acceptablePause) {
+        if (threshold <= 0 || minStdDeviation <= 0)
+            throw new IllegalArgumentException("Threshold and minimum deviation must be positive");
+        double lo = 0, hi = 64;
+        for (int i = 0; i < 100; i++) {
+            double mid = (lo + hi) / 2;
+            if (phi(mid) < threshold) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        double z = hi; /* Standard deviations above the mean at which phi reaches the threshold */
+        return new FailurePolicy() {
+            public double timeout(double mean, double variance) {
+                return mean + acceptablePause + z * Math.max(minStdDeviation, Math.sqrt(variance));
+            }
+
+            public double phi(double elapsed, double mean, double variance) {
+                return FailurePolicy.phi((elapsed - mean - acceptablePause)
+                        / Math.max(minStdDeviation, Math.sqrt(variance)));
+            }
+
+            public String toString() {
+                return "phi-accrual(" + threshold + "," + minStdDeviation + "," + acceptablePause + ")";
+            }
+        };
+    }
+
+    /*
+     * Phi of a silence y standard deviations above the mean interval.
+     *
+     * @param y The normalized silence
+     *
+     * @return -log10 of the probability that the heartbeat is still on its way
+     */
+    private static double phi(double y) {
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (y > 0)
+            return -Math.log10(e / (1 + e));
+        return -Math.log10(1 - 1 / (1 + e));
+    }
+}
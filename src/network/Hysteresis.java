@@ -0,0 +1,87 @@
+package network;
+
+/*
+ * Hysteresis class. Settings that keep a flapping link from causing repeated
+ * elections, read from network.hysteresis. Every time a link goes down its
+ * penalty grows by 1, and it halves every halfLifeMs, as in route flap damping.
+ * A sink that lost a link that already went down within the last half-life
+ * waits graceMs before searching, in case the link comes back. A link whose
+ * penalty reaches suppress is ignored when it comes back up, until its penalty
+ * decays to reuse. Times are in milliseconds of simulated time.
+ */
+public class Hysteresis {
+
+    public static final Hysteresis OFF = new Hysteresis(0, 60000, 0, 1); /* No grace window and no suppression */
+
+    public final double graceMs; /* Time a sink waits before searching after a recent flap. 0 to search at once */
+    public final double halfLifeMs; /* Time it takes a flap penalty to halve */
+    public final double suppress; /* Penalty at which a link is suppressed. 0 to never suppress */
+    public final double reuse; /* Penalty under which a suppressed link is brought back up */
+
+    /*
+     * Constructor. Initializes the variables.
+     *
+     * @param graceMs Grace window of a sink after a recent flap
+     *
+     * @param halfLifeMs Half-life of the flap penalties
+     *
+     * @param suppress Penalty at which links are suppressed
+     *
+     * @param reuse Penalty under which they are reused
+     */
+    public Hysteresis(double graceMs, double halfLifeMs, double suppress, double reuse) {
+        if (halfLifeMs <= 0)
+            throw new IllegalArgumentException("Half-life must be positive: " + halfLifeMs);
+        if (suppress > 0 && reuse >= suppress)
+            throw new IllegalArgumentException("Reuse penalty must be below the suppress penalty: " + reuse);
+        this.graceMs = graceMs;
+        this.halfLifeMs = halfLifeMs;
+        this.suppress = suppress;
+        this.reuse = reuse;
+    }
+
+    /*
+     * Checks if the flap penalties need to be tracked.
+     *
+     * @return true if there is a grace window or links can be suppressed
+     */
+    public boolean enabled() {
+        return graceMs > 0 || suppress > 0;
+    }
+
+    /*
+     * Decays a penalty.
+     *
+     * @param penalty The penalty
+     *
+     * @param elapsedMs Time since the penalty was last updated
+     *
+     * @return The penalty now
+     */
+    public double decay(double penalty, double elapsedMs) {
+        return penalty * Math.pow(0.5, elapsedMs / halfLifeMs);
+    }
+
+    /*
+     * Gets the time a suppressed link has to wait before being reused.
+     *
+     * @param penalty The penalty of the link
+     *
+     * @return The time it takes the penalty to decay to reuse
+     */
+    public double reuseDelay(double penalty) {
+        if (penalty <= reuse)
+            return 0;
+        return halfLifeMs * Math.log(penalty / reuse) / Math.log(2);
+    }
+
+    /*
+     * Creates a String representation of the settings for logging purposes
+     *
+     * @return The string representation
+     */
+    public String toString() {
+        return "Hysteresis(grace " + graceMs + ", half-life " + halfLifeMs + ", suppress " + suppress + ", reuse "
+                + reuse + ")";
+    }
+}
@@ -0,0 +1,277 @@
+package network;
+
+import akka.actor.ActorSystem;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/*
+ * InitialState class. Computes a converged starting configuration of an
+ * election group for a topology, so a network starts from a state the
+ * algorithm would keep instead of settling from hand-typed deltas.
+ *
+ * Global deltas come from a level-synchronous BFS from the global leader,
+ * each frontier expanded in parallel. Nodes it doesn't reach get the lowest id
+ * of their component as global leader. The leaders of each bounded level are
+ * then chosen greedily inside the clusters of the level above, in order of
+ * distance to their leader: a node joins the cluster of the neighbors on its
+ * shortest path to that leader when one of them is within the bound and is at
+ * least as close and as recently elected as all the others, and leads a new
+ * cluster otherwise.
+ *
+ * The algorithm moves a node to the leader of a neighbor that is closer to
+ * the leader above, or as close with a smaller leader pair, so clusters
+ * further from the leader above must hold smaller pairs. Each new cluster gets
+ * a more recent timestamp than every cluster chosen before it, and nodes start
+ * with their clock past the timestamps of their leaders.
+ *
+ * Clusters are not capped by network.max-cluster-size: a capped network splits
+ * the larger ones when it starts. With latency weights on links of different
+ * delays, a node may still move when its shortest path to its local leader
+ * goes away from the global leader.
+ */
+public class InitialState {
+
+    public final int[] hopBounds; /* Hop bounds of the levels below the global one, from the widest to the local level */
+    public final int[][] deltas; /* deltas[l][i] is the distance between node i and its leader of level l */
+    public final int[][] leaders; /* leaders[l][i] is the leader of level l of node i */
+    public final int[][] timestamps; /* timestamps[l][i] is the timestamp of the leader pair of level l of node i */
+
+    private InitialState(int[] hopBounds, int n) {
+        this.hopBounds = hopBounds.clone();
+        deltas = new int[hopBounds.length + 1][n];
+        leaders = new int[hopBounds.length + 1][n];
+        timestamps = new int[hopBounds.length + 1][n];
+    }
+
+    /*
+     * Computes the initial state of a network with a global and a local level,
+     * with links counting one hop.
+     *
+     * @param topologyGraph Graph representing the topology of the network
+     *
+     * @param globalLeader Id of the global leader
+     *
+     * @param maxHops Maximum number of hops between a node and its local leader
+     *
+     * @return The initial state
+     */
+    public static InitialState compute(int[][] topologyGraph, int globalLeader, int maxHops) {
+        return compute(topologyGraph, globalLeader, new int[] { maxHops }, null);
+    }
+
+    /*
+     * Computes the initial state of a network whose channels all use the delay
+     * model of the configuration, with the link metric of the configuration.
+     *
+     * @param system ActorSystem holding the configuration
+     *
+     * @param topologyGraph Graph representing the topology of the network
+     *
+     * @param globalLeader Id of the global leader
+     *
+     * @param hopBounds Hop bounds of the levels below the global one
+     *
+     * @return The initial state
+     */
+    public static InitialState compute(ActorSystem system, int[][] topologyGraph, int globalLeader, int[] hopBounds) {
+        int w = NetworkConfig.linkWeight(system, NetworkConfig.delayModel(system));
+        int[][] weights = null;
+        if (w != 1) {
+            weights = new int[topologyGraph.length][topologyGraph.length];
+            for (int[] row : weights) {
+                Arrays.fill(row, w);
+            }
+        }
+        return compute(topologyGraph, globalLeader, hopBounds, weights);
+    }
+
+    /*
+     * Computes the initial state of a network.
+     *
+     * @param topologyGraph Graph representing the topology of the network. If
+     * topologyGraph[i][j] is 1, i and j are linked
+     *
+     * @param globalLeader Id of the global leader
+     *
+     * @param hopBounds Hop bounds of the levels below the global one, from the
+     * widest to the local level
+     *
+     * @param weights Weight of each link in the bounded levels, as given by
+     * NetworkConfig.linkWeights. If null, links count one hop
+     *
+     * @return The initial state
+     */
+    public static InitialState compute(int[][] topologyGraph, int globalLeader, int[] hopBounds, int[][] weights) {
+        int n = topologyGraph.length;
+        if (globalLeader < 0 || globalLeader >= n)
+            throw new IllegalArgumentException("No node " + globalLeader);
+        if (hopBounds.length == 0)
+            throw new IllegalArgumentException("Need a hop bound for the local level");
+        InitialState s = new InitialState(hopBounds, n);
+        int[][] adjacency = new int[n][];
+        IntStream.range(0, n).parallel().forEach(i -> adjacency[i] = IntStream.range(0, n)
+                .filter(j -> j != i && topologyGraph[i][j] == 1).toArray());
+
+        // global level
+        AtomicIntegerArray hops = new AtomicIntegerArray(n);
+        for (int i = 0; i < n; i++) {
+            hops.set(i, -1);
+        }
+        for (int root = globalLeader; root >= 0;) {
+            bfs(adjacency, hops, root);
+            int next = -1;
+            for (int i = 0; i < n; i++) {
+                int h = hops.get(i);
+                if (h < 0) {
+                    if (next < 0)
+                        next = i;
+                } else if (s.timestamps[0][i] == 0) {
+                    s.deltas[0][i] = h;
+                    s.leaders[0][i] = root;
+                    s.timestamps[0][i] = 1;
+                }
+            }
+            root = next;
+        }
+
+        // bounded levels
+        int clock = 1;
+        for (int l = 1; l <= hopBounds.length; l++) {
+            clock = cluster(s, adjacency, weights, l, clock);
+            if (weights != null && l == 1)
+                shorten(s, adjacency, weights, l);
+        }
+        return s;
+    }
+
+    /*
+     * Expands a BFS from a node, one frontier at a time, each frontier in
+     * parallel. A node is claimed by the first frontier node that reaches it.
+     *
+     * @param adjacency Neighbors of each node
+     *
+     * @param hops Number of hops of each node to the root, or -1. Only the nodes
+     * at -1 are visited
+     *
+     * @param root The root of the BFS
+     */
+    private static void bfs(int[][] adjacency, AtomicIntegerArray hops, int root) {
+        hops.set(root, 0);
+        int[] frontier = { root };
+        for (int d = 1; frontier.length > 0; d++) {
+            int next = d;
+            frontier = IntStream.of(frontier).parallel()
+                    .flatMap(i -> IntStream.of(adjacency[i]).filter(j -> hops.compareAndSet(j, -1, next)))
+                    .toArray();
+        }
+    }
+
+    /*
+     * Chooses the leaders of a bounded level. Nodes are visited in order of
+     * distance to their leader of the level above, so the neighbors on their
+     * shortest path to it are placed first.
+     *
+     * @param s The state, complete for the levels above
+     *
+     * @param adjacency Neighbors of each node
+     *
+     * @param weights Weight of each link, or null
+     *
+     * @param l The level
+     *
+     * @param clock Latest timestamp given to a cluster
+     *
+     * @return The latest timestamp given to a cluster of this level
+     */
+    private static int cluster(InitialState s, int[][] adjacency, int[][] weights, int l, int clock) {
+        int n = adjacency.length;
+        int bound = s.hopBounds[l - 1];
+        int[] above = s.deltas[l - 1];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt((Integer i) -> above[i]));
+        for (int i : order) {
+            if (s.leaders[l - 1][i] == i) {
+                s.leaders[l][i] = i;
+                s.deltas[l][i] = 0;
+                s.timestamps[l][i] = s.timestamps[l - 1][i];
+                continue;
+            }
+            int best = -1; /* Parent whose cluster has the smallest leader pair */
+            int closest = Integer.MAX_VALUE; /* Shortest distance to a leader through any parent */
+            for (int j : adjacency[i]) {
+                if (s.leaders[l - 1][j] != s.leaders[l - 1][i] || above[j] + weight(weights, i, j, l - 1) != above[i])
+                    continue;
+                closest = Math.min(closest, s.deltas[l][j] + weight(weights, i, j, l));
+                if (best < 0 || s.timestamps[l][j] > s.timestamps[l][best]
+                        || (s.timestamps[l][j] == s.timestamps[l][best] && s.leaders[l][j] < s.leaders[l][best])) {
+                    best = j;
+                }
+            }
+            int delta = Integer.MAX_VALUE;
+            for (int j : adjacency[i]) {
+                if (best >= 0 && s.leaders[l][j] == s.leaders[l][best] && s.leaders[l - 1][j] == s.leaders[l - 1][i]
+                        && above[j] + weight(weights, i, j, l - 1) == above[i]) {
+                    delta = Math.min(delta, s.deltas[l][j] + weight(weights, i, j, l));
+                }
+            }
+            if (best >= 0 && delta <= bound && delta <= closest) {
+                s.leaders[l][i] = s.leaders[l][best];
+                s.deltas[l][i] = delta;
+                s.timestamps[l][i] = s.timestamps[l][best];
+            } else {
+                s.leaders[l][i] = i;
+                s.deltas[l][i] = 0;
+                s.timestamps[l][i] = ++clock;
+            }
+        }
+        return clock;
+    }
+
+    /*
+     * Replaces the deltas of a level with the shortest distances to the leaders
+     * inside each cluster. Only needed when the level above counts hops and this
+     * one latency, since otherwise the paths through the parents are already
+     * the shortest.
+     *
+     * @param s The state
+     *
+     * @param adjacency Neighbors of each node
+     *
+     * @param weights Weight of each link
+     *
+     * @param l The level
+     */
+    private static void shorten(InitialState s, int[][] adjacency, int[][] weights, int l) {
+        int[] deltas = s.deltas[l];
+        int[] leaders = s.leaders[l];
+        PriorityQueue<int[]> queue = new PriorityQueue<int[]>(Comparator.comparingInt((int[] e) -> e[1]));
+        for (int i = 0; i < deltas.length; i++) {
+            if (leaders[i] == i)
+                queue.add(new int[] { i, 0 });
+        }
+        while (!queue.isEmpty()) {
+            int[] e = queue.poll();
+            int i = e[0];
+            if (e[1] > deltas[i])
+                continue;
+            for (int j : adjacency[i]) {
+                int d = deltas[i] + weights[i][j];
+                if (leaders[j] == leaders[i] && s.leaders[l - 1][j] == s.leaders[l - 1][i] && d < deltas[j]) {
+                    deltas[j] = d;
+                    queue.add(new int[] { j, d });
+                }
+            }
+        }
+    }
+
+    private static int weight(int[][] weights, int i, int j, int level) {
+        return level == 0 || weights == null ? 1 : weights[i][j];
+    }
+}
@@ -0,0 +1,102 @@
+package network;
+
+import height.Height;
+
+/*
+ * LeaderView class. Immutable leaders of a node, published by the node actor
+ * only when one of them changes. Applications read the latest one without
+ * locks, as often as they need, or subscribe to its changes.
+ */
+public final class LeaderView {
+    public final int nodeId; /* Id of the node */
+    public final int group; /* Election group of the leaders */
+    public final int globalLeaderId; /* Id of the global leader */
+    public final int globalLeaderTimestamp; /* Timestamp of the election of the global leader */
+    public final int localLeaderId; /* Id of the local leader */
+    public final int localLeaderTimestamp; /* Timestamp of the election of the local leader */
+    private final int[] leaderIds; /* Id of the leader of each level, from the global one */
+    private final int[] leaderTimestamps; /* Timestamp of the election of the leader of each level */
+    public final long version; /* Number of events the node had handled when the pair changed */
+
+    /*
+     * Constructor. Copies the leader pairs of a height.
+     *
+     * @param h The height of the node
+     *
+     * @param group Election group of the height
+     *
+     * @param version Number of events handled by the node
+     */
+    LeaderView(Height h, int group, long version) {
+        nodeId = h.nodeId;
+        this.group = group;
+        leaderIds = new int[h.levels()];
+        leaderTimestamps = new int[h.levels()];
+        for (int l = 0; l < leaderIds.length; l++) {
+            leaderIds[l] = h.leaderPairs[l].leaderId;
+            leaderTimestamps[l] = -h.leaderPairs[l].negativeTimestamp;
+        }
+        globalLeaderId = leaderIds[0];
+        globalLeaderTimestamp = leaderTimestamps[0];
+        localLeaderId = leaderIds[leaderIds.length - 1];
+        localLeaderTimestamp = leaderTimestamps[leaderIds.length - 1];
+        this.version = version;
+    }
+
+    public int levels() {
+        return leaderIds.length;
+    }
+
+    /*
+     * Gets the leader of a level.
+     *
+     * @param level The level, 0 being the global one
+     *
+     * @return The id of the leader
+     */
+    public int leaderId(int level) {
+        return leaderIds[level];
+    }
+
+    /*
+     * Gets the timestamp of the election of the leader of a level.
+     *
+     * @param level The level, 0 being the global one
+     *
+     * @return The timestamp
+     */
+    public int leaderTimestamp(int level) {
+        return leaderTimestamps[level];
+    }
+
+    /*
+     * Checks if a height has the same leader pairs as this view.
+     *
+     * @param h The height
+     *
+     * @return true if the leader pairs of every level are the same
+     */
+    boolean sameLeaders(Height h) {
+        if (h.levels() != leaderIds.length)
+            return false;
+        for (int l = 0; l < leaderIds.length; l++) {
+            if (leaderIds[l] != h.leaderPairs[l].leaderId
+                    || leaderTimestamps[l] != -h.leaderPairs[l].negativeTimestamp)
+                return false;
+        }
+        return true;
+    }
+
+    /*
+     * Creates a String representation of the view for logging purposes
+     *
+     * @return The string representation
+     */
+    public String toString() {
+        String s = "Leaders(" + nodeId + (group > 0 ? " in group " + group : "") + ":";
+        for (int l = 0; l < leaderIds.length; l++) {
+            s += (l > 0 ? "," : "") + " " + Network.levelName(l, leaderIds.length) + " " + leaderIds[l] + "@" + leaderTimestamps[l];
+        }
+        return s + ")";
+    }
+}
@@ -2,20 +2,70 @@ package network;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
 import events.ChannelDown;
 import events.ChannelUp;
+import events.Restart;
 import events.SetUp;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadLocalRandom;
+
 /* 
-* Network class. Holds the full network. 
+* Network class. Holds the full network. Nodes can join and leave while it
+* runs: ids of removed nodes are reused by the nodes that join later, and
+* channels are created on first use, so the node set changes without copying
+* the state of every node.
 */
 public class Network {
 
     public static int MAX_HOPS; /* Constant maximum number of hops between any node and its local leader */
+    public static int[] HOP_BOUNDS; /*
+                                     * Maximum number of hops between any node and its leader of each level.
+                                     * HOP_BOUNDS[0] is Integer.MAX_VALUE since the global level is unbounded,
+                                     * and the last one is MAX_HOPS. When links are weighted by latency, the
+                                     * bounded ones are latency budgets in the same unit as the weights
+                                     */
+    public static int MAX_CLUSTER = 0; /*
+                                        * Maximum number of members of a local cluster, its leader included.
+                                        * 0 for no limit. Read from network.max-cluster-size
+                                        */
+    public static Hysteresis HYSTERESIS = Hysteresis.OFF; /*
+                                                          * Grace window and suppression of flapping links.
+                                                          * Read from network.hysteresis
+                                                          */
+    public static double TIME_SCALE = 1; /*
+                                          * Speed of simulated time relative to real time. Channel delays
+                                          * are divided by this factor. Read from network.time-scale
+                                          */
 
 
-    public Node[] nodes; /* Set of computing nodes */
-    private ActorRef[][] channels; /* Set of communication channels */
+    public volatile Node[] nodes; /*
+                                   * Set of computing nodes, indexed by id. Null at the ids of removed nodes,
+                                   * and past the last id once nodes joined
+                                   */
+    private final Map<Integer, Map<Integer, ActorRef>> channels; /* Channels created so far, by sender and receiver id */
+    private final ActorSystem system; /* ActorSystem where the actors are created */
+    private final DelayModel[][] delays; /* Delay models of the channels between the initial nodes */
+    private final DelayModel delay; /* Delay model of the channels of the nodes that joined */
+    private final int groups; /* Number of election groups */
+    private final int levels; /* Number of levels of leaders */
+    private int[] incarnations; /* Number of times each id was taken by a joining node */
+    private final TreeSet<Integer> freeIds = new TreeSet<Integer>(); /* Ids of the removed nodes */
+    private volatile int size; /* Highest id ever used plus one */
+    private TraceRecorder trace; /* Recorder of the views published by the nodes, or null */
+    private ElectionTracer tracer; /* Tracer of the elections, or null */
+    private SubmissionPublisher<LeaderView> leaderChanges; /* Publisher of the leader changes of every node, or null */
+    private FailureDetector detector; /* Detector driving the status of the channels, or null */
+    private StateStore store; /* Store the nodes persist their state to, or null */
 
     /*
      * Constructor. Initializes the variables. Creates the network based on the
@@ -37,61 +87,647 @@ public class Network {
      * 
      * @param localLeaders Set of initial local leaders. localLeaders[i] is the
      * local leader for node i
+     * 
+     * @param maxHops Maximum number of hops between a node and its local leader
      */
     public Network(ActorSystem system, int[][] topologyGraph, int[] globalDeltas, int globalLeader, int[] localDeltas,
             int[] localLeaders, int maxHops) {
-        Network.MAX_HOPS = maxHops;
-        nodes = new Node[topologyGraph.length];
-        channels = new ActorRef[topologyGraph.length][topologyGraph.length];
+        this(system, topologyGraph, globalDeltas, globalLeader, localDeltas, localLeaders, maxHops,
+                NetworkConfig.delayModel(system));
+    }
+
+    /*
+     * Constructor. Creates the network with the same delay model on every
+     * channel.
+     * 
+     * @param delay Delay model of every channel
+     */
+    public Network(ActorSystem system, int[][] topologyGraph, int[] globalDeltas, int globalLeader, int[] localDeltas,
+            int[] localLeaders, int maxHops, DelayModel delay) {
+        this(system, topologyGraph, globalDeltas, globalLeader, localDeltas, localLeaders, maxHops,
+                sameDelays(delay, topologyGraph.length));
+    }
+
+    /*
+     * Constructor. Creates the network with a delay model per channel.
+     * 
+     * @param delays Delay models of the channels. delays[i][j] is the model of
+     * Channelij
+     */
+    public Network(ActorSystem system, int[][] topologyGraph, int[] globalDeltas, int globalLeader, int[] localDeltas,
+            int[] localLeaders, int maxHops, DelayModel[][] delays) {
+        this(system, topologyGraph, new int[][] { globalDeltas, localDeltas },
+                new int[][] { sameLeader(globalLeader, topologyGraph.length), localLeaders }, new int[] { maxHops },
+                delays);
+    }
+
+    /*
+     * Constructor. Creates a network with any number of levels of leaders and the
+     * delay model of the configuration on every channel.
+     */
+    public Network(ActorSystem system, int[][] topologyGraph, int[][] deltas, int[][] leaders, int[] hopBounds) {
+        this(system, topologyGraph, deltas, leaders, hopBounds,
+                sameDelays(NetworkConfig.delayModel(system), topologyGraph.length));
+    }
+
+    /*
+     * Constructor. Creates a network with any number of levels of leaders, from
+     * the global one down to the local one.
+     * 
+     * @param deltas Initial deltas of each level. deltas[l][i] is the number of
+     * hops between node i and its leader of level l
+     * 
+     * @param leaders Initial leaders of each level. leaders[l][i] is the leader of
+     * level l of node i
+     * 
+     * @param hopBounds Maximum number of hops between a node and its leader of
+     * each level below the global one, from the widest to the local level
+     * 
+     * @param delays Delay models of the channels. delays[i][j] is the model of
+     * Channelij
+     */
+    public Network(ActorSystem system, int[][] topologyGraph, int[][] deltas, int[][] leaders, int[] hopBounds,
+            DelayModel[][] delays) {
+        this(system, topologyGraph, new int[][][] { deltas }, new int[][][] { leaders }, hopBounds, delays);
+    }
+
+    /*
+     * Constructor. Creates a network running several independent election
+     * groups over the same nodes and channels. The Updates of all groups sent on
+     * a link while handling an event are delivered as a single message.
+     * 
+     * @param deltas Initial deltas of each group. deltas[g][l][i] is the number
+     * of hops between node i and its leader of level l in group g
+     * 
+     * @param leaders Initial leaders of each group. leaders[g][l][i] is the leader
+     * of level l of node i in group g
+     * 
+     * @param hopBounds Maximum number of hops between a node and its leader of
+     * each level below the global one, from the widest to the local level. The
+     * same for every group
+     * 
+     * @param delays Delay models of the channels. delays[i][j] is the model of
+     * Channelij. If null, every channel uses the delay model of the configuration
+     */
+    public Network(ActorSystem system, int[][] topologyGraph, int[][][] deltas, int[][][] leaders, int[] hopBounds,
+            DelayModel[][] delays) {
+        this(system, topologyGraph, deltas, leaders, null, hopBounds, delays);
+    }
+
+    /*
+     * Constructor. Creates a network starting from a converged configuration
+     * computed for each election group, with the hop bounds it was computed for.
+     * 
+     * @param states Initial state of each group
+     * 
+     * @param delays Delay models of the channels. delays[i][j] is the model of
+     * Channelij. If null, every channel uses the delay model of the configuration
+     */
+    public Network(ActorSystem system, int[][] topologyGraph, InitialState[] states, DelayModel[][] delays) {
+        this(system, topologyGraph, Arrays.stream(states).map(s -> s.deltas).toArray(int[][][]::new),
+                Arrays.stream(states).map(s -> s.leaders).toArray(int[][][]::new),
+                Arrays.stream(states).map(s -> s.timestamps).toArray(int[][][]::new), states[0].hopBounds, delays);
+    }
+
+    /*
+     * Constructor. Creates a network running several election groups whose
+     * initial leaders have their own timestamps.
+     * 
+     * @param timestamps Timestamps of the initial leader pairs of each group.
+     * timestamps[g][l][i] is the timestamp of the leader of level l of node i in
+     * group g. If null, they are all 1
+     */
+    public Network(ActorSystem system, int[][] topologyGraph, int[][][] deltas, int[][][] leaders,
+            int[][][] timestamps, int[] hopBounds, DelayModel[][] delays) {
+        if (deltas.length == 0 || leaders.length != deltas.length)
+            throw new IllegalArgumentException("Need deltas and leaders for every election group");
+        for (int g = 0; g < deltas.length; g++) {
+            if (deltas[g].length != hopBounds.length + 1 || leaders[g].length != deltas[g].length)
+                throw new IllegalArgumentException(
+                        "Need deltas and leaders for the global level and each bounded level");
+        }
+        Network.HOP_BOUNDS = new int[hopBounds.length + 1];
+        Network.HOP_BOUNDS[0] = Integer.MAX_VALUE;
+        System.arraycopy(hopBounds, 0, Network.HOP_BOUNDS, 1, hopBounds.length);
+        Network.MAX_HOPS = hopBounds[hopBounds.length - 1];
+        Network.TIME_SCALE = NetworkConfig.timeScale(system);
+        Network.MAX_CLUSTER = NetworkConfig.maxClusterSize(system);
+        Network.HYSTERESIS = NetworkConfig.hysteresis(system);
+        this.system = system;
+        channels = new ConcurrentHashMap<Integer, Map<Integer, ActorRef>>();
+        delay = NetworkConfig.delayModel(system);
+        if (delays == null)
+            delays = sameDelays(delay, topologyGraph.length);
+        this.delays = delays;
+        groups = deltas.length;
+        levels = hopBounds.length + 1;
+        size = topologyGraph.length;
+        incarnations = new int[size];
+        Node[] nodes = new Node[size];
 
         // creating nodes
         for (int i = 0; i < topologyGraph.length; i++) {
-            nodes[i] = new Node(system, i, globalDeltas[i], globalLeader, localDeltas[i], localLeaders[i],
-                    topologyGraph.length);
+            int[][] nodeDeltas = new int[deltas.length][levels];
+            int[][] nodeLeaders = new int[deltas.length][levels];
+            int[][] nodeTimestamps = timestamps == null ? null : new int[deltas.length][levels];
+            for (int g = 0; g < deltas.length; g++) {
+                for (int l = 0; l < levels; l++) {
+                    nodeDeltas[g][l] = deltas[g][l][i];
+                    nodeLeaders[g][l] = leaders[g][l][i];
+                    if (timestamps != null)
+                        nodeTimestamps[g][l] = timestamps[g][l][i];
+                }
+            }
+            nodes[i] = new Node(system, i, nodeDeltas, nodeLeaders, nodeTimestamps, topologyGraph.length);
         }
+        this.nodes = nodes;
 
-        // creating channels
+        // weighting links
+        int[][] weights = NetworkConfig.linkWeights(system, delays);
         for (int i = 0; i < topologyGraph.length; i++) {
-            for (int j = 0; j < topologyGraph.length; j++) {
-                if (i != j) {
-                    channels[i][j] = system.actorOf(Channel.createActor(nodes[i].nodeActor, nodes[j].nodeActor, 0),
-                            "ch" + i + "" + j);
-                }
+            nodes[i].linkWeights = weights[i];
+        }
+
+        // resuming from the persisted state
+        store = NetworkConfig.stateStore(system, topologyGraph.length, deltas.length, levels);
+        if (store != null) {
+            for (Node n : nodes) {
+                n.attachStore(store, true);
             }
+            system.registerOnTermination(store::force);
         }
 
         // turning up the channels according to topology graph
         for (int i = 0; i < topologyGraph.length; i++) {
             for (int j = 0; j < topologyGraph.length; j++) {
                 if (topologyGraph[i][j] == 1) {
-                    channels[i][j].tell(new SetUp(0, channels[j][i], i, nodes[i].getHeight()), ActorRef.noSender());
+                    channel(i, j).tell(new SetUp(0, channel(j, i), i, nodes[i].copyHeights()), ActorRef.noSender());
                 }
             }
         }
+
+        // watching the links
+        detector = NetworkConfig.failureDetector(system, this, topologyGraph, delays);
+        if (detector != null) {
+            detector.start();
+            system.registerOnTermination(detector::stop);
+        }
     }
 
     /*
-     * Sends ChannelDown event to the channels on both directions.
+     * Creates an array with the same leader for every node.
+     * 
+     * @param leader Id of the leader
+     * 
+     * @param n Number of nodes
+     * 
+     * @return The array of leaders
+     */
+    private static int[] sameLeader(int leader, int n) {
+        int[] leaders = new int[n];
+        Arrays.fill(leaders, leader);
+        return leaders;
+    }
+
+    /*
+     * Gets the name of a level of leaders, for display purposes.
+     * 
+     * @param level The level
+     * 
+     * @param levels Number of levels
+     * 
+     * @return "global" for level 0, "local" for the last level, and "level l" for
+     * the ones in between
+     */
+    public static String levelName(int level, int levels) {
+        if (level == 0)
+            return "global";
+        if (level == levels - 1)
+            return "local";
+        return "level " + level;
+    }
+
+    /*
+     * Creates a matrix with the same delay model in every position.
+     * 
+     * @param delay The delay model
+     * 
+     * @param n Number of nodes
+     * 
+     * @return The matrix of delay models
+     */
+    private static DelayModel[][] sameDelays(DelayModel delay, int n) {
+        DelayModel[][] delays = new DelayModel[n][n];
+        for (DelayModel[] row : delays) {
+            Arrays.fill(row, delay);
+        }
+        return delays;
+    }
+
+    /*
+     * Gets the channel from a node to another, creating it if needed. A channel
+     * created for a node that took the id of a removed one starts at a random
+     * epoch, so the Updates of the removed node its neighbors may still hold
+     * don't match its epochs.
+     * 
+     * @param i Id of the sender node
+     * 
+     * @param j Id of the receiver node
+     * 
+     * @return The channel, down until it receives a ChannelUp or a SetUp
+     */
+    private ActorRef channel(int i, int j) {
+        return channels.computeIfAbsent(i, k -> new ConcurrentHashMap<Integer, ActorRef>()).computeIfAbsent(j, k -> {
+            Node[] ns = nodes;
+            int gi = incarnations[i], gj = incarnations[j];
+            int epoch = gi + gj == 0 ? 0 : ThreadLocalRandom.current().nextInt();
+            return system.actorOf(
+                    NetworkConfig.channelProps(system, Channel.createActor(ns[i].nodeActor, ns[j].nodeActor, 0,
+                            delay(i, j), ns[i].outgoingQueues, epoch)),
+                    "ch" + i + "-" + j + (gi + gj == 0 ? "" : "." + gi + "." + gj));
+        });
+    }
+
+    /*
+     * Gets the delay model of the channel from a node to another. Channels of
+     * the nodes that joined use the delay model of the configuration.
+     * 
+     * @param i Id of the sender node
+     * 
+     * @param j Id of the receiver node
+     * 
+     * @return The delay model
+     */
+    private DelayModel delay(int i, int j) {
+        return i < delays.length && j < delays.length ? delays[i][j] : delay;
+    }
+
+    /*
+     * Gets the range of ids used so far. Every node, removed or not, and every
+     * id a published view names is below it, while nodes may be longer.
+     * 
+     * @return The highest id ever used plus one
+     */
+    public int size() {
+        return size;
+    }
+
+    /*
+     * Checks if a node is part of the network.
+     * 
+     * @param i Id of the node
+     * 
+     * @return true if the node was created and not removed
+     */
+    public boolean hasNode(int i) {
+        Node[] ns = nodes;
+        return i >= 0 && i < ns.length && ns[i] != null;
+    }
+
+    /*
+     * Sends ChannelDown event to the channels on both directions. Ignored if
+     * either node was removed, or the channels were never up.
      * 
      * @param i Id of one of the nodes connected to the channels
      * 
      * @param j Id of the other node connected to the channels
      */
     public void dropChannel(int i, int j) {
-        channels[i][j].tell(new ChannelDown(0, channels[j][i], i), ActorRef.noSender());
-        channels[j][i].tell(new ChannelDown(0, channels[i][j], j), ActorRef.noSender());
+        Map<Integer, ActorRef> out = channels.get(i);
+        Map<Integer, ActorRef> in = channels.get(j);
+        ActorRef ij = out == null ? null : out.get(j);
+        ActorRef ji = in == null ? null : in.get(i);
+        if (ij == null || ji == null)
+            return;
+        ij.tell(new ChannelDown(0, ji, i), ActorRef.noSender());
+        ji.tell(new ChannelDown(0, ij, j), ActorRef.noSender());
+    }
+
+    /*
+     * Sends ChannelUp event to the channels on both directions. Ignored if either
+     * node was removed.
+     * 
+     * @param i Id of one of the nodes connected to the channels
+     * 
+     * @param j Id of the other node connected to the channels
+     */
+    public synchronized void remakeChannel(int i, int j) {
+        if (!hasNode(i) || !hasNode(j) || i == j)
+            return;
+        channel(i, j).tell(new ChannelUp(0, channel(j, i), i), ActorRef.noSender());
+        channel(j, i).tell(new ChannelUp(0, channel(i, j), j), ActorRef.noSender());
     }
 
     /*
-     * Sends ChannelUp event to the channels on both directions.
+     * Adds a node to the running network, linked to the given nodes. It takes the
+     * lowest id freed by a removed node that no node follows as a leader anymore,
+     * or the next one, since leaders are known by their ids and the new node
+     * would otherwise inherit the leadership of the removed one. The new node
+     * starts as its own leader on every level, with pairs older than any
+     * election, and waits for the heights of all its neighbors before running the
+     * algorithm, so it adopts their leaders instead of competing with them. Only
+     * the new node and its neighbors make room for it.
+     * 
+     * @param neighborIds Ids of the nodes to link it to
+     * 
+     * @return The id of the new node
+     */
+    public synchronized int addNode(int... neighborIds) {
+        for (int j : neighborIds) {
+            if (!hasNode(j))
+                throw new IllegalArgumentException("No node " + j);
+        }
+        int id = freeId();
+        Node[] ns = nodes;
+        if (id >= ns.length) {
+            ns = Arrays.copyOf(ns, Math.max(id + 1, 2 * ns.length));
+            incarnations = Arrays.copyOf(incarnations, ns.length);
+        }
+        int gen = incarnations[id];
+        int[][] deltas = new int[groups][levels];
+        int[][] leaders = new int[groups][levels];
+        for (int[] l : leaders) {
+            Arrays.fill(l, id);
+        }
+        Node n = new Node(system, id, deltas, leaders, null, size, gen == 0 ? "n" + id : "n" + id + "." + gen);
+        n.join(neighborIds);
+        if (store != null && id < store.nodes)
+            n.attachStore(store, false);
+        n.trace = trace;
+        n.tracer = tracer;
+        n.networkLeaderChanges = leaderChanges;
+        ns[id] = n;
+        nodes = ns;
+
+        // bringing up the links, with the weight each node gives to its side
+        for (int j : neighborIds) {
+            if (j == id)
+                continue;
+            channel(id, j).tell(new ChannelUp(0, channel(j, id), id, NetworkConfig.linkWeight(system, delay(j, id))),
+                    ActorRef.noSender());
+            channel(j, id).tell(new ChannelUp(0, channel(id, j), j, NetworkConfig.linkWeight(system, delay(id, j))),
+                    ActorRef.noSender());
+        }
+        return id;
+    }
+
+    /*
+     * Takes the lowest id of a removed node that no node names as its leader of
+     * any level, in the leaders they published. Leader pairs of a removed leader
+     * fade as the nodes elect new ones, so its id becomes free again once the
+     * network repaired.
+     * 
+     * @return The id, or the next unused one if every freed id is still named
+     */
+    private int freeId() {
+        if (!freeIds.isEmpty()) {
+            Set<Integer> named = new HashSet<Integer>();
+            for (Node n : nodes) {
+                if (n == null)
+                    continue;
+                for (int g = 0; g < groups; g++) {
+                    LeaderView l = n.getLeaders(g);
+                    for (int k = 0; k < l.levels(); k++) {
+                        named.add(l.leaderId(k));
+                    }
+                }
+            }
+            for (int id : freeIds) {
+                if (!named.contains(id)) {
+                    freeIds.remove(id);
+                    return id;
+                }
+            }
+        }
+        return size++;
+    }
+
+    /*
+     * Removes a node from the running network, as if it crashed for good. Its
+     * neighbors get a ChannelDown for each of its links, and its actors and
+     * channels are stopped once the events queued before are handled. Its id is
+     * given to a node that joins later.
+     * 
+     * @param i Id of the node
+     */
+    public synchronized void removeNode(int i) {
+        if (!hasNode(i))
+            throw new IllegalArgumentException("No node " + i);
+        Node[] ns = nodes;
+        Map<Integer, ActorRef> out = channels.remove(i);
+        if (out != null) {
+            for (Map.Entry<Integer, ActorRef> e : out.entrySet()) {
+                Map<Integer, ActorRef> back = channels.get(e.getKey());
+                ActorRef ji = back == null ? null : back.remove(i);
+                e.getValue().tell(new ChannelDown(0, ji, i), ActorRef.noSender());
+                e.getValue().tell(PoisonPill.getInstance(), ActorRef.noSender());
+                if (ji != null)
+                    ji.tell(PoisonPill.getInstance(), ActorRef.noSender());
+            }
+        }
+        ns[i].nodeActor.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        ns[i] = null;
+        nodes = ns;
+        incarnations[i]++;
+        freeIds.add(i);
+        if (detector != null)
+            detector.forget(i);
+    }
+
+    /*
+     * Restarts the process of a node. The node resumes from its persisted state
+     * if network.state-file is set, or from its initial configuration otherwise,
+     * and re-syncs with its neighbors over the links, which stay up.
+     * 
+     * @param i Id of the node
+     */
+    public void restartNode(int i) {
+        node(i).nodeActor.tell(new Restart(0), ActorRef.noSender());
+    }
+
+    /*
+     * Gets the store the nodes persist their state to.
+     * 
+     * @return The store, or null if network.state-file is not set
+     */
+    public StateStore stateStore() {
+        return store;
+    }
+
+    /*
+     * Gets the failure detector of the network.
+     * 
+     * @return The detector, or null if network.failure-detector.policy is none
+     */
+    public FailureDetector failureDetector() {
+        return detector;
+    }
+
+    /*
+     * Cuts the link between two nodes without telling them. Only the failure
+     * detector can find out and send the ChannelDown events.
      * 
      * @param i Id of one of the nodes connected to the channels
      * 
      * @param j Id of the other node connected to the channels
      */
-    public void remakeChannel(int i, int j) {
-        channels[i][j].tell(new ChannelUp(0, channels[j][i], i), ActorRef.noSender());
-        channels[j][i].tell(new ChannelUp(0, channels[i][j], j), ActorRef.noSender());
+    public void failLink(int i, int j) {
+        if (detector == null)
+            throw new IllegalStateException("No failure detector to notice the failure, use dropChannel");
+        detector.failLink(i, j);
+    }
+
+    /*
+     * Repairs a link cut by failLink. The failure detector sends the ChannelUp
+     * events when the heartbeats come back.
+     * 
+     * @param i Id of one of the nodes connected to the channels
+     * 
+     * @param j Id of the other node connected to the channels
+     */
+    public void healLink(int i, int j) {
+        if (detector == null)
+            throw new IllegalStateException("No failure detector to notice the repair, use remakeChannel");
+        detector.healLink(i, j);
+    }
+
+    /*
+     * Starts recording every view published by the nodes to a trace file. Stops
+     * the recording in progress, if any.
+     * 
+     * @param path Path of the trace file
+     */
+    public void startTrace(String path) throws IOException {
+        stopTrace();
+        trace = new TraceRecorder(path, this);
+        for (Node n : nodes) {
+            if (n != null)
+                n.trace = trace;
+        }
+        // Views published before the recorder was attached to their node
+        for (Node n : nodes) {
+            if (n != null)
+                trace.record(n.getView());
+        }
+    }
+
+    /*
+     * Stops recording and closes the trace file.
+     */
+    public void stopTrace() throws IOException {
+        if (trace == null)
+            return;
+        for (Node n : nodes) {
+            if (n != null)
+                n.trace = null;
+        }
+        TraceRecorder t = trace;
+        trace = null;
+        t.close();
+    }
+
+    /*
+     * Starts tracing the elections of the network. Replaces the tracer in
+     * progress, if any.
+     * 
+     * @return The new tracer
+     */
+    public ElectionTracer startElectionTracing() {
+        tracer = new ElectionTracer();
+        for (Node n : nodes) {
+            if (n != null)
+                n.tracer = tracer;
+        }
+        return tracer;
+    }
+
+    /*
+     * Stops tracing the elections.
+     * 
+     * @return The tracer that was in progress, or null
+     */
+    public ElectionTracer stopElectionTracing() {
+        for (Node n : nodes) {
+            if (n != null)
+                n.tracer = null;
+        }
+        ElectionTracer t = tracer;
+        tracer = null;
+        return t;
+    }
+
+    /*
+     * Gets the latest published leaders of a node, without locks.
+     * 
+     * @param i Id of the node
+     * 
+     * @return The view of its leaders
+     * 
+     * @throws IllegalArgumentException If the node doesn't exist or was removed
+     */
+    public LeaderView leaders(int i) {
+        return node(i).getLeaders();
+    }
+
+    /*
+     * Gets the latest published leaders of a node in an election group, without
+     * locks.
+     * 
+     * @param i Id of the node
+     * 
+     * @param group The election group
+     * 
+     * @return The view of its leaders in the group
+     * 
+     * @throws IllegalArgumentException If the node doesn't exist or was removed
+     */
+    public LeaderView leaders(int i, int group) {
+        return node(i).getLeaders(group);
+    }
+
+    /*
+     * Gets a node of the network, reading its slot once so a concurrent removal
+     * can't turn it null after the check.
+     * 
+     * @param i Id of the node
+     * 
+     * @return The node
+     * 
+     * @throws IllegalArgumentException If there is no node with that id, or it
+     * was removed
+     */
+    private Node node(int i) {
+        Node[] ns = nodes;
+        Node n = i >= 0 && i < ns.length ? ns[i] : null;
+        if (n == null)
+            throw new IllegalArgumentException("No node " + i);
+        return n;
+    }
+
+    /*
+     * Gets the number of election groups running on the network.
+     * 
+     * @return The number of groups
+     */
+    public int groups() {
+        return groups;
+    }
+
+    /*
+     * Gets a publisher of the leader changes of every node of the network. Each
+     * change is a LeaderView of the node and group whose leaders changed.
+     * 
+     * @return The publisher
+     */
+    public synchronized Flow.Publisher<LeaderView> leaderChanges() {
+        if (leaderChanges == null) {
+            leaderChanges = new SubmissionPublisher<LeaderView>();
+            for (Node n : nodes) {
+                if (n != null)
+                    n.networkLeaderChanges = leaderChanges;
+            }
+        }
+        return leaderChanges;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,357 @@
+package network;
+
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+
+import com.typesafe.config.Config;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BinaryOperator;
+
+/*
+ * NetworkConfig class. Reads from the akka configuration (application.conf)
+ * the dispatchers and mailboxes the actors of the network run on.
+ */
+public class NetworkConfig {
+
+    /*
+     * Applies the dispatcher and mailbox configured for the nodes.
+     *
+     * @param system ActorSystem where the actor will be created
+     *
+     * @param props Props of the node actor
+     *
+     * @return The configured Props
+     */
+    public static Props nodeProps(ActorSystem system, Props props) {
+        return configure(system.settings().config(), props, "node");
+    }
+
+    /*
+     * Applies the dispatcher and mailbox configured for the channels.
+     *
+     * @param system ActorSystem where the actor will be created
+     *
+     * @param props Props of the channel actor
+     *
+     * @return The configured Props
+     */
+    public static Props channelProps(ActorSystem system, Props props) {
+        return configure(system.settings().config(), props, "channel");
+    }
+
+    /*
+     * Creates the message queue of a channel with the capacity and policy found
+     * in network.channel-queue.
+     *
+     * @param system ActorSystem where the channel runs
+     *
+     * @return The empty queue
+     */
+    public static <T> RingBuffer<T> channelQueue(ActorSystem system) {
+        return channelQueue(system, null);
+    }
+
+    /*
+     * Creates the queue of a channel, whose elements are merged when the coalesce
+     * policy applies.
+     *
+     * @param merge Function of the tail of the queue and the new element, or null
+     * to replace the tail
+     */
+    public static <T> RingBuffer<T> channelQueue(ActorSystem system, BinaryOperator<T> merge) {
+        Config config = system.settings().config();
+        int capacity = 64;
+        int policy = RingBuffer.COALESCE;
+        if (config.hasPath("network.channel-queue.capacity")) {
+            capacity = config.getInt("network.channel-queue.capacity");
+        }
+        if (config.hasPath("network.channel-queue.policy")) {
+            policy = RingBuffer.policy(config.getString("network.channel-queue.policy"));
+        }
+        return new RingBuffer<T>(capacity, policy, merge);
+    }
+
+    /*
+     * Creates the delay model described in network.delay. The model is one of
+     * constant (ms), uniform (min, max), exponential (mean) or empirical (file),
+     * losing the fraction network.delay.loss of the heartbeats.
+     *
+     * @param system ActorSystem where the network runs
+     *
+     * @return The delay model
+     */
+    public static DelayModel delayModel(ActorSystem system) {
+        Config config = system.settings().config();
+        if (!config.hasPath("network.delay.model")) {
+            return DelayModel.constant(2000);
+        }
+        Config delay = config.getConfig("network.delay");
+        DelayModel delays = delayModel(delay);
+        if (delay.hasPath("loss") && delay.getDouble("loss") > 0)
+            return delays.withLoss(delay.getDouble("loss"));
+        return delays;
+    }
+
+    private static DelayModel delayModel(Config delay) {
+        String model = delay.getString("model");
+        switch (model) {
+            case "constant":
+                return DelayModel.constant(delay.getDouble("ms"));
+            case "uniform":
+                return DelayModel.uniform(delay.getDouble("min"), delay.getDouble("max"));
+            case "exponential":
+                return DelayModel.exponential(delay.getDouble("mean"));
+            case "empirical":
+                try {
+                    return DelayModel.empirical(delay.getString("file"));
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Cannot read delays from " + delay.getString("file"), e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown delay model: " + model);
+        }
+    }
+
+    /*
+     * Computes the distance each link adds to the paths through it, as chosen by
+     * network.link-metric. With hops every link weighs 1. With latency a link
+     * weighs the mean delay of its channel in network.latency-unit-ms, at least
+     * 1, so a short path of fast links can beat a single slow one.
+     *
+     * @param system ActorSystem where the network runs
+     *
+     * @param delays Delay models of the channels. delays[i][j] is the model of
+     * Channelij
+     *
+     * @return The weights. weights[i][j] is the weight of the link from node i to
+     * node j
+     */
+    public static int[][] linkWeights(ActorSystem system, DelayModel[][] delays) {
+        int[][] weights = new int[delays.length][delays.length];
+        for (int i = 0; i < delays.length; i++) {
+            for (int j = 0; j < delays.length; j++) {
+                weights[i][j] = i == j ? 0 : linkWeight(system, delays[i][j]);
+            }
+        }
+        return weights;
+    }
+
+    /*
+     * Computes the distance a single link adds to the paths through it, as chosen
+     * by network.link-metric.
+     *
+     * @param system ActorSystem where the network runs
+     *
+     * @param delay Delay model of the channel of the link
+     *
+     * @return The weight of the link
+     */
+    public static int linkWeight(ActorSystem system, DelayModel delay) {
+        Config config = system.settings().config();
+        String metric = config.hasPath("network.link-metric") ? config.getString("network.link-metric") : "hops";
+        switch (metric) {
+            case "hops":
+                return 1;
+            case "latency":
+                double unit = config.hasPath("network.latency-unit-ms") ? config.getDouble("network.latency-unit-ms")
+                        : 1;
+                return (int) Math.max(1, Math.round(delay.mean() / unit));
+            default:
+                throw new IllegalArgumentException("Unknown link metric: " + metric);
+        }
+    }
+
+    /*
+     * Reads the maximum number of members of a local cluster from
+     * network.max-cluster-size.
+     *
+     * @param system ActorSystem where the network runs
+     *
+     * @return The maximum size, 0 if clusters are not limited
+     */
+    public static int maxClusterSize(ActorSystem system) {
+        Config config = system.settings().config();
+        if (config.hasPath("network.max-cluster-size")) {
+            return config.getInt("network.max-cluster-size");
+        }
+        return 0;
+    }
+
+    /*
+     * Reads the hysteresis settings from network.hysteresis.
+     *
+     * @param system ActorSystem where the network runs
+     *
+     * @return The settings, Hysteresis.OFF if not configured
+     */
+    public static Hysteresis hysteresis(ActorSystem system) {
+        Config config = system.settings().config();
+        if (!config.hasPath("network.hysteresis")) {
+            return Hysteresis.OFF;
+        }
+        Config h = config.getConfig("network.hysteresis");
+        Hysteresis off = Hysteresis.OFF;
+        return new Hysteresis(h.hasPath("grace-ms") ? h.getDouble("grace-ms") : off.graceMs,
+                h.hasPath("half-life-ms") ? h.getDouble("half-life-ms") : off.halfLifeMs,
+                h.hasPath("suppress") ? h.getDouble("suppress") : off.suppress,
+                h.hasPath("reuse") ? h.getDouble("reuse") : off.reuse);
+    }
+
+    /*
+     * Creates the failure detector described in network.failure-detector. The
+     * policy is none, fixed-timeout (timeout-ms) or phi-accrual (phi-threshold,
+     * min-std-deviation-ms, acceptable-pause-ms). The timers of every link share
+     * a wheel of wheel-size buckets of tick-ms.
+     *
+     * @param system ActorSystem where the network runs
+     *
+     * @param network The network
+     *
+     * @param topologyGraph Graph of the links to watch
+     *
+     * @param delays Delay model of each channel
+     *
+     * @return The detector, not started yet, or null with the none policy
+     */
+    public static FailureDetector failureDetector(ActorSystem system, Network network, int[][] topologyGraph,
+            DelayModel[][] delays) {
+        Config config = system.settings().config();
+        if (!config.hasPath("network.failure-detector.policy")) {
+            return null;
+        }
+        Config fd = config.getConfig("network.failure-detector");
+        String name = fd.getString("policy");
+        FailurePolicy policy;
+        switch (name) {
+            case "none":
+                return null;
+            case "fixed-timeout":
+                policy = FailurePolicy.fixedTimeout(fd.getDouble("timeout-ms"));
+                break;
+            case "phi-accrual":
+                policy = FailurePolicy.phiAccrual(fd.getDouble("phi-threshold"), fd.getDouble("min-std-deviation-ms"),
+                        fd.getDouble("acceptable-pause-ms"));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown failure detector policy: " + name);
+        }
+        TimerWheel wheel = new TimerWheel(fd.getDouble("tick-ms"), fd.getInt("wheel-size"));
+        return new FailureDetector(network, topologyGraph, delays, policy, fd.getDouble("heartbeat-interval-ms"),
+                wheel);
+    }
+
+    /*
+     * Opens the state file named by network.state-file, where nodes persist the
+     * state they resume from after a restart.
+     *
+     * @param system ActorSystem where the network runs
+     *
+     * @param nodes Number of nodes
+     *
+     * @param groups Number of election groups
+     *
+     * @param levels Number of levels of leaders
+     *
+     * @return The store, or null if no file is configured
+     */
+    public static StateStore stateStore(ActorSystem system, int nodes, int groups, int levels) {
+        Config config = system.settings().config();
+        if (!config.hasPath("network.state-file") || config.getString("network.state-file").isEmpty()) {
+            return null;
+        }
+        String path = config.getString("network.state-file");
+        try {
+            return new StateStore(path, nodes, groups, levels);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot map the state file " + path, e);
+        }
+    }
+
+    /*
+     * Reads the speed of simulated time relative to real time from
+     * network.time-scale.
+     *
+     * @param system ActorSystem where the network runs
+     *
+     * @return The time scale, 1 if not configured
+     */
+    public static double timeScale(ActorSystem system) {
+        Config config = system.settings().config();
+        if (config.hasPath("network.time-scale")) {
+            return config.getDouble("network.time-scale");
+        }
+        return 1;
+    }
+
+    /*
+     * Returns the factory of the threads that run the message forwarding of the
+     * channels, chosen by network.forwarding. Virtual threads need Java 21 and are
+     * looked up by reflection, so the code still builds and runs on older
+     * runtimes, where it falls back to platform threads.
+     *
+     * @param system ActorSystem where the channels run
+     *
+     * @return The thread factory
+     */
+    public static ThreadFactory forwardingThreads(ActorSystem system) {
+        Config config = system.settings().config();
+        if (config.hasPath("network.forwarding") && config.getString("network.forwarding").equals("virtual")) {
+            return virtualThreads(system);
+        }
+        return platformThreads;
+    }
+
+    private static final ThreadFactory platformThreads = r -> {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        return t;
+    }; /* Factory of daemon platform threads */
+
+    private static ThreadFactory virtualThreads; /* Factory of virtual threads. Created on first use */
+
+    /*
+     * Gets the factory of Thread.ofVirtual(), or the platform one if the runtime
+     * has no virtual threads, which is logged as a warning.
+     *
+     * @param system ActorSystem whose log gets the warning
+     */
+    private static synchronized ThreadFactory virtualThreads(ActorSystem system) {
+        if (virtualThreads == null) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                virtualThreads = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory")
+                        .invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                system.log().warning("Virtual threads unavailable, forwarding on platform threads: {}", e);
+                virtualThreads = platformThreads;
+            }
+        }
+        return virtualThreads;
+    }
+
+    /*
+     * Applies the dispatcher and mailbox found in network.<role>-dispatcher and
+     * network.<role>-mailbox. Missing entries leave the akka defaults.
+     *
+     * @param config The configuration of the actor system
+     *
+     * @param props Props of the actor
+     *
+     * @param role Either node or channel
+     *
+     * @return The configured Props
+     */
+    private static Props configure(Config config, Props props, String role) {
+        String dispatcher = "network." + role + "-dispatcher";
+        String mailbox = "network." + role + "-mailbox";
+        if (config.hasPath(dispatcher)) {
+            props = props.withDispatcher(config.getString(dispatcher));
+        }
+        if (config.hasPath(mailbox)) {
+            props = props.withMailbox(config.getString(mailbox));
+        }
+        return props;
+    }
+}
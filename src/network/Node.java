@@ -7,12 +7,25 @@ import akka.actor.UntypedAbstractActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.lang.Math;
 
 import height.Height;
-import height.ReferenceLevel;
+import height.LeaderPair;
 import events.*;
+import profiling.ChannelDownEvent;
+import profiling.ChannelUpEvent;
+import profiling.UpdateEvent;
 
 class NodeActor extends UntypedAbstractActor {
 
@@ -22,7 +35,7 @@ class NodeActor extends UntypedAbstractActor {
 
     public NodeActor(Node n){
         this.n = n;
-        log.info("Created node {} with height {}", n.nodeId, n.heights[n.nodeId]);
+        log.info("Created node {} with height {}", n.nodeId, n.getHeight());
     }
     
     public static Props createActor(Node n) {
@@ -36,7 +49,9 @@ class NodeActor extends UntypedAbstractActor {
      * neighbor sets and its causal clock.
      */
     public void logState() {
-        String s = "Height: " + n.heights[n.nodeId] + "\n";
+        String s = "Height: " + n.getHeight() + "\n";
+        if (n.elections.length > 1)
+            s += "and " + (n.elections.length - 1) + " other election groups\n";
         s += "forming: ";
         for (ActorRef channel : n.forming) {
             if (channel != null) {
@@ -61,45 +76,144 @@ class NodeActor extends UntypedAbstractActor {
     @Override
     public void onReceive(Object message) throws Throwable {
         Event e = (Event) message;
+        ElectionTracer tracer = n.tracer;
+        Height before = tracer == null ? null : n.getHeight().copy();
         n.causalClock = Math.max(n.causalClock, e.timestamp) + 1;
         if (e instanceof ChannelDown) {
             ChannelDown chdown = (ChannelDown) e;
             log.info("\n[{}]: Received {}", getSelf().path().name(), chdown);
+            ChannelDownEvent event = new ChannelDownEvent();
+            event.begin();
             n.handleChannelDown(chdown);
+            event.end();
+            if (event.shouldCommit()) {
+                event.height(n.getHeight(), n.causalClock);
+                event.neighborId = chdown.neighborId;
+                event.commit();
+            }
             logState();
         } else if (e instanceof ChannelUp) {
             ChannelUp chup = (ChannelUp) e;
             log.info("\n[{}]: Received {}", getSelf().path().name(), chup);
+            ChannelUpEvent event = new ChannelUpEvent();
+            event.begin();
             n.handleChannelUp(chup);
+            event.end();
+            if (event.shouldCommit()) {
+                event.height(n.getHeight(), n.causalClock);
+                event.neighborId = chup.neighborId;
+                event.commit();
+            }
             logState();
         } else if (e instanceof Update) {
             Update u = (Update) e;
             log.info("\n[{}]: Received {}", getSelf().path().name(), u);
+            UpdateEvent event = new UpdateEvent();
+            event.begin();
+            long discarded = n.discardedUpdates;
             n.handleUpdate(u);
+            event.end();
+            if (event.shouldCommit()) {
+                event.height(n.elections[u.group].getHeight(), n.causalClock);
+                event.group = u.group;
+                event.senderId = u.height.nodeId;
+                event.updates = u.size();
+                event.discarded = n.discardedUpdates != discarded;
+                event.commit();
+            }
             logState();
         } else if (e instanceof SetUp) {
             SetUp sup = (SetUp) e;
             log.info("\n[{}]: Received {}", getSelf().path().name(), sup);
             n.handleSetUp(sup);
             logState();
+        } else if (e instanceof Restart) {
+            Restart r = (Restart) e;
+            log.info("\n[{}]: Received {}", getSelf().path().name(), r);
+            n.handleRestart(r);
+            logState();
+        } else if (e instanceof SearchGrace) {
+            SearchGrace sg = (SearchGrace) e;
+            log.info("\n[{}]: Received {}", getSelf().path().name(), sg);
+            n.handleSearchGrace(sg);
+            logState();
+        } else if (e instanceof LinkReuse) {
+            LinkReuse lr = (LinkReuse) e;
+            log.info("\n[{}]: Received {}", getSelf().path().name(), lr);
+            n.handleLinkReuse(lr);
+            logState();
+        }
+        n.flush();
+        if (tracer != null) {
+            tracer.eventHandled(n.nodeId, before, n.getHeight(), e,
+                    e instanceof Update ? ((Update) e).heightOf(0) : null, n.tracedSends);
+            n.tracedSends.clear();
         }
+        n.handledEvents++;
+        n.publish();
     }
 
 }
 
 /*
  * Node class. Implements the computing node part of the network model. Receives
- * messages from channels and runs the algorithm by handling this events
+ * messages from channels and runs the algorithm by handling this events. Runs
+ * one Election per group over the same neighbors and channels, and sends the
+ * Updates of all groups on a link in a single message at the end of each event.
  */
 public class Node {
 
     public int nodeId; /* Id of the node */
-    public ActorRef[] forming; /* Set of channels that are up but that haven't sent any messages yet */
+    public ActorRef[] forming; /*
+                               * Set of channels that are up but that haven't sent any messages yet. The
+                               * arrays indexed by neighbor id grow when a node with a higher id joins
+                               */
     public ActorRef[] neighbors; /* Set of channels that are up and have sent messages */
-    public int globalLeaderId; /* Id of the global leader */
-    public int localLeaderId; /* Id of the local leader of this node */
+    int[] slots; /* Slot of each neighbor plus one, or 0 if it never linked to the node. Indexed by neighbor id */
+    int[] slotIds; /* Id of the neighbor in each slot. The height sets of every group are indexed by slot */
+    int slotCount; /* Number of slots taken, one per node ever linked to this one */
     public int causalClock; /* Causal clock used to time events. Lamport's logical clock algorithm used */
-    public Height[] heights; /* Set of heights of neighbor nodes */
+    public Election[] elections; /* Election of each group, indexed by group id */
+    public int[] linkEpochs; /* Epoch of the incoming channel from each neighbor, as of its last status change */
+    public int[] linkWeights; /*
+                               * Distance added by the link to each neighbor: 1 when distances count hops,
+                               * its latency when links are weighted by latency. Set before the channels go up
+                               */
+    private double[] flapPenalties; /* Flap penalty of the link to each neighbor, as of its flapTimes entry */
+    private double[] flapTimes; /* Simulated time each flap penalty was last updated, in milliseconds */
+    private ChannelUp[] suppressed; /* ChannelUp of each suppressed link, held until its penalty decays */
+    private Update[] held; /* Updates received on each suppressed link, merged, or null */
+    private int graceSeq; /* Number of the latest deferral. Older grace windows are ignored */
+    private final ActorSystem system; /* ActorSystem where the node runs, to schedule its own events */
+    private final int[][] initialDeltas; /* Deltas of each group in the initial configuration */
+    private final int[][] initialLeaders; /* Leaders of each group in the initial configuration */
+    private final int[][] initialTimestamps; /* Timestamps of the initial leader pairs of each group, or null */
+    private final int initialClock; /* Clock of the initial configuration, the latest of its timestamps */
+    private StateStore store; /* Store the state is persisted to, or null */
+    private boolean resync; /* The Updates of the current event ask the neighbors for their heights */
+    private boolean[] awaiting; /* Neighbors whose heights the node waits for, after a restart or a join */
+    private int awaitingCount; /* Number of neighbors the node waits for */
+    private boolean joined; /* Joined a running network. Its initial leader pairs were never elected */
+    public volatile long handledEvents; /*
+                                         * Number of events handled by the node. Incremented by the node actor
+                                         * after each event, so it also tells readers the state has changed
+                                         */
+    private volatile NodeView view; /* Latest published snapshot of the state of the node in group 0 */
+    private volatile SubmissionPublisher<LeaderView> leaderChanges; /* Publisher of the leader changes, created on first use */
+    volatile SubmissionPublisher<LeaderView> networkLeaderChanges; /* Publisher shared by every node, or null */
+    volatile TraceRecorder trace; /* Recorder of the published views, or null */
+    volatile ElectionTracer tracer; /* Tracer of the elections of group 0, or null */
+    final List<Height> tracedSends = new ArrayList<Height>(); /* Heights sent in group 0 during the current event, while tracing */
+    private final Map<ActorRef, List<Update>> outbox = new LinkedHashMap<ActorRef, List<Update>>(); /* Updates of the current event, by channel */
+    private final List<Election> touched = new ArrayList<Election>(); /* Elections that handled the current event */
+    public volatile long sentMessages; /* Number of Updates sent by the node, one per group and height */
+    public volatile long sentBatches; /* Number of messages sent to the channels, each with the Updates of one event */
+    public volatile long discardedUpdates; /* Number of Updates discarded because their channel went down since */
+    public volatile long receivedUpdates; /* Number of Updates received by the node, one per group and height */
+    public volatile long selfElections; /* Number of times the node elected itself as leader of a level */
+    public volatile long deferredSearches; /* Number of grace windows started after the loss of a flapping link */
+    public volatile long suppressedLinks; /* Number of times a flapping link was kept down when it came back up */
+    public final List<RingBuffer<?>> outgoingQueues = new CopyOnWriteArrayList<RingBuffer<?>>(); /* Queues of the outgoing channels, registered by each channel */
 
     public ActorRef nodeActor;
 
@@ -121,461 +235,740 @@ public class Node {
      * @param networkSize Number of nodes in the network
      */
     public Node(ActorSystem system, int id, int gd, int glid, int ld, int llid, int networkSize) {
-        nodeId = id;
-        forming = new ActorRef[networkSize];
-        neighbors = new ActorRef[networkSize];
-        globalLeaderId = glid;
-        localLeaderId = llid;
-        causalClock = 0;
-        heights = new Height[networkSize];
-        heights[nodeId] = new Height(gd, -1, globalLeaderId, ld, -1, localLeaderId, nodeId);
-
-        nodeActor = system.actorOf(NodeActor.createActor(this), "n"+nodeId);
+        this(system, id, new int[] { gd, ld }, new int[] { glid, llid }, networkSize);
     }
 
-    public Height getHeight() {
-        return heights[nodeId];
+    /*
+     * Constructor. Initializes the variables for any number of levels.
+     * 
+     * @param id Id of this node
+     * 
+     * @param deltas Number of hops from this node to its leader of each level in
+     * initial configuration, starting from the global level
+     * 
+     * @param leaderIds Initial leader id of each level, starting from the global
+     * level
+     * 
+     * @param networkSize Number of nodes in the network
+     */
+    public Node(ActorSystem system, int id, int[] deltas, int[] leaderIds, int networkSize) {
+        this(system, id, new int[][] { deltas }, new int[][] { leaderIds }, networkSize);
     }
 
     /*
-     * Adds the channel to the forming set.
+     * Constructor. Initializes the variables for any number of election groups.
      * 
-     * @param channel Channel to the discovered neighbor node
+     * @param id Id of this node
      * 
-     * @param neighborId Id of the discovered neighbor node
+     * @param deltas Initial deltas of each group. deltas[g][l] is the number of
+     * hops from this node to its leader of level l in group g
+     * 
+     * @param leaderIds Initial leaders of each group. leaderIds[g][l] is the
+     * leader of level l in group g
+     * 
+     * @param networkSize Number of nodes in the network
      */
-    private void addForming(ActorRef channel, int neighborId) {
-        if (forming[neighborId] == null)
-            forming[neighborId] = channel;
+    public Node(ActorSystem system, int id, int[][] deltas, int[][] leaderIds, int networkSize) {
+        this(system, id, deltas, leaderIds, null, networkSize);
     }
 
     /*
-     * Moves a channel from the forming set to the neighbor set.
+     * Constructor. Gives the initial leaders their own timestamps, so leaders
+     * chosen later in a converged configuration win over older ones. The clock
+     * starts at the latest of them, so the node's own elections are newer.
      * 
-     * @param neighborId Id of the neighbor
+     * @param timestamps Timestamps of the initial leader pairs of each group.
+     * timestamps[g][l] is the timestamp of the leader of level l in group g. If
+     * null, they are all 1
      */
-    private void addNeighbor(int neighborId) {
-        if (forming[neighborId] != null && neighbors[neighborId] == null) {
-            neighbors[neighborId] = forming[neighborId];
-            forming[neighborId] = null;
+    public Node(ActorSystem system, int id, int[][] deltas, int[][] leaderIds, int[][] timestamps, int networkSize) {
+        this(system, id, deltas, leaderIds, timestamps, networkSize, "n" + id);
+    }
+
+    /*
+     * Constructor. Names the node actor, so a node can take the id of a removed
+     * one while its actor is still stopping.
+     * 
+     * @param name Name of the node actor
+     */
+    Node(ActorSystem system, int id, int[][] deltas, int[][] leaderIds, int[][] timestamps, int networkSize,
+            String name) {
+        this.system = system;
+        initialDeltas = deltas;
+        initialLeaders = leaderIds;
+        initialTimestamps = timestamps;
+        int clock = 0;
+        if (timestamps != null) {
+            for (int[] ts : timestamps) {
+                for (int t : ts) {
+                    clock = Math.max(clock, t);
+                }
+            }
         }
+        initialClock = clock;
+        nodeId = id;
+        forming = new ActorRef[networkSize];
+        neighbors = new ActorRef[networkSize];
+        slots = new int[networkSize];
+        slotIds = new int[4];
+        causalClock = initialClock;
+        linkEpochs = new int[networkSize];
+        linkWeights = new int[networkSize];
+        Arrays.fill(linkWeights, 1);
+        flapPenalties = new double[networkSize];
+        flapTimes = new double[networkSize];
+        suppressed = new ChannelUp[networkSize];
+        held = new Update[networkSize];
+        awaiting = new boolean[networkSize];
+        elections = new Election[deltas.length];
+        for (int g = 0; g < elections.length; g++) {
+            elections[g] = new Election(this, g, deltas[g], leaderIds[g],
+                    timestamps == null ? null : timestamps[g]);
+            touch(elections[g]);
+        }
+        publish();
+
+        nodeActor = system.actorOf(NetworkConfig.nodeProps(system, NodeActor.createActor(this)), name);
     }
 
     /*
-     * Removes the channel from forming and neighbor sets.
+     * Makes room for a neighbor in the arrays indexed by neighbor id, when it
+     * joined after the node was created. The arrays double, so joins cost each
+     * neighbor amortized constant time, and nodes that never link to the new one
+     * don't copy anything.
      * 
-     * @param neighborId Id of the neighbor removed
+     * @param neighborId Id of the neighbor
      */
-    private void removeNeighbor(int neighborId) {
-        if (forming[neighborId] != null)
-            forming[neighborId] = null;
-        if (neighbors[neighborId] != null)
-            neighbors[neighborId] = null;
-        heights[neighborId] = null;
+    private void grow(int neighborId) {
+        int size = forming.length;
+        if (neighborId < size)
+            return;
+        int n = Math.max(neighborId + 1, 2 * size);
+        forming = Arrays.copyOf(forming, n);
+        neighbors = Arrays.copyOf(neighbors, n);
+        linkEpochs = Arrays.copyOf(linkEpochs, n);
+        linkWeights = Arrays.copyOf(linkWeights, n);
+        Arrays.fill(linkWeights, size, n, 1);
+        flapPenalties = Arrays.copyOf(flapPenalties, n);
+        flapTimes = Arrays.copyOf(flapTimes, n);
+        suppressed = Arrays.copyOf(suppressed, n);
+        held = Arrays.copyOf(held, n);
+        awaiting = Arrays.copyOf(awaiting, n);
+        slots = Arrays.copyOf(slots, n);
     }
 
     /*
-     * ChannelDown handler. Removes the neighbor and checks if there is a path to
-     * the leader. If there isn't, starts a search.
+     * Gets the slot of a neighbor, taking the next one if it has none. The height
+     * sets of all groups are indexed by slot, so they are as long as the degree
+     * of the node rather than the size of the network, and the elections only
+     * walk the slots taken. A slot is kept when the link goes down, since it
+     * usually comes back, and the neighbor gets it back if it rejoins with the
+     * same id. The slot arrays double when full.
      * 
-     * @param chdown The ChannelDown event
+     * @param neighborId Id of the neighbor
+     * 
+     * @return The slot
      */
-    public void handleChannelDown(ChannelDown chdown) {
-        removeNeighbor(chdown.neighborId);
-        if (!hasNeighbors() && (nodeId != globalLeaderId)) {
-            //log.info("\n[{}]: No neighbors, electing self...", getSelf().path().name());
-            electSelfGlobal();
-            sendToForming(heights[nodeId]);
-        } else if (isSink() && nodeId != globalLeaderId) {
-            if (nodeId == localLeaderId) {
-                //log.info("\n[{}]: Is a sink and local leader, searching global", getSelf().path().name());
-                heights[nodeId].startNewReferenceLevelGlobal(causalClock, nodeId);
-            } else {
-                //log.info("\n[{}]: Is a sink, searching local", getSelf().path().name());
-                heights[nodeId].startNewReferenceLevelLocal(causalClock, nodeId);
-            }
-            sendToAll(heights[nodeId]);
-        } else{
-            Height myOldHeight = heights[nodeId].copy();
-            updateLocalDelta();
-            if (myOldHeight.compareTo(heights[nodeId]) != 0) {
-                sendToAll(heights[nodeId]);
+    int slot(int neighborId) {
+        grow(neighborId);
+        if (slots[neighborId] > 0)
+            return slots[neighborId] - 1;
+        if (slotCount == slotIds.length) {
+            int n = 2 * slotIds.length;
+            slotIds = Arrays.copyOf(slotIds, n);
+            for (Election e : elections) {
+                e.heights = Arrays.copyOf(e.heights, n);
             }
         }
+        slotIds[slotCount] = neighborId;
+        slots[neighborId] = ++slotCount;
+        return slotCount - 1;
     }
 
     /*
-     * ChannelUp handler. Adds the neighbor to the forming set and sends an update
-     * of its height
+     * Gets the slot of a neighbor without taking one.
      * 
-     * @param chup The ChannelUp event
+     * @param neighborId Id of the neighbor
+     * 
+     * @return The slot, or -1 if it never linked to the node
      */
-    public void handleChannelUp(ChannelUp chup) {
-        addForming(chup.channel, chup.neighborId);
-        sendMessage(chup.channel, heights[nodeId]);
+    int slotOf(int neighborId) {
+        return neighborId < slots.length ? slots[neighborId] - 1 : -1;
     }
 
     /*
-     * SetUp handler. Adds the neighbor to the forming set, moves it to the neighbor
-     * set and saves the neighbors height in the height set.
+     * Prepares a node added to a running network. Its leader pairs are marked as
+     * never elected, so they lose to any pair of the network, and it waits for the
+     * heights of its neighbors before running the algorithm, as after a restart,
+     * so its neighbors bootstrap it like a SetUp would. Called before its
+     * channels go up.
      * 
-     * @param sup The SetUp event
+     * @param neighborIds Ids of the nodes it is linked to
      */
-    public void handleSetUp(SetUp sup) {
-        addForming(sup.channel, sup.neighborId);
-        addNeighbor(sup.neighborId);
-        heights[sup.neighborId] = sup.height.copy();
+    void join(int[] neighborIds) {
+        joined = true;
+        unelect();
+        for (int j : neighborIds) {
+            slot(j);
+            if (!awaiting[j]) {
+                awaiting[j] = true;
+                awaitingCount++;
+            }
+        }
     }
 
     /*
-     * Update handler. Moves the neighbor to the neighbor set, saves its height in
-     * height set and decides how to change its own height based on the algortihm.
-     * If the height was changed, sends an update to neighbors.
+     * Replaces the leader pairs of a joining node with pairs of timestamp 0, older
+     * than the pair of any election.
      */
-    public void handleUpdate(Update u) {
-        Height h = u.height;
-        heights[h.nodeId] = h.copy();
-        addNeighbor(h.nodeId);
-        Height myOldHeight = heights[nodeId].copy();
-        ReferenceLevel neighborsRL = h.rl;
-        if (myOldHeight.globalLeaderPair.compareTo(h.globalLeaderPair) == 0) { // same global leaders
-            if ((myOldHeight.localLeaderPair.compareTo(h.localLeaderPair) == 0) || (neighborsRL.timestamp>0 && neighborsRL.localHops == 0) ) { // same local leaders
-                if (isSink()) {
-                    //log.info("\n[{}]: Is sink...", getSelf().path().name());
-                    if (nodeId != globalLeaderId && nodeId == localLeaderId && h.rl.localHops > 0) { // local search found global leader
-                        //log.info("\n[{}]: Local search found a local leader, searching global...",
-                        //        getSelf().path().name());
-                        heights[nodeId].startNewReferenceLevelGlobal(causalClock, nodeId);
-                    }
-                    if(nodeId != globalLeaderId){
-                        if (h.rl.reflected == 0 && h.rl.localHops > Network.MAX_HOPS) { // local search has gone too far
-                            //log.info("\n[{}]: Local search gone too far, reflecting...", getSelf().path().name());
-                            heights[nodeId].reflectReferenceLevel(h.rl);
-                        }  else if (neighborsHaveSameRL(neighborsRL)) { // neighbors have the same RL
-                            //log.info("\n[{}]: All neighbors have the same RL (dead end)...", getSelf().path().name());
-                            if (neighborsRL.timestamp > 0 && neighborsRL.reflected == 0) { // search hasn't been reflected
-                                                                                        // yet
-                                //log.info("\n[{}]: The search has not been reflected, reflecting it...",
-                                //        getSelf().path().name());
-                                heights[nodeId].reflectReferenceLevel(h.rl);
-                            } else if (neighborsRL.timestamp > 0 && neighborsRL.reflected == 1
-                                    && neighborsRL.originId == nodeId) { // search has been reflected and it was started by
-                                                                        // this node
-                                //log.info("\n[{}]: The reflected search has reached the origin, electing self...",
-                                //        getSelf().path().name());
-
-                                if (neighborsRL.localHops == 0) {
-                                    electSelfGlobal();
-                                } else {
-                                    electSelfLocal();
-                                }
-                            } else { // the search has been relfected and this node didn't start it
-                                //log.info(
-                                //        "\n[{}]: There is no search happening, or a reflected search reached a second dead end, starting new search...",
-                                //        getSelf().path().name());
-
-                                if (nodeId == localLeaderId) {
-                                    heights[nodeId].startNewReferenceLevelGlobal(causalClock, nodeId);
-                                } else {
-                                    heights[nodeId].startNewReferenceLevelLocal(causalClock, nodeId);
-                                }
-                            }
-                        } else { // neighbors have different RL
-                            //log.info("\n[{}]: Neighbors have different RL, propagating largest...",
-                            //        getSelf().path().name());
-                            propagateLargestRL();
-                        }
-                    }
-                } else{ // is not a sink
-                    // the search is done send a message back with your height
-                    if((myOldHeight.localDelta>0 && myOldHeight.globalDelta>0) || nodeId == localLeaderId){
-                        if(h.localDelta <=0 || h.globalDelta <=0)
-                            sendMessage(neighbors[h.nodeId], heights[nodeId]);
-                    }
-                    // the search was done and you received a new height
-                    updateLocalDelta();
-                }
-            } else { // different local leaders
-                if (!localLeadersInNeighborhood() && nodeId != localLeaderId) {
-                    //log.info("\n[{}]: Different local leaders, leaders far away, electing self...",
-                    //        getSelf().path().name());
-                    electSelfLocal();
-                } else {
-                    //log.info("\n[{}]: Different local leaders, checking priority...", getSelf().path().name());
-                    adoptLLPIfPriority(h.nodeId);
-                }
+    private void unelect() {
+        for (Election e : elections) {
+            Height h = e.getHeight();
+            for (int l = 0; l < h.levels(); l++) {
+                h.leaderPairs[l] = new LeaderPair(0, h.leaderPairs[l].leaderId);
             }
-        } else { // different global leaders
-            //log.info("\n[{}]: Different global leaders, checking priority...", getSelf().path().name());
-            adoptGLPIfPriority(h.nodeId);
+            touch(e);
         }
+    }
 
-        if (myOldHeight.compareTo(heights[nodeId]) != 0) {
-            sendToAll(heights[nodeId]);
+    /*
+     * Gets the height of the node in group 0.
+     * 
+     * @return The height
+     */
+    public Height getHeight() {
+        return elections[0].getHeight();
+    }
+
+    /*
+     * Copies the heights of the node in every group, to set up its channels.
+     * 
+     * @return The heights, indexed by group
+     */
+    public Height[] copyHeights() {
+        Height[] hs = new Height[elections.length];
+        for (int g = 0; g < hs.length; g++) {
+            hs[g] = elections[g].getHeight().copy();
         }
+        return hs;
     }
 
     /*
-     * Checks if the neighbors set is not empty.
+     * Gets the latest published view of the node in group 0. Safe to call from
+     * any thread.
      * 
-     * @return true if at least one element of neighbors is not null
+     * @return The view
+     */
+    public NodeView getView() {
+        return view;
+    }
+
+    /*
+     * Counts the messages waiting in the outgoing channels. Each queue keeps its
+     * own size, so sending and forwarding share no counter and this sum is only
+     * paid by the caller. Safe to call from any thread.
      * 
-     * @return false otherwise
+     * @return The sum of the sizes of the outgoing queues
      */
-    private boolean hasNeighbors() {
-        for (ActorRef channel : neighbors) {
-            if (channel != null)
-                return true;
+    public int queuedMessages() {
+        int n = 0;
+        for (RingBuffer<?> q : outgoingQueues) {
+            n += q.size();
         }
-        return false;
+        return n;
     }
 
     /*
-     * Checks if neighbors know of a local leader less than MAX_HOPS away.
+     * Gets the latest published leaders of the node in group 0. Safe to call from
+     * any thread, without locks, at any rate.
      * 
-     * @return true if there is at least one local leader within MAX_HOPS
+     * @return The view of the leaders
+     */
+    public LeaderView getLeaders() {
+        return getLeaders(0);
+    }
+
+    /*
+     * Gets the latest published leaders of the node in a group. Safe to call from
+     * any thread, without locks, at any rate.
      * 
-     * @return false otherwise
+     * @param group The election group
+     * 
+     * @return The view of the leaders
      */
-    private boolean localLeadersInNeighborhood() {
-        for (Height h : heights) {
-            if (h != null && h != heights[nodeId] && h.localDelta >= 0 && h.localDelta + 1 <= Network.MAX_HOPS) {
-                return true;
-            }
-        }
-        return false;
+    public LeaderView getLeaders(int group) {
+        return elections[group].leaders;
     }
 
     /*
-     * Checks if the node has no outgoing links.
+     * Gets the publisher of the changes of the leaders of the node. A new
+     * LeaderView is offered to the subscribers whenever a leader pair changes in
+     * any group. Subscribers that fall behind miss changes instead of slowing the
+     * node down, and can always read the current leaders with getLeaders().
      * 
-     * @return true if the node is not a global leader and is the lowest among its
-     * neighbors
+     * @return The publisher
+     */
+    public synchronized Flow.Publisher<LeaderView> leaderChanges() {
+        if (leaderChanges == null) {
+            leaderChanges = new SubmissionPublisher<LeaderView>();
+        }
+        return leaderChanges;
+    }
+
+    /*
+     * Marks an election as changed by the current event, so its leaders are
+     * checked when the node publishes.
      * 
-     * @return false otherwise
+     * @param e The election
      */
-    private boolean isSink() {
-        boolean isSink = true;
-        for (Height h : heights) {
-            if (h != null && h != heights[nodeId]) {
-                isSink = isSink && (h.globalLeaderPair.compareTo(heights[nodeId].globalLeaderPair) == 0)
-                        && (heights[nodeId].compareTo(h) < 0);
-            }
-            if (!isSink) {
-                return false;
+    private void touch(Election e) {
+        if (!e.touched) {
+            e.touched = true;
+            touched.add(e);
+        }
+    }
+
+    /*
+     * Publishes a snapshot of the current state, and persists the elections the
+     * event changed. Called by the node actor after each event.
+     */
+    void publish() {
+        StateStore st = store;
+        if (st != null && !touched.isEmpty())
+            st.save(this, touched);
+        for (Election e : touched) {
+            e.touched = false;
+            Height h = e.getHeight();
+            if (e.leaders == null || !e.leaders.sameLeaders(h)) {
+                LeaderView l = new LeaderView(h, e.group, handledEvents);
+                e.leaders = l;
+                SubmissionPublisher<LeaderView> p = leaderChanges;
+                if (p != null)
+                    p.offer(l, null);
+                p = networkLeaderChanges;
+                if (p != null)
+                    p.offer(l, null);
             }
         }
-        return true;
+        touched.clear();
+        view = new NodeView(this);
+        TraceRecorder t = trace;
+        if (t != null)
+            t.record(view);
     }
 
     /*
-     * Check if all neighbors have the same ReferenceLevel.
+     * Persists the state of the node to a store from now on. If the store holds a
+     * state of the node, e.g. from before the whole network was restarted, the
+     * node can resume from it. Called before the channels are set up.
      * 
-     * @return true if all neighbors have the same RL
+     * @param st The store
      * 
-     * @return false otherwise
+     * @param resume true to resume from the persisted state, false for a node
+     * that joined and takes the slot of a removed one
      */
-    private boolean neighborsHaveSameRL(ReferenceLevel rl) {
-        for (Height h : heights) {
-            if (h != null && h != heights[nodeId] && h.rl.compareTo(rl) != 0) {
-                return false;
-            }
+    void attachStore(StateStore st, boolean resume) {
+        if (resume && st.has(nodeId))
+            resume(st);
+        st.save(this, Arrays.asList(elections));
+        store = st;
+    }
+
+    /*
+     * Resumes from the state persisted in a store: the height and leaders of each
+     * group, and a clock past every timestamp the node issued before.
+     * 
+     * @param st The store
+     */
+    private void resume(StateStore st) {
+        for (Election e : elections) {
+            e.height = st.height(nodeId, e.group);
+            e.leaderIds = st.leaderIds(nodeId, e.group);
+            touch(e);
         }
-        return true;
+        causalClock = Math.max(causalClock, st.clock(nodeId));
     }
 
     /*
-     * Adopts the largest ReferenceLevel among its neighbors as its own.
+     * Restart handler. The node loses the state of its elections, as a restarted
+     * process would, and resumes from its persisted state, or from its initial
+     * configuration without one. Links stay up, so instead of searching it asks
+     * every neighbor for its heights, and only runs the algorithm once all of
+     * them answered, so it doesn't take itself for a sink in the meantime.
+     * 
+     * @param r The Restart event
      */
-    private void propagateLargestRL() {
-        ReferenceLevel rl = new ReferenceLevel();
-        for (Height h : heights) {
-            if (h != null && h != heights[nodeId]) {
-                if (nodeId == localLeaderId && h.rl.localHops == 0 && h.rl.compareTo(rl) > 0) {
-                    rl = h.rl;
-                } else if (h.rl.compareTo(rl) > 0) {
-                    rl = h.rl;
-                }
+    public void handleRestart(Restart r) {
+        for (int g = 0; g < elections.length; g++) {
+            Election old = elections[g];
+            elections[g] = new Election(this, g, initialDeltas[g], initialLeaders[g],
+                    initialTimestamps == null ? null : initialTimestamps[g]);
+            elections[g].leaders = old.leaders;
+            touch(elections[g]);
+        }
+        if (joined)
+            unelect();
+        causalClock = initialClock;
+        if (store != null && store.has(nodeId))
+            resume(store);
+        graceSeq++;
+        awaitingCount = 0;
+        for (int j = 0; j < neighbors.length; j++) {
+            if (neighbors[j] != null) {
+                forming[j] = neighbors[j];
+                neighbors[j] = null;
             }
+            awaiting[j] = forming[j] != null;
+            if (awaiting[j])
+                awaitingCount++;
         }
-        int gdelta = 0;
-        int ldelta = 0;
-        for (Height h : heights) {
-            if (h != null && h != heights[nodeId]) {
-                if (h.rl.compareTo(rl) == 0) {
-                    if (h.globalDelta < gdelta)
-                        gdelta = h.globalDelta;
-                    if (h.localDelta < ldelta)
-                        ldelta = h.localDelta;
-                }
+        for (Election e : elections) {
+            for (ActorRef channel : forming) {
+                if (channel != null)
+                    e.sendMessage(channel, e.getHeight());
             }
         }
-        heights[nodeId].rl = rl.copy();
-        if (rl.localHops > 0) {
-            heights[nodeId].rl.localHops++;
-            heights[nodeId].localDelta = ldelta - 1;
-        } else {
-            heights[nodeId].globalDelta = gdelta - 1;
+        resync = true;
+    }
+
+    /*
+     * Adds the channel to the forming set.
+     * 
+     * @param channel Channel to the discovered neighbor node
+     * 
+     * @param neighborId Id of the discovered neighbor node
+     */
+    private void addForming(ActorRef channel, int neighborId) {
+        slot(neighborId);
+        if (forming[neighborId] == null)
+            forming[neighborId] = channel;
+    }
+
+    /*
+     * Moves a channel from the forming set to the neighbor set.
+     * 
+     * @param neighborId Id of the neighbor
+     */
+    private void addNeighbor(int neighborId) {
+        if (forming[neighborId] != null && neighbors[neighborId] == null) {
+            neighbors[neighborId] = forming[neighborId];
+            forming[neighborId] = null;
         }
     }
 
     /*
-     * Redefine its global leader pair to elect itself as leader with causalClock as
-     * timestamp.
+     * Removes the channel from forming and neighbor sets.
+     * 
+     * @param neighborId Id of the neighbor removed
      */
-    private void electSelfGlobal() {
-        heights[nodeId].electGlobal(causalClock, nodeId);
-        globalLeaderId = nodeId;
-        localLeaderId = nodeId;
+    private void removeNeighbor(int neighborId) {
+        if (forming[neighborId] != null)
+            forming[neighborId] = null;
+        if (neighbors[neighborId] != null)
+            neighbors[neighborId] = null;
     }
 
     /*
-     * Redefine its local leader pair to elect itself as leader with causalClock as
-     * timestamp.
+     * Gets the current simulated time.
+     * 
+     * @return The time in milliseconds
      */
-    private void electSelfLocal() {
-        heights[nodeId].electLocal(causalClock, nodeId);
-        localLeaderId = nodeId;
+    private static double now() {
+        return System.nanoTime() / 1e6 * Network.TIME_SCALE;
     }
 
     /*
-     * Adopts the neighbor's global leader if its been elected more recently.
+     * Decays the flap penalty of a link to the current time and adds to it.
      * 
-     * @param neighborId Id of the neighbor whose leader it may adopt
+     * @param neighborId Id of the neighbor at the other end of the link
+     * 
+     * @param flaps Number of flaps to add
+     * 
+     * @return The penalty after the addition
      */
-    private void adoptGLPIfPriority(int neighborId) {
-        Height h = heights[neighborId];
-        if (h.globalLeaderPair.compareTo(heights[nodeId].globalLeaderPair) < 0) {
-            heights[nodeId].rl = h.rl.copy();
-            heights[nodeId].globalDelta = h.globalDelta+1;
-            heights[nodeId].globalLeaderPair = h.globalLeaderPair.copy();
-            if(h.localDelta + 1 <= Network.MAX_HOPS){
-                adoptLLPIfPriority(neighborId);
-            }
-            globalLeaderId = h.globalLeaderPair.leaderId;
-        } else {
-            sendMessage(neighbors[neighborId], heights[nodeId]);
-        }
+    private double flap(int neighborId, double flaps) {
+        double t = now();
+        flapPenalties[neighborId] = Network.HYSTERESIS.decay(flapPenalties[neighborId], t - flapTimes[neighborId])
+                + flaps;
+        flapTimes[neighborId] = t;
+        return flapPenalties[neighborId];
+    }
+
+    /*
+     * Sends an event to the node itself after some simulated time.
+     * 
+     * @param e The event
+     * 
+     * @param ms Delay in milliseconds of simulated time
+     */
+    private void schedule(Event e, double ms) {
+        system.scheduler().scheduleOnce(Duration.create((long) (ms * 1e6 / Network.TIME_SCALE), TimeUnit.NANOSECONDS),
+                nodeActor, e, system.dispatcher(), ActorRef.noSender());
     }
 
     /*
-     * Adopts the neighbor's local leader if it's closer than its own leader, of if
-     * it's closer to the global leader
+     * ChannelDown handler. Removes the neighbor and, in every group, checks if
+     * there is a path to the leader. If there isn't, starts a search. If the link
+     * already went down within the last half-life, the search waits for the grace
+     * window instead, since the link is likely to come back.
      * 
-     * @param neighborId Id of the neighbor whose leader it may adopt
+     * @param chdown The ChannelDown event
      */
-    private void adoptLLPIfPriority(int neighborId) {
-        Height h = heights[neighborId];
-        if (h.localDelta >= 0 && h.globalDelta >= 0) {
-            if ((heights[nodeId].localDelta < 0) 
-                    || (h.globalDelta + 1 < heights[nodeId].globalDelta)
-                    || ((h.globalDelta + 1 == heights[nodeId].globalDelta)
-                            && (h.localDelta + 1 < heights[nodeId].localDelta))
-                    || ((h.globalDelta + 1 == heights[nodeId].globalDelta)
-                            && (h.localDelta + 1 >= heights[nodeId].localDelta)
-                            && h.localLeaderPair.compareTo(heights[nodeId].localLeaderPair) < 0)) {
-                heights[nodeId].rl = h.rl.copy();
-                heights[nodeId].globalDelta = h.globalDelta+1;
-                heights[nodeId].globalLeaderPair = h.globalLeaderPair.copy();
-                heights[nodeId].localDelta = h.localDelta+1;
-                heights[nodeId].localLeaderPair = h.localLeaderPair.copy();
-                globalLeaderId = h.globalLeaderPair.leaderId;
-                localLeaderId = h.localLeaderPair.leaderId;
+    public void handleChannelDown(ChannelDown chdown) {
+        int j = chdown.neighborId;
+        grow(j);
+        linkEpochs[j] = chdown.linkEpoch;
+        Hysteresis hy = Network.HYSTERESIS;
+        boolean defer = false;
+        if (hy.enabled()) {
+            defer = hy.graceMs > 0 && flap(j, 0) >= 0.5;
+            flap(j, 1);
+            if (suppressed[j] != null) { // the link was never brought back up
+                suppressed[j] = null;
+                held[j] = null;
+                return;
             }
-        } else {
-            sendMessage(neighbors[neighborId], heights[nodeId]);
+        }
+        removeNeighbor(j);
+        for (Election e : elections) {
+            touch(e);
+            e.channelDown(j, defer);
+        }
+        stopAwaiting(j);
+        if (defer) {
+            deferredSearches++;
+            schedule(new SearchGrace(causalClock, ++graceSeq), hy.graceMs);
         }
     }
 
-    /* 
-     * Updates its global delta to the shortest path to the global leader
+    /*
+     * ChannelUp handler. Adds the neighbor to the forming set and sends an update
+     * of its height in every group. A link whose flap penalty reached the
+     * suppress threshold is held down until the penalty decays. A new link, to a
+     * node that just joined, starts with no flap history and the weight it
+     * carries.
+     * 
+     * @param chup The ChannelUp event
      */
-    private void updateGlobalDelta(){
-        int delta = heights[nodeId].globalDelta>=0?heights[nodeId].globalDelta+1:neighbors.length;
-        for(Height h: heights){
-            if(h != null && h != heights[nodeId] && h.globalDelta>=0){
-                if(h.globalLeaderPair.leaderId == globalLeaderId && h.globalDelta < delta){
-                    delta = h.globalDelta;
-                }
+    public void handleChannelUp(ChannelUp chup) {
+        Hysteresis hy = Network.HYSTERESIS;
+        grow(chup.neighborId);
+        if (chup.weight > 0) {
+            int j = chup.neighborId;
+            linkWeights[j] = chup.weight;
+            flapPenalties[j] = 0;
+            flapTimes[j] = 0;
+            suppressed[j] = null;
+            held[j] = null;
+        } else if (hy.suppress > 0) {
+            double p = flap(chup.neighborId, 0);
+            if (p >= hy.suppress) {
+                suppressedLinks++;
+                suppressed[chup.neighborId] = chup;
+                held[chup.neighborId] = null;
+                schedule(new LinkReuse(causalClock, chup.neighborId), hy.reuseDelay(p));
+                return;
             }
         }
-        heights[nodeId].globalDelta = delta+1;
-        if(nodeId == globalLeaderId){
-            heights[nodeId].globalDelta = 0;
+        linkEpochs[chup.neighborId] = chup.linkEpoch;
+        addForming(chup.channel, chup.neighborId);
+        if (awaiting[chup.neighborId])
+            return; // a joining node has no height worth sending yet
+        for (Election e : elections) {
+            touch(e);
+            e.sendMessage(chup.channel, e.getHeight());
         }
     }
 
-    /* 
-     * Updates its local delta to the shortest path to its local leader. Updates global delta if needed.
-     * If the local leader is too far, elect self as local leader
+    /*
+     * SearchGrace handler. Searches in every group that deferred its search, if
+     * the lost link did not come back in the meantime.
+     * 
+     * @param sg The SearchGrace event
      */
-    private void updateLocalDelta(){
-        int delta = heights[nodeId].localDelta>=0?heights[nodeId].localDelta+1:Network.MAX_HOPS;
-        for(Height h: heights){
-            if(h != null && h != heights[nodeId] && h.localDelta>=0){
-                if(h.localLeaderPair.leaderId == localLeaderId && h.localDelta < delta){
-                    delta = h.localDelta;
-                }
-            }
+    public void handleSearchGrace(SearchGrace sg) {
+        if (sg.seq != graceSeq)
+            return;
+        for (Election e : elections) {
+            if (e.graceExpired())
+                touch(e);
         }
-        if(nodeId == localLeaderId)
-            delta = -1;
-        if(delta+1 > Network.MAX_HOPS){
-            electSelfLocal();
+    }
+
+    /*
+     * LinkReuse handler. Brings a suppressed link back up once its penalty has
+     * decayed, and handles the Updates the neighbor sent on it in the meantime.
+     * 
+     * @param lr The LinkReuse event
+     */
+    public void handleLinkReuse(LinkReuse lr) {
+        int j = lr.neighborId;
+        ChannelUp chup = suppressed[j];
+        if (chup == null)
+            return;
+        double p = flap(j, 0);
+        if (p > Network.HYSTERESIS.reuse) {
+            schedule(new LinkReuse(causalClock, j), Network.HYSTERESIS.reuseDelay(p));
+            return;
         }
-        else{
-            heights[nodeId].localDelta = delta+1;
+        Update u = held[j];
+        suppressed[j] = null;
+        held[j] = null;
+        linkEpochs[j] = chup.linkEpoch;
+        addForming(chup.channel, j);
+        for (Election e : elections) {
+            touch(e);
+            e.sendMessage(chup.channel, e.getHeight());
         }
-        updateGlobalDelta();
+        if (u != null)
+            handleUpdate(u);
     }
 
     /*
-     * Sends an Update message to the target with the given height
+     * SetUp handler. Adds the neighbor to the forming set, moves it to the neighbor
+     * set and saves the neighbors heights in the height set of each group.
      * 
-     * @param target Channel to send the message to
+     * @param sup The SetUp event
+     */
+    public void handleSetUp(SetUp sup) {
+        linkEpochs[sup.neighborId] = sup.linkEpoch;
+        addForming(sup.channel, sup.neighborId);
+        addNeighbor(sup.neighborId);
+        for (int g = 0; g < elections.length && g < sup.heights.length; g++) {
+            touch(elections[g]);
+            elections[g].saveNeighbor(sup.heights[g].copy());
+        }
+    }
+
+    /*
+     * Update handler. Moves the neighbor to the neighbor set and hands each height
+     * of the message to the election of its group, in order.
      * 
-     * @param height Height to send to target
+     * A neighbor that restarted asks for the heights of the node, which are sent
+     * back even if they didn't change.
+     * Updates received on a suppressed link are held until it is reused.
+     * Updates sent before the last status change of their channel are discarded.
+     * Priority mailboxes deliver ChannelDown and ChannelUp ahead of queued Updates,
+     * so those would otherwise bring back the height of a disconnected neighbor.
      */
-    private void sendMessage(ActorRef target, Height height) {
-        causalClock++;
-        target.tell(new Update(causalClock, height), nodeActor);
+    public void handleUpdate(Update u) {
+        int senderId = u.height.nodeId;
+        if (senderId >= forming.length) { // never linked to this node
+            receivedUpdates += u.size();
+            discardedUpdates += u.size();
+            return;
+        }
+        if (suppressed[senderId] != null && u.linkEpoch == suppressed[senderId].linkEpoch) {
+            // Kept until the link is reused, only the latest height of each group matters
+            Update h = held[senderId];
+            held[senderId] = h == null ? u : Update.merge(h, u);
+            held[senderId].linkEpoch = u.linkEpoch;
+            return;
+        }
+        receivedUpdates += u.size();
+        if (u.linkEpoch != linkEpochs[senderId]
+                || (forming[senderId] == null && neighbors[senderId] == null)) {
+            discardedUpdates += u.size();
+            return;
+        }
+        addNeighbor(senderId);
+        if (awaiting[senderId]) {
+            for (int i = 0; i < u.size(); i++) {
+                touch(elections[u.group(i)]);
+                elections[u.group(i)].saveNeighbor(u.height(i).copy());
+            }
+            stopAwaiting(senderId);
+        } else {
+            for (int i = 0; i < u.size(); i++) {
+                Election e = elections[u.group(i)];
+                touch(e);
+                e.update(u.height(i));
+            }
+        }
+        if (u.resync) {
+            for (Election e : elections) {
+                touch(e);
+                e.sendMessage(neighbors[senderId], e.getHeight());
+            }
+        }
     }
 
     /*
-     * Sends an Update message to all channels in the neighbor set
+     * Stops waiting for the heights of a neighbor after a restart or a join. Once
+     * no neighbor is left, hands the height of each one to the elections, as if
+     * they just arrived, so the node syncs with all of them at once.
      * 
-     * @height Height to send to neighbors
+     * @param neighborId Id of the neighbor
      */
-    private void sendToNeihgbors(Height height) {
-        for (ActorRef target : neighbors) {
-            if (target != null)
-                sendMessage(target, height);
+    private void stopAwaiting(int neighborId) {
+        if (!awaiting[neighborId])
+            return;
+        awaiting[neighborId] = false;
+        if (--awaitingCount > 0)
+            return;
+        for (Election e : elections) {
+            touch(e);
+            for (int s = 0; s < slotCount; s++) {
+                if (e.heights[s] != null && neighbors[slotIds[s]] != null)
+                    e.update(e.heights[s]);
+            }
         }
     }
 
     /*
-     * Sends an Update message to all channels in the forming set
+     * Checks if the neighbors set is not empty.
+     * 
+     * @return true if at least one element of neighbors is not null
      * 
-     * @height Height to send to neighbors
+     * @return false otherwise
      */
-    private void sendToForming(Height height) {
-        for (ActorRef target : forming) {
-            if (target != null)
-                sendMessage(target, height);
+    boolean hasNeighbors() {
+        for (int s = 0; s < slotCount; s++) {
+            if (neighbors[slotIds[s]] != null)
+                return true;
         }
+        return false;
     }
 
     /*
-     * Sends an Update message to all channels in the forming and neighbor sets
+     * Queues an Update for the target, sent with the other Updates for the same
+     * channel when the current event is done.
      * 
-     * @height Height to send to neighbors
+     * @param target Channel to send the message to
+     * 
+     * @param group Election group of the height
+     * 
+     * @param height Height to send to target. A copy is queued, since the
+     * election keeps changing it in place while the Update waits in the outbox
+     * and in the channel
      */
-    private void sendToAll(Height height) {
-        sendToNeihgbors(height);
-        for (ActorRef target : forming) {
-            if (target != null && !Arrays.asList(neighbors).contains(target)) {
-                sendMessage(target, height);
-            }
+    void send(ActorRef target, int group, Height height) {
+        causalClock++;
+        sentMessages++;
+        height = height.copy();
+        if (tracer != null && group == 0)
+            tracedSends.add(height);
+        List<Update> updates = outbox.get(target);
+        if (updates == null) {
+            updates = new ArrayList<Update>();
+            outbox.put(target, updates);
         }
+        updates.add(new Update(causalClock, group, height));
     }
-}
\ No newline at end of file
+
+    /*
+     * Sends the Updates queued during the current event, one message per channel.
+     * Called by the node actor after each event.
+     */
+    void flush() {
+        for (Map.Entry<ActorRef, List<Update>> e : outbox.entrySet()) {
+            List<Update> updates = e.getValue();
+            sentBatches++;
+            Update u = updates.size() == 1 ? updates.get(0) : new UpdateBatch(causalClock, updates);
+            u.resync = resync;
+            e.getKey().tell(u, nodeActor);
+        }
+        outbox.clear();
+        resync = false;
+    }
+}
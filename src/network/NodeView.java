@@ -0,0 +1,85 @@
+package network;
+
+import height.Height;
+
+/*
+ * NodeView class. Immutable snapshot of the state of a node in election group
+ * 0, published by the node actor after every event it handles. Readers on other threads, like the
+ * renderer, get a consistent view without locks by reading the latest one.
+ */
+public final class NodeView {
+    public final long version; /* Number of events the node had handled when the view was published */
+    public final int nodeId; /* Id of the node */
+    public final Height height; /* Copy of the height of the node. Must not be modified */
+    public final int[] leaderIds; /* Id of the leader of each level, from the global one. Must not be modified */
+    public final int globalLeaderId; /* Id of the global leader */
+    public final int localLeaderId; /* Id of the local leader, the one of the lowest level */
+    public final int causalClock; /* Causal clock of the node */
+    public final int[] neighborIds; /* Ids of the neighbors in the forming and neighbor sets, in the order they first linked */
+    public final int[] lowerNeighbors; /* Ids of the neighbors of smaller height, that is, the ends of its edges, in the same order */
+
+    /*
+     * Constructor. Copies the state of the node. Must be called by the thread
+     * running the node.
+     *
+     * @param n The node
+     */
+    NodeView(Node n) {
+        Election e = n.elections[0];
+        version = n.handledEvents;
+        nodeId = n.nodeId;
+        height = e.getHeight().copy();
+        leaderIds = e.leaderIds.clone();
+        globalLeaderId = leaderIds[0];
+        localLeaderId = leaderIds[leaderIds.length - 1];
+        causalClock = n.causalClock;
+
+        // Two passes over the slots of the node, so the arrays are allocated once,
+        // at their size, and the cost follows the degree, not the network
+        int neighborCount = 0;
+        int lowerCount = 0;
+        for (int s = 0; s < n.slotCount; s++) {
+            int j = n.slotIds[s];
+            if (n.forming[j] != null || n.neighbors[j] != null)
+                neighborCount++;
+            if (e.heights[s] != null && e.heights[s].compareTo(e.height) < 0)
+                lowerCount++;
+        }
+        neighborIds = new int[neighborCount];
+        lowerNeighbors = new int[lowerCount];
+        neighborCount = 0;
+        lowerCount = 0;
+        for (int s = 0; s < n.slotCount; s++) {
+            int j = n.slotIds[s];
+            if (n.forming[j] != null || n.neighbors[j] != null)
+                neighborIds[neighborCount++] = j;
+            if (e.heights[s] != null && e.heights[s].compareTo(e.height) < 0)
+                lowerNeighbors[lowerCount++] = j;
+        }
+    }
+
+    /*
+     * Constructor. Used to rebuild a view from a recorded trace.
+     */
+    NodeView(long version, int nodeId, Height height, int[] leaderIds, int causalClock, int[] neighborIds,
+            int[] lowerNeighbors) {
+        this.version = version;
+        this.nodeId = nodeId;
+        this.height = height;
+        this.leaderIds = leaderIds;
+        this.globalLeaderId = leaderIds[0];
+        this.localLeaderId = leaderIds[leaderIds.length - 1];
+        this.causalClock = causalClock;
+        this.neighborIds = neighborIds;
+        this.lowerNeighbors = lowerNeighbors;
+    }
+
+    /*
+     * Creates a String representation of the view for logging purposes
+     *
+     * @return The string representation
+     */
+    public String toString() {
+        return "View(" + version + "," + height + "," + causalClock + ")";
+    }
+}
@@ -0,0 +1,251 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BinaryOperator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * RingBuffer class. Fixed capacity queue backed by an array, shared by the
+ * channel actor, that adds messages, and its forwarding thread, that removes
+ * them. The memory used does not depend on the load. When the buffer is full,
+ * the policy decides what happens to the new element.
+ */
+public class RingBuffer<T> implements Iterable<T> {
+
+    // Possible policies when the buffer is full
+    public static final int BLOCK = 0; /* The element is refused. The producer holds it back until there is space, or drops it */
+    public static final int DROP_OLDEST = 1; /* The element at the head is dropped */
+    public static final int COALESCE = 2; /* The new element replaces the one at the tail, or merges with it */
+
+    private final Object[] elements; /* Circular array of elements */
+    private int head; /* Position of the oldest element */
+    private volatile int size; /* Number of elements in the buffer. Written under the lock, read without it */
+    private final int policy; /* Policy applied when the buffer is full */
+
+    private final ReentrantLock lock = new ReentrantLock(); /* Guards every field above */
+    private final Condition notEmpty = lock.newCondition(); /* Signaled when an element enters the buffer */
+
+    private volatile int highWaterMark; /* Largest size the buffer has reached */
+    private volatile long dropped; /* Number of elements dropped or replaced because the buffer was full */
+    private final BinaryOperator<T> merge; /* Combines the tail with the new element when coalescing, or null */
+
+    /*
+     * Constructor. Initializes the variables.
+     *
+     * @param capacity Maximum number of elements
+     *
+     * @param policy Policy applied when the buffer is full
+     */
+    public RingBuffer(int capacity, int policy) {
+        this(capacity, policy, null);
+    }
+
+    /*
+     * Constructor. When coalescing, the element at the tail is replaced by the
+     * result of merging it with the new one, so elements that carry several
+     * values don't lose the ones the new element doesn't replace.
+     *
+     * @param merge Function of the tail and the new element, or null to replace
+     * the tail
+     */
+    public RingBuffer(int capacity, int policy, BinaryOperator<T> merge) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        elements = new Object[capacity];
+        this.policy = policy;
+        this.merge = merge;
+    }
+
+    /*
+     * Parses the name of a policy.
+     *
+     * @param name One of block, drop-oldest or coalesce
+     *
+     * @return The policy constant
+     */
+    public static int policy(String name) {
+        switch (name) {
+            case "block":
+                return BLOCK;
+            case "drop-oldest":
+                return DROP_OLDEST;
+            case "coalesce":
+                return COALESCE;
+            default:
+                throw new IllegalArgumentException("Unknown policy: " + name);
+        }
+    }
+
+    /*
+     * Adds an element at the tail. If the buffer is full, applies the policy.
+     * Never waits, so the producer can keep handling other work while the buffer
+     * is full.
+     *
+     * @param e The element to add
+     *
+     * @return false if the buffer is full and the policy is BLOCK, so the
+     * element was not added
+     */
+    public boolean add(T e) {
+        lock.lock();
+        try {
+            if (size == elements.length) {
+                if (policy == BLOCK) {
+                    return false;
+                } else if (policy == DROP_OLDEST) {
+                    elements[head] = null;
+                    head = (head + 1) % elements.length;
+                    size--;
+                    dropped++;
+                } else {
+                    int tail = (head + size - 1) % elements.length;
+                    @SuppressWarnings("unchecked")
+                    T last = (T) elements[tail];
+                    elements[tail] = merge == null ? e : merge.apply(last, e);
+                    dropped++;
+                    return true;
+                }
+            }
+            elements[(head + size) % elements.length] = e;
+            size++;
+            notEmpty.signal();
+            if (size > highWaterMark)
+                highWaterMark = size;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Removes the element at the head.
+     *
+     * @return The removed element, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        lock.lock();
+        try {
+            if (size == 0)
+                return null;
+            T e = (T) elements[head];
+            elements[head] = null;
+            head = (head + 1) % elements.length;
+            size--;
+            return e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Removes the element at the head, waiting for one if the buffer is empty.
+     *
+     * @return The removed element
+     */
+    public T take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Removes every element, keeping the array.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                elements[(head + i) % elements.length] = null;
+            }
+            head = 0;
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Gets the number of elements without locking, so several buffers can be
+     * sampled cheaply while they are used.
+     *
+     * @return The size, as of the last add or removal
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    public int highWaterMark() {
+        return highWaterMark;
+    }
+
+    public long dropped() {
+        return dropped;
+    }
+
+    /*
+     * Raises the high-water mark to cover the elements the producer holds back
+     * while the buffer is full.
+     *
+     * @param held Number of elements held outside the buffer
+     */
+    public void countHeld(int held) {
+        lock.lock();
+        try {
+            if (size + held > highWaterMark)
+                highWaterMark = size + held;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Counts an element the producer dropped because the buffer was full and it
+     * could hold no more, so dropped() covers it.
+     */
+    public void countDropped() {
+        lock.lock();
+        try {
+            dropped++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Iterates over a copy of the elements, from head to tail. Used for logging.
+     *
+     * @return The iterator
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Iterator<T> iterator() {
+        List<T> copy = new ArrayList<T>();
+        lock.lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                copy.add((T) elements[(head + i) % elements.length]);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return copy.iterator();
+    }
+}
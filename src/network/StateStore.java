@@ -0,0 +1,228 @@
+package network;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import height.Height;
+import height.LeaderPair;
+import height.ReferenceLevel;
+
+/*
+ * StateStore class. Persists the state each node needs to resume after a
+ * restart in a memory-mapped file: the height and leader ids of every election
+ * group, and its causal clock. Each node has a fixed slot and writes it after
+ * every event that touched its elections, straight into the mapped pages, so a
+ * change costs a few memory writes and no system call. The pages survive a
+ * crash of the process, not of the machine.
+ *
+ * A slot starts with a sequence number, odd while the node writes it, so a
+ * slot torn by a crash is ignored. The clock is not written on every tick:
+ * the slot holds a reservation ahead of the clock, renewed when the clock gets
+ * close to it, and a restarted node resumes from the reservation. Timestamps
+ * issued after a restart are then greater than any issued before, and Lamport
+ * ordering is kept.
+ *
+ * Slots are allocated for the nodes the network was created with. Nodes that
+ * join later with a higher id are not persisted, and one that takes the id of
+ * a removed node overwrites its slot.
+ */
+public class StateStore {
+
+    private static final int MAGIC = 0x484c4531; /* "HLE1" */
+    private static final int HEADER = 32; /* Bytes before the first slot */
+    private static final int SLOT_HEADER = 2; /* Sequence number and clock reservation, in ints */
+    public static final int CLOCK_STEP = 1024; /* Timestamps reserved at a time */
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class,
+            ByteOrder.nativeOrder()); /* Ordered access to the sequence numbers */
+
+    public final Path path; /* Path of the state file */
+    public final int nodes; /* Number of slots */
+    public final int groups; /* Election groups of each node */
+    public final int levels; /* Levels of leaders of each group */
+    private final int slotInts; /* Size of a slot, in ints */
+    private final MappedByteBuffer buffer; /* The mapped file */
+    private final boolean[] valid; /* The slot of each node held a complete state when the file was opened */
+
+    /*
+     * Constructor. Maps the state file, creating it if needed. A file written for
+     * a network of another shape is cleared.
+     *
+     * @param path Path of the state file. Missing directories are created
+     *
+     * @param nodes Number of nodes
+     *
+     * @param groups Number of election groups
+     *
+     * @param levels Number of levels of leaders
+     */
+    public StateStore(String path, int nodes, int groups, int levels) throws IOException {
+        this.path = Paths.get(path).toAbsolutePath();
+        this.nodes = nodes;
+        this.groups = groups;
+        this.levels = levels;
+        slotInts = SLOT_HEADER + groups * (9 + 4 * levels);
+        Files.createDirectories(this.path.getParent());
+        long size = HEADER + 4L * slotInts * nodes;
+        try (RandomAccessFile file = new RandomAccessFile(this.path.toFile(), "rw")) {
+            boolean same = file.length() == size;
+            file.setLength(size);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            same = same && buffer.getInt(0) == MAGIC && buffer.getInt(4) == nodes && buffer.getInt(8) == groups
+                    && buffer.getInt(12) == levels;
+            valid = new boolean[nodes];
+            if (same) {
+                for (int i = 0; i < nodes; i++) {
+                    int seq = buffer.getInt(offset(i));
+                    valid[i] = seq > 0 && seq % 2 == 0;
+                }
+            } else {
+                for (int b = 0; b < size; b += 4) {
+                    buffer.putInt(b, 0);
+                }
+                buffer.putInt(4, nodes);
+                buffer.putInt(8, groups);
+                buffer.putInt(12, levels);
+                buffer.putInt(0, MAGIC);
+            }
+        }
+    }
+
+    private int offset(int nodeId) {
+        return HEADER + 4 * slotInts * nodeId;
+    }
+
+    /*
+     * Checks if a node has a persisted state to resume from.
+     *
+     * @param nodeId Id of the node
+     *
+     * @return true if its slot was complete when the file was opened, or was
+     * written since. false if the node has no slot
+     */
+    public boolean has(int nodeId) {
+        return nodeId < nodes && valid[nodeId];
+    }
+
+    /*
+     * Writes the state of some elections of a node to its slot, and renews the
+     * clock reservation if the clock got within half a step of it. Called by the
+     * node actor only, so slots are never written concurrently. Nodes without a
+     * slot are ignored.
+     *
+     * @param n The node
+     *
+     * @param elections The elections whose state changed
+     */
+    void save(Node n, Iterable<Election> elections) {
+        if (n.nodeId >= nodes)
+            return;
+        int o = offset(n.nodeId);
+        int seq = (int) INTS.getAcquire(buffer, o);
+        if (seq % 2 != 0)
+            seq++;
+        INTS.setRelease(buffer, o, seq + 1);
+        int reserved = buffer.getInt(o + 4);
+        if (n.causalClock + CLOCK_STEP / 2 > reserved)
+            buffer.putInt(o + 4, n.causalClock + CLOCK_STEP);
+        for (Election e : elections) {
+            if (e.group < groups)
+                write(o + 4 * (SLOT_HEADER + e.group * (9 + 4 * levels)), e);
+        }
+        INTS.setRelease(buffer, o, seq + 2);
+        valid[n.nodeId] = true;
+    }
+
+    private void write(int b, Election e) {
+        Height h = e.getHeight();
+        ReferenceLevel rl = h.rl;
+        int[] v = { rl.timestamp, rl.originId, rl.reflected, rl.localHops, rl.level, h.via, h.members,
+                h.clusterSize, h.splitId };
+        for (int x : v) {
+            buffer.putInt(b, x);
+            b += 4;
+        }
+        for (int l = 0; l < levels; l++) {
+            buffer.putInt(b, h.deltas[l]);
+            buffer.putInt(b + 4, h.leaderPairs[l].negativeTimestamp);
+            buffer.putInt(b + 8, h.leaderPairs[l].leaderId);
+            buffer.putInt(b + 12, e.leaderIds[l]);
+            b += 16;
+        }
+    }
+
+    /*
+     * Reads the persisted clock reservation of a node.
+     *
+     * @param nodeId Id of the node
+     *
+     * @return The clock the node resumes from
+     */
+    int clock(int nodeId) {
+        return buffer.getInt(offset(nodeId) + 4);
+    }
+
+    /*
+     * Reads the persisted height of a node in a group.
+     *
+     * @param nodeId Id of the node
+     *
+     * @param group The election group
+     *
+     * @return The height
+     */
+    Height height(int nodeId, int group) {
+        int b = offset(nodeId) + 4 * (SLOT_HEADER + group * (9 + 4 * levels));
+        ReferenceLevel rl = new ReferenceLevel(buffer.getInt(b), buffer.getInt(b + 4), buffer.getInt(b + 8),
+                buffer.getInt(b + 12), buffer.getInt(b + 16));
+        int[] deltas = new int[levels];
+        LeaderPair[] pairs = new LeaderPair[levels];
+        int p = b + 36;
+        for (int l = 0; l < levels; l++) {
+            deltas[l] = buffer.getInt(p);
+            pairs[l] = new LeaderPair(buffer.getInt(p + 4), buffer.getInt(p + 8));
+            p += 16;
+        }
+        Height h = new Height(deltas, pairs, nodeId);
+        h.rl = rl;
+        h.via = buffer.getInt(b + 20);
+        h.members = buffer.getInt(b + 24);
+        h.clusterSize = buffer.getInt(b + 28);
+        h.splitId = buffer.getInt(b + 32);
+        return h;
+    }
+
+    /*
+     * Reads the persisted leader ids of a node in a group.
+     *
+     * @param nodeId Id of the node
+     *
+     * @param group The election group
+     *
+     * @return The id of the leader of each level
+     */
+    int[] leaderIds(int nodeId, int group) {
+        int p = offset(nodeId) + 4 * (SLOT_HEADER + group * (9 + 4 * levels)) + 36;
+        int[] ids = new int[levels];
+        for (int l = 0; l < levels; l++) {
+            ids[l] = buffer.getInt(p + 12);
+            p += 16;
+        }
+        return ids;
+    }
+
+    /*
+     * Flushes the mapped pages to the disk.
+     */
+    public void force() {
+        buffer.force();
+    }
+}
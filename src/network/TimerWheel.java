@@ -0,0 +1,163 @@
+package network;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * TimerWheel class. Hashed timer wheel running tasks after a delay of
+ * simulated time, on a single thread. Time advances in ticks, and a task is
+ * kept in the bucket of the tick it's due, modulo the size of the wheel, with
+ * the number of turns of the wheel left before it runs. Scheduling and running
+ * a task cost O(1), so hundreds of thousands of timers only cost the tasks that
+ * are due, instead of a thread or a sorted queue each. Delays are rounded up to
+ * the next tick.
+ */
+public class TimerWheel implements Runnable {
+
+    /*
+     * Timer class. A task waiting in a bucket of the wheel.
+     */
+    private static class Timer {
+        final Runnable task; /* Task to run */
+        final long tick; /* Tick the task is due */
+        long rounds; /* Turns of the wheel left before the task runs */
+        Timer next; /* Next timer of the bucket */
+
+        Timer(Runnable task, long tick) {
+            this.task = task;
+            this.tick = tick;
+        }
+    }
+
+    public final double tickMs; /* Length of a tick, in milliseconds of simulated time */
+    private final Timer[] buckets; /* Timers of each tick, modulo the size of the wheel */
+    private final ConcurrentLinkedQueue<Timer> pending = new ConcurrentLinkedQueue<Timer>(); /*
+                                                                                             * Timers scheduled from
+                                                                                             * other threads, added
+                                                                                             * to the buckets at the
+                                                                                             * next tick
+                                                                                             */
+    private volatile long tick; /* Number of ticks done */
+    private volatile boolean running = true; /* Cleared when the wheel stops */
+    private Thread thread; /* Thread advancing the wheel */
+
+    /*
+     * Constructor. Initializes the variables.
+     *
+     * @param tickMs Length of a tick, in milliseconds of simulated time
+     *
+     * @param size Number of buckets. Rounded up to a power of two
+     */
+    public TimerWheel(double tickMs, int size) {
+        if (tickMs <= 0)
+            throw new IllegalArgumentException("Tick must be positive: " + tickMs);
+        this.tickMs = tickMs;
+        buckets = new Timer[Integer.highestOneBit(Math.max(1, size - 1)) << 1];
+    }
+
+    /*
+     * Starts the thread advancing the wheel.
+     *
+     * @param name Name of the thread
+     */
+    public synchronized void start(String name) {
+        if (thread != null)
+            return;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /*
+     * Stops the wheel. Timers not run yet are dropped.
+     */
+    public void stop() {
+        running = false;
+        Thread t = thread;
+        if (t != null)
+            t.interrupt();
+    }
+
+    /*
+     * Gets the current simulated time of the wheel.
+     *
+     * @return The start of the current tick, in milliseconds
+     */
+    public double now() {
+        return tick * tickMs;
+    }
+
+    /*
+     * Schedules a task. Safe to call from any thread, and the cheapest from the
+     * tasks themselves.
+     *
+     * @param task The task
+     *
+     * @param delayMs Delay in milliseconds of simulated time
+     */
+    public void schedule(Runnable task, double delayMs) {
+        long due = tick + Math.max(1, (long) Math.ceil(delayMs / tickMs));
+        Timer t = new Timer(task, due);
+        if (Thread.currentThread() == thread) {
+            add(t);
+        } else {
+            pending.add(t);
+        }
+    }
+
+    /*
+     * Puts a timer in the bucket of its tick.
+     *
+     * @param t The timer
+     */
+    private void add(Timer t) {
+        long ticks = Math.max(1, t.tick - tick);
+        t.rounds = (ticks - 1) / buckets.length;
+        int b = (int) ((tick + ticks) & (buckets.length - 1));
+        t.next = buckets[b];
+        buckets[b] = t;
+    }
+
+    /*
+     * Main loop. Sleeps until the next tick, in real time, and runs the timers
+     * of its bucket whose rounds are over. Ticks are timed from the start, so the
+     * wheel doesn't drift when tasks take long.
+     */
+    public void run() {
+        long start = System.nanoTime();
+        double tickNanos = tickMs * 1e6 / Network.TIME_SCALE;
+        while (running) {
+            try {
+                long wait = start + (long) ((tick + 1) * tickNanos) - System.nanoTime();
+                if (wait > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                break;
+            }
+            Timer t;
+            while ((t = pending.poll()) != null) {
+                add(t);
+            }
+            tick++;
+            int b = (int) (tick & (buckets.length - 1));
+            Timer due = null;
+            Timer kept = null;
+            for (t = buckets[b]; t != null;) {
+                Timer next = t.next;
+                if (t.rounds > 0) {
+                    t.rounds--;
+                    t.next = kept;
+                    kept = t;
+                } else {
+                    t.next = due;
+                    due = t;
+                }
+                t = next;
+            }
+            buckets[b] = kept;
+            for (t = due; t != null; t = t.next) {
+                t.task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package network;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import height.Height;
+import height.LeaderPair;
+import height.ReferenceLevel;
+
+/*
+ * Trace class. A trace written by TraceRecorder, loaded in memory to be played
+ * back. Every keyframeInterval views, the state of all nodes is kept as a
+ * keyframe. The state at any time is rebuilt from the last keyframe before it,
+ * found by binary search, and at most keyframeInterval views after it.
+ * Since views are immutable, keyframes share them and only cost one array each.
+ * The interval grows with the number of nodes, so the keyframes take about as
+ * much memory as the views themselves.
+ */
+public class Trace {
+
+    public static final int MIN_KEYFRAME_INTERVAL = 256; /* Fewest views between consecutive keyframes */
+
+    public final int nodes; /* Number of nodes in the recorded network */
+    public final int keyframeInterval; /* Views between consecutive keyframes, at least the number of nodes */
+    public final int maxHops; /* MAX_HOPS of the recorded network */
+    public final int levels; /* Number of levels of leaders of the recorded network */
+    private final double[] times; /* Simulated time of each view, in milliseconds. Non-decreasing */
+    private final NodeView[] views; /* Recorded views, in order */
+    private final List<NodeView[]> keyframes = new ArrayList<NodeView[]>(); /* State of all nodes at each keyframe */
+    private final List<Integer> keyframeViews = new ArrayList<Integer>(); /* Number of views applied in each keyframe */
+
+    /*
+     * Constructor. Reads the trace file and builds the keyframes.
+     *
+     * @param path Path of the trace file
+     */
+    public Trace(String path) throws IOException {
+        List<Double> t = new ArrayList<Double>();
+        List<NodeView> v = new ArrayList<NodeView>();
+        int n = 0;
+        int hops = 0;
+        int k = 0;
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(path))) {
+            String[] header = in.readLine().split(" ");
+            if (header.length < 5 || !header[1].equals("nodes"))
+                throw new IOException("Not a trace file: " + path);
+            if (header.length < 9 || !header[7].equals("hopBounds"))
+                throw new IOException("Trace recorded without levels: " + path);
+            n = Integer.parseInt(header[2]);
+            hops = Integer.parseInt(header[4]);
+            k = ids(header[8]).length + 1;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+                String[] f = line.split(" ");
+                t.add(Double.parseDouble(f[0]));
+                v.add(parse(f, k));
+            }
+        }
+        nodes = n;
+        maxHops = hops;
+        levels = k;
+        keyframeInterval = Math.max(MIN_KEYFRAME_INTERVAL, nodes);
+        times = t.stream().mapToDouble(Double::doubleValue).toArray();
+        views = v.toArray(new NodeView[0]);
+        if (views.length < nodes)
+            throw new IOException("Trace without the initial views: " + path);
+
+        NodeView[] state = new NodeView[nodes];
+        for (int i = 0; i < views.length; i++) {
+            state[views[i].nodeId] = views[i];
+            if (i + 1 == nodes || (i + 1 > nodes && (i + 1 - nodes) % keyframeInterval == 0)) {
+                keyframes.add(state.clone());
+                keyframeViews.add(i + 1);
+            }
+        }
+    }
+
+    /*
+     * Parses a line of the trace.
+     *
+     * @param f Fields of the line
+     *
+     * @param k Number of levels
+     */
+    private static NodeView parse(String[] f, int k) {
+        int id = Integer.parseInt(f[1]);
+        int[] deltas = new int[k];
+        int[] leaderIds = new int[k];
+        LeaderPair[] pairs = new LeaderPair[k];
+        for (int l = 0; l < k; l++) {
+            deltas[l] = Integer.parseInt(f[9 + 3 * l]);
+            leaderIds[l] = Integer.parseInt(f[11 + 3 * l]);
+            pairs[l] = new LeaderPair(Integer.parseInt(f[10 + 3 * l]), leaderIds[l]);
+        }
+        Height h = new Height(deltas, pairs, id);
+        h.rl = new ReferenceLevel(Integer.parseInt(f[4]), Integer.parseInt(f[5]), Integer.parseInt(f[6]),
+                Integer.parseInt(f[7]), Integer.parseInt(f[8]));
+        return new NodeView(Long.parseLong(f[2]), id, h, leaderIds, Integer.parseInt(f[3]), ids(f[9 + 3 * k]),
+                ids(f[10 + 3 * k]));
+    }
+
+    private static int[] ids(String s) {
+        if (s.equals("-"))
+            return new int[0];
+        return Arrays.stream(s.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    /*
+     * Gets the simulated time of the last view.
+     *
+     * @return The time in milliseconds
+     */
+    public double duration() {
+        return times[times.length - 1];
+    }
+
+    public int size() {
+        return views.length;
+    }
+
+    public double time(int i) {
+        return times[i];
+    }
+
+    public NodeView view(int i) {
+        return views[i];
+    }
+
+    /*
+     * Rebuilds the state of every node at a given time.
+     *
+     * @param time Simulated time in milliseconds
+     *
+     * @param state Filled with the view of each node
+     *
+     * @return The number of views applied, to continue with advance()
+     */
+    public int seek(double time, NodeView[] state) {
+        int lo = 0, hi = keyframes.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) / 2;
+            if (times[keyframeViews.get(mid) - 1] <= time) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        System.arraycopy(keyframes.get(lo), 0, state, 0, nodes);
+        return advance(keyframeViews.get(lo), time, state);
+    }
+
+    /*
+     * Checks whether a keyframe lies between a position and a time, in which
+     * case seek() reaches the time with fewer views than advance().
+     *
+     * @param next Number of views already applied to the state
+     *
+     * @param time Simulated time in milliseconds
+     *
+     * @return True if a keyframe after the position is at or before the time
+     */
+    public boolean keyframeBefore(int next, double time) {
+        int k = next < nodes ? 0 : (next - nodes) / keyframeInterval + 1;
+        return k < keyframes.size() && times[keyframeViews.get(k) - 1] <= time;
+    }
+
+    /*
+     * Applies the views recorded up to a given time, starting from a position.
+     *
+     * @param next Number of views already applied to the state
+     *
+     * @param time Simulated time in milliseconds
+     *
+     * @param state The view of each node, updated in place
+     *
+     * @return The number of views applied
+     */
+    public int advance(int next, double time, NodeView[] state) {
+        while (next < views.length && times[next] <= time) {
+            state[views[next].nodeId] = views[next];
+            next++;
+        }
+        return next;
+    }
+}
@@ -0,0 +1,128 @@
+package network;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+
+import height.Height;
+
+/*
+ * TraceRecorder class. Writes every view published by the nodes of a network
+ * to a text file, with the simulated time at which it was published. The file
+ * starts with the views of every node at time 0, so it holds the full history
+ * of the run from the moment recording started. Read back with Trace.
+ *
+ * Format: a header line "# nodes N maxHops H timeScale S hopBounds B", where B
+ * are the bounds of the levels below the global one separated by commas, then
+ * one line per view: time, node id, version, clock, the reference level, the
+ * delta and leader pair of each level from the global one, and the neighbor
+ * and lower neighbor ids separated by commas, or - if none.
+ */
+public class TraceRecorder {
+
+    private final BufferedWriter out; /* Trace file */
+    private final int nodes; /* Number of nodes in the header. Views of nodes that joined past it are skipped */
+    private final long start; /* System.nanoTime() when recording started */
+    private boolean closed; /* No views are written once closed */
+    private IOException error; /* First error writing the file. Recording stops after it */
+
+    /*
+     * Constructor. Creates the file and writes the current view of every node.
+     *
+     * @param path Path of the trace file. Missing directories are created
+     *
+     * @param net The network to record. Every id up to the last one must hold a
+     * node
+     */
+    public TraceRecorder(String path, Network net) throws IOException {
+        Node[] ns = net.nodes;
+        int n = ns.length;
+        while (n > 0 && ns[n - 1] == null) {
+            n--;
+        }
+        for (int i = 0; i < n; i++) {
+            if (ns[i] == null)
+                throw new IllegalStateException("Cannot record a network without node " + i);
+        }
+        nodes = n;
+        Path file = Paths.get(path).toAbsolutePath();
+        Files.createDirectories(file.getParent());
+        out = Files.newBufferedWriter(file);
+        out.write("# nodes " + nodes + " maxHops " + Network.MAX_HOPS + " timeScale " + Network.TIME_SCALE
+                + " hopBounds " + ids(Arrays.copyOfRange(Network.HOP_BOUNDS, 1, Network.HOP_BOUNDS.length)));
+        out.newLine();
+        start = System.nanoTime();
+        synchronized (this) {
+            for (int i = 0; i < nodes; i++) {
+                write(0, ns[i].getView());
+            }
+        }
+    }
+
+    /*
+     * Records a view. Called by the node actors, after each event.
+     *
+     * @param v The published view
+     */
+    public synchronized void record(NodeView v) {
+        if (closed || v.nodeId >= nodes)
+            return;
+        write((System.nanoTime() - start) / 1e6 * Network.TIME_SCALE, v);
+    }
+
+    /*
+     * Writes a line for the view.
+     *
+     * @param time Simulated time in milliseconds
+     */
+    private void write(double time, NodeView v) {
+        Height h = v.height;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%.3f", time)).append(' ').append(v.nodeId).append(' ').append(v.version)
+                .append(' ').append(v.causalClock).append(' ').append(h.rl.timestamp).append(' ')
+                .append(h.rl.originId).append(' ').append(h.rl.reflected).append(' ').append(h.rl.localHops)
+                .append(' ').append(h.rl.level);
+        for (int l = 0; l < h.levels(); l++) {
+            sb.append(' ').append(h.deltas[l]).append(' ').append(h.leaderPairs[l].negativeTimestamp).append(' ')
+                    .append(h.leaderPairs[l].leaderId);
+        }
+        sb.append(' ').append(ids(v.neighborIds)).append(' ').append(ids(v.lowerNeighbors));
+        try {
+            out.write(sb.toString());
+            out.newLine();
+        } catch (IOException e) {
+            error = e;
+            closed = true;
+        }
+    }
+
+    private static String ids(int[] ids) {
+        if (ids.length == 0)
+            return "-";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(ids[i]);
+        }
+        return sb.toString();
+    }
+
+    /*
+     * Stops recording and closes the file.
+     *
+     * @throws IOException If writing the trace failed at any point
+     */
+    public synchronized void close() throws IOException {
+        if (!closed || error != null) {
+            closed = true;
+            out.close();
+        }
+        if (error != null)
+            throw error;
+    }
+}
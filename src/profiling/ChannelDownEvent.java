@@ -0,0 +1,17 @@
+package profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * ChannelDownEvent class. ChannelDown handled by a node. Lasts as long as the handler.
+ */
+@Name("hle.ChannelDown")
+@Label("Handle Channel Down")
+@Description("ChannelDown handled by a node. Lasts as long as the handler")
+public class ChannelDownEvent extends HeightEvent {
+
+    @Label("Neighbor Id")
+    public int neighborId;
+}
@@ -0,0 +1,45 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingDefinition;
+import jdk.jfr.StackTrace;
+
+/*
+ * ChannelEnqueueEvent class. Update received by a channel that is up. Lasts
+ * as long as the addition, which never waits: under the block policy a full
+ * queue refuses the Update and the channel holds it back, or drops it once it
+ * holds as many as the queue, which the dropped count shows.
+ */
+@Name("hle.ChannelEnqueue")
+@Label("Channel Enqueue")
+@Description("Update added to the queue of a channel")
+@Category({ "Hierarchical Leader Election", "Channel" })
+@Enabled(false)
+@StackTrace(false)
+public class ChannelEnqueueEvent extends Event {
+
+    @Label("Channel")
+    public String channel;
+
+    @Label("Sender Id")
+    public int senderId;
+
+    @Label("Queue Depth")
+    @Description("Messages in the queue after the addition")
+    public int queueDepth;
+
+    @Label("Dropped")
+    @Description("Messages dropped or replaced by the queue so far")
+    public long dropped;
+
+    @Label("Sample")
+    @SettingDefinition
+    protected boolean sample(SampleRate rate) {
+        return rate.accept();
+    }
+}
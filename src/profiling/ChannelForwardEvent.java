@@ -0,0 +1,48 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingDefinition;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/*
+ * ChannelForwardEvent class. Update forwarded by a channel to its receiver.
+ * Lasts from the moment it left the queue, so it includes the delay.
+ */
+@Name("hle.ChannelForward")
+@Label("Channel Forward")
+@Description("Update forwarded by a channel, including its delay")
+@Category({ "Hierarchical Leader Election", "Channel" })
+@Enabled(false)
+@StackTrace(false)
+public class ChannelForwardEvent extends Event {
+
+    @Label("Channel")
+    public String channel;
+
+    @Label("Sender Id")
+    public int senderId;
+
+    @Label("Delay")
+    @Timespan(Timespan.NANOSECONDS)
+    public long delay;
+
+    @Label("Queue Depth")
+    @Description("Messages left in the queue")
+    public int queueDepth;
+
+    @Label("Stale")
+    @Description("The channel changed status during the delay, so the Update was not delivered")
+    public boolean stale;
+
+    @Label("Sample")
+    @SettingDefinition
+    protected boolean sample(SampleRate rate) {
+        return rate.accept();
+    }
+}
@@ -0,0 +1,17 @@
+package profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * ChannelUpEvent class. ChannelUp handled by a node. Lasts as long as the handler.
+ */
+@Name("hle.ChannelUp")
+@Label("Handle Channel Up")
+@Description("ChannelUp handled by a node. Lasts as long as the handler")
+public class ChannelUpEvent extends HeightEvent {
+
+    @Label("Neighbor Id")
+    public int neighborId;
+}
@@ -0,0 +1,84 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.SettingDefinition;
+import jdk.jfr.StackTrace;
+
+import height.Height;
+
+/*
+ * HeightEvent class. Base of the events of a node, with the height of the node
+ * after the event. Disabled by default: enable them with profiling/hle.jfc.
+ */
+@Category({ "Hierarchical Leader Election", "Node" })
+@Enabled(false)
+@StackTrace(false)
+public abstract class HeightEvent extends Event {
+
+    @Label("Node Id")
+    public int nodeId;
+
+    @Label("Group")
+    public int group;
+
+    @Label("Causal Clock")
+    public int causalClock;
+
+    @Label("Reference Level Timestamp")
+    public int rlTimestamp;
+
+    @Label("Reference Level Origin")
+    public int rlOriginId;
+
+    @Label("Reflected")
+    public boolean rlReflected;
+
+    @Label("Local Hops")
+    public int rlLocalHops;
+
+    @Label("Search Level")
+    public int rlLevel;
+
+    @Label("Global Delta")
+    public int globalDelta;
+
+    @Label("Global Leader")
+    public int globalLeaderId;
+
+    @Label("Local Delta")
+    public int localDelta;
+
+    @Label("Local Leader")
+    public int localLeaderId;
+
+    /*
+     * Copies the components of a height. Only the global and local levels are
+     * recorded.
+     *
+     * @param h The height of the node
+     *
+     * @param clock The causal clock of the node
+     */
+    public void height(Height h, int clock) {
+        nodeId = h.nodeId;
+        causalClock = clock;
+        rlTimestamp = h.rl.timestamp;
+        rlOriginId = h.rl.originId;
+        rlReflected = h.rl.reflected == 1;
+        rlLocalHops = h.rl.localHops;
+        rlLevel = h.rl.level;
+        globalDelta = h.globalDelta();
+        globalLeaderId = h.globalLeaderPair().leaderId;
+        localDelta = h.localDelta();
+        localLeaderId = h.localLeaderPair().leaderId;
+    }
+
+    @Label("Sample")
+    @SettingDefinition
+    protected boolean sample(SampleRate rate) {
+        return rate.accept();
+    }
+}
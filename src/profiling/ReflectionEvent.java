@@ -0,0 +1,14 @@
+package profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * ReflectionEvent class. A node reflected a search back to its origin.
+ */
+@Name("hle.Reflection")
+@Label("Reflection")
+@Description("A node reflected a search back to its origin")
+public class ReflectionEvent extends HeightEvent {
+}
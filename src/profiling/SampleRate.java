@@ -0,0 +1,67 @@
+package profiling;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import jdk.jfr.SettingControl;
+
+/*
+ * SampleRate class. Setting of the hot path events that keeps one event in N,
+ * chosen at random, so a recording of a busy network stays small. Set with
+ * <setting name="sample">N</setting> in a .jfc file. When several recordings
+ * ask for different rates, the most frequent one is used.
+ *
+ * JFR checks the setting both in shouldCommit() and in commit(). Events must
+ * call both, in this order, on the same thread: the decision made by the first
+ * check is kept for the second.
+ */
+public class SampleRate extends SettingControl {
+
+    private volatile int n = 1; /* One event in n is kept */
+    private final ThreadLocal<boolean[]> accepted = ThreadLocal.withInitial(() -> new boolean[1]); /* Kept by shouldCommit(), waiting for commit() */
+
+    /*
+     * Keeps the event with probability 1/n.
+     *
+     * @return true if the event is committed
+     */
+    public boolean accept() {
+        int rate = n;
+        if (rate <= 1)
+            return true;
+        boolean[] pending = accepted.get();
+        if (pending[0]) {
+            pending[0] = false;
+            return true;
+        }
+        pending[0] = ThreadLocalRandom.current().nextInt(rate) == 0;
+        return pending[0];
+    }
+
+    @Override
+    public String combine(Set<String> values) {
+        int min = Integer.MAX_VALUE;
+        for (String v : values) {
+            min = Math.min(min, parse(v));
+        }
+        return values.isEmpty() ? "1" : Integer.toString(min);
+    }
+
+    @Override
+    public void setValue(String value) {
+        n = parse(value);
+    }
+
+    @Override
+    public String getValue() {
+        return Integer.toString(n);
+    }
+
+    private static int parse(String value) {
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+}
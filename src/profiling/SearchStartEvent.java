@@ -0,0 +1,20 @@
+package profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * SearchStartEvent class. A node started a search for the leader of a level.
+ */
+@Name("hle.SearchStart")
+@Label("Search Start")
+@Description("A node started a search for the leader of a level")
+public class SearchStartEvent extends HeightEvent {
+
+    @Label("Level")
+    public int level;
+
+    @Label("Global")
+    public boolean global;
+}
@@ -0,0 +1,20 @@
+package profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * SelfElectionEvent class. A node elected itself as leader of a level.
+ */
+@Name("hle.SelfElection")
+@Label("Self Election")
+@Description("A node elected itself as leader of a level")
+public class SelfElectionEvent extends HeightEvent {
+
+    @Label("Level")
+    public int level;
+
+    @Label("Global")
+    public boolean global;
+}
@@ -0,0 +1,24 @@
+package profiling;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * UpdateEvent class. Update handled by a node. Lasts as long as the handler.
+ */
+@Name("hle.Update")
+@Label("Handle Update")
+@Description("Update handled by a node. Lasts as long as the handler")
+public class UpdateEvent extends HeightEvent {
+
+    @Label("Sender Id")
+    public int senderId;
+
+    @Label("Discarded")
+    public boolean discarded;
+
+    @Label("Updates")
+    @Description("Heights carried by the message, one per election group it updates")
+    public int updates;
+}
@@ -0,0 +1,241 @@
+package visualization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import network.NodeView;
+
+/*
+ * ClusterView class. Aggregates the nodes of the network by local leader, to
+ * draw each local cluster as a single glyph. The aggregates are kept
+ * incrementally: on every update only the nodes whose view changed since the
+ * last one are moved between clusters, so drawing costs O(clusters) and not
+ * O(nodes).
+ */
+public class ClusterView {
+
+    /*
+     * Cluster class. Nodes sharing a local leader.
+     */
+    public static class Cluster {
+        public final int leaderId; /* Id of the local leader */
+        public int size; /* Number of nodes in the cluster */
+        public final TreeMap<Integer, Integer> deltas = new TreeMap<Integer, Integer>(); /* Number of members with each local delta */
+
+        Cluster(int leaderId) {
+            this.leaderId = leaderId;
+        }
+
+        /*
+         * Gets the largest local delta among the members.
+         *
+         * @return The delta, or -1 if the cluster is empty
+         */
+        public int maxDelta() {
+            return deltas.isEmpty() ? -1 : deltas.lastKey();
+        }
+    }
+
+    private int n; /* Number of node ids, grown as nodes join */
+    private NodeView[] applied; /* View of each node as last aggregated, null for removed nodes */
+    private long[][] contributions; /* Cluster pairs each node counted an edge for */
+    private int[][] incoming; /* Nodes that had each node as neighbor, as last aggregated */
+    private int[] incomingCounts; /* Number of ids stored in each row of incoming */
+    private final Map<Integer, Cluster> clusters = new HashMap<Integer, Cluster>(); /* Clusters by leader id */
+    private final Map<Long, Integer> edges = new HashMap<Long, Integer>(); /* Directed links between clusters by pair */
+
+    /*
+     * Constructor. Starts with no node aggregated.
+     *
+     * @param n Number of node ids known so far
+     */
+    public ClusterView(int n) {
+        this.n = n;
+        applied = new NodeView[n];
+        contributions = new long[n][];
+        incoming = new int[n][];
+        incomingCounts = new int[n];
+    }
+
+    /*
+     * Aggregates the nodes whose view changed. A node that moves to another
+     * cluster also changes the cluster pair of the links pointing at it, so the
+     * links of those neighbors are counted again, and so does a node that left
+     * the network.
+     *
+     * @param views Latest view of every node, null for the removed ones. Ids past
+     * the ones known so far are nodes that joined
+     */
+    public void update(NodeView[] views) {
+        if (views.length > n) {
+            grow(views.length);
+        }
+        List<Integer> dirty = new ArrayList<Integer>();
+        for (int i = 0; i < views.length; i++) {
+            NodeView old = applied[i];
+            NodeView v = views[i];
+            if (v == old)
+                continue;
+            if (old != null) {
+                leave(old);
+            }
+            if (v != null) {
+                join(v);
+            }
+            applied[i] = v;
+            dirty.add(i);
+            if (old != null && (v == null || old.localLeaderId != v.localLeaderId)) {
+                for (int k = 0; k < incomingCounts[i]; k++) {
+                    dirty.add(incoming[i][k]);
+                }
+            }
+        }
+        for (int i : dirty) {
+            recount(i);
+        }
+    }
+
+    /*
+     * Makes room for the nodes that joined.
+     *
+     * @param size The new number of node ids
+     */
+    private void grow(int size) {
+        applied = Arrays.copyOf(applied, size);
+        contributions = Arrays.copyOf(contributions, size);
+        incoming = Arrays.copyOf(incoming, size);
+        incomingCounts = Arrays.copyOf(incomingCounts, size);
+        n = size;
+    }
+
+    /*
+     * Removes a node from the cluster of the given view.
+     */
+    private void leave(NodeView v) {
+        Cluster c = clusters.get(v.localLeaderId);
+        c.size--;
+        int count = c.deltas.get(v.height.localDelta()) - 1;
+        if (count == 0) {
+            c.deltas.remove(v.height.localDelta());
+        } else {
+            c.deltas.put(v.height.localDelta(), count);
+        }
+        if (c.size == 0) {
+            clusters.remove(v.localLeaderId);
+        }
+    }
+
+    /*
+     * Adds a node to the cluster of the given view.
+     */
+    private void join(NodeView v) {
+        Cluster c = clusters.get(v.localLeaderId);
+        if (c == null) {
+            c = new Cluster(v.localLeaderId);
+            clusters.put(v.localLeaderId, c);
+        }
+        c.size++;
+        c.deltas.merge(v.height.localDelta(), 1, Integer::sum);
+    }
+
+    /*
+     * Replaces the links counted for a node with the ones of its current view.
+     * Links inside a cluster are not counted, nor the links of a removed node.
+     *
+     * @param i Id of the node
+     */
+    private void recount(int i) {
+        if (contributions[i] != null) {
+            for (long key : contributions[i]) {
+                int count = edges.get(key) - 1;
+                if (count == 0) {
+                    edges.remove(key);
+                } else {
+                    edges.put(key, count);
+                }
+            }
+        }
+        NodeView v = applied[i];
+        if (v == null) {
+            contributions[i] = null;
+            return;
+        }
+        long[] keys = new long[v.neighborIds.length];
+        int count = 0;
+        for (int j : v.neighborIds) {
+            if (j >= n)
+                continue; // joined after the views were read
+            addIncoming(j, i);
+            if (applied[j] == null || applied[j].localLeaderId == v.localLeaderId)
+                continue;
+            long key = pair(v.localLeaderId, applied[j].localLeaderId);
+            edges.merge(key, 1, Integer::sum);
+            keys[count++] = key;
+        }
+        contributions[i] = Arrays.copyOf(keys, count);
+    }
+
+    /*
+     * Records that node i has node j as neighbor. Entries are never removed,
+     * which only causes some extra recounting.
+     */
+    private void addIncoming(int j, int i) {
+        for (int k = 0; k < incomingCounts[j]; k++) {
+            if (incoming[j][k] == i)
+                return;
+        }
+        if (incoming[j] == null) {
+            incoming[j] = new int[4];
+        } else if (incomingCounts[j] == incoming[j].length) {
+            incoming[j] = Arrays.copyOf(incoming[j], 2 * incomingCounts[j]);
+        }
+        incoming[j][incomingCounts[j]++] = i;
+    }
+
+    /*
+     * Encodes an unordered pair of cluster leaders, independently of the number
+     * of nodes so the keys stay valid as nodes join.
+     */
+    private long pair(int a, int b) {
+        return (long) Math.min(a, b) << 32 | Math.max(a, b);
+    }
+
+    /*
+     * Gets the current clusters.
+     *
+     * @return The clusters. Must not be modified
+     */
+    public Collection<Cluster> clusters() {
+        return clusters.values();
+    }
+
+    /*
+     * Gets the cluster of a node.
+     *
+     * @param i Id of the node
+     *
+     * @return The cluster, or null if the node was not aggregated yet or was
+     * removed
+     */
+    public Cluster clusterOf(int i) {
+        return i >= n || applied[i] == null ? null : clusters.get(applied[i].localLeaderId);
+    }
+
+    /*
+     * Gets the links between clusters, counted once from each end.
+     *
+     * @return Triples {leaderA, leaderB, links}
+     */
+    public List<int[]> edges() {
+        List<int[]> list = new ArrayList<int[]>(edges.size());
+        for (Map.Entry<Long, Integer> e : edges.entrySet()) {
+            list.add(new int[] { (int) (e.getKey() >>> 32), (int) (long) e.getKey(), e.getValue() });
+        }
+        return list;
+    }
+}
@@ -0,0 +1,407 @@
+package visualization;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+import processing.core.PVector;
+
+/*
+ * ForceLayout class. Force-directed placement of the nodes, run on its own
+ * thread. Nodes repel each other and the channels of the topology pull their
+ * ends together. Repulsion is approximated with a Barnes-Hut quadtree, so a
+ * step costs O(N log N), and the forces on the nodes are computed in parallel.
+ * After each step a new array of positions is published; the arrays already
+ * handed out are never modified. The layout cools down until it stops, and is
+ * heated again when the topology changes.
+ */
+public class ForceLayout implements Runnable {
+
+    public static final float THETA = 0.8f; /* Opening angle of the Barnes-Hut approximation */
+    public static final float GRAVITY = 0.02f; /* Pull towards the center, keeps disconnected parts close */
+    public static final float COOLING = 0.96f; /* Factor applied to the temperature after each step */
+    public static final float MIN_TEMPERATURE = 0.2f; /* The layout stops below this maximum displacement */
+    public static final int MARGIN = 20; /* Distance kept from the borders of the area */
+    public static final int STEP_INTERVAL_MS = 15; /* Minimum time between steps, about one per frame */
+
+    private final int n; /* Number of nodes */
+    private final float width, height; /* Area where the nodes are placed */
+    private final float k; /* Ideal length of a channel */
+    private float[] x, y; /* Current positions. Only used by the layout thread */
+    private float[] nextX, nextY; /* Positions being computed by the current step */
+    private volatile int[][] adjacency; /* Neighbors of each node. Rows are replaced, never modified */
+    private volatile PVector[] positions; /* Last published positions */
+    private final QuadTree tree;
+
+    private float temperature; /* Maximum displacement of a node in the next step */
+    private volatile boolean running;
+    private Thread thread;
+    private final ReentrantLock lock = new ReentrantLock(); /* Guards the temperature */
+    private final Condition heated = lock.newCondition(); /* Signaled when the layout is heated */
+
+    /*
+     * Constructor. Starts from the given positions.
+     *
+     * @param start Initial positions of the nodes
+     *
+     * @param topology Adjacency matrix. topology[i][j] is 1 if the channel between
+     * nodes i and j is up
+     *
+     * @param width Width of the area
+     *
+     * @param height Height of the area
+     */
+    public ForceLayout(PVector[] start, int[][] topology, float width, float height) {
+        n = start.length;
+        this.width = width;
+        this.height = height;
+        k = (float) Math.sqrt((width - 2 * MARGIN) * (height - 2 * MARGIN) / Math.max(n, 1));
+        x = new float[n];
+        y = new float[n];
+        nextX = new float[n];
+        nextY = new float[n];
+        for (int i = 0; i < n; i++) {
+            // Small jitter, so no two nodes start at the same position
+            x[i] = start[i].x + (float) (Math.random() - 0.5);
+            y[i] = start[i].y + (float) (Math.random() - 0.5);
+        }
+        int[][] adj = new int[n][];
+        for (int i = 0; i < n; i++) {
+            int count = 0;
+            int[] row = new int[n];
+            for (int j = 0; j < n; j++) {
+                if (j != i && topology[i][j] == 1)
+                    row[count++] = j;
+            }
+            adj[i] = Arrays.copyOf(row, count);
+        }
+        adjacency = adj;
+        positions = start;
+        tree = new QuadTree(n);
+        temperature = Math.min(width, height) / 10;
+    }
+
+    /*
+     * Starts the layout thread.
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this, "force-layout");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /*
+     * Stops the layout thread. The last published positions remain valid.
+     */
+    public void stop() {
+        running = false;
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /*
+     * Checks if the layout cooled down, so the positions stay put until it is
+     * heated again.
+     *
+     * @return true if the layout thread is waiting for heat
+     */
+    public boolean settled() {
+        lock.lock();
+        try {
+            return temperature < MIN_TEMPERATURE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Gets the latest positions of the nodes. The array must not be modified.
+     *
+     * @return The positions, indexed by node id
+     */
+    public PVector[] positions() {
+        return positions;
+    }
+
+    /*
+     * Updates the layout after a channel is dropped or remade. The positions
+     * are kept, and the layout is heated just enough for the neighborhood of
+     * the channel to settle again.
+     *
+     * @param i Id of one end of the channel
+     *
+     * @param j Id of the other end
+     *
+     * @param up true if the channel was remade, false if it was dropped
+     */
+    public void setChannel(int i, int j, boolean up) {
+        int[][] adj = adjacency.clone();
+        adj[i] = update(adj[i], j, up);
+        adj[j] = update(adj[j], i, up);
+        adjacency = adj;
+        heat(Math.min(width, height) / 40);
+    }
+
+    /*
+     * Copies a row of the adjacency with a neighbor added or removed.
+     */
+    private static int[] update(int[] row, int neighbor, boolean add) {
+        int[] copy = new int[row.length + (add ? 1 : 0)];
+        int count = 0;
+        for (int j : row) {
+            if (j != neighbor)
+                copy[count++] = j;
+        }
+        if (add)
+            copy[count++] = neighbor;
+        return Arrays.copyOf(copy, count);
+    }
+
+    /*
+     * Raises the temperature to at least t and wakes up the layout thread.
+     *
+     * @param t The new minimum temperature
+     */
+    public void heat(float t) {
+        lock.lock();
+        try {
+            temperature = Math.max(temperature, t);
+            heated.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Layout loop. Waits while the layout is cold, otherwise computes a step and
+     * publishes the new positions.
+     */
+    public void run() {
+        try {
+            while (running) {
+                float t;
+                lock.lock();
+                try {
+                    while (temperature < MIN_TEMPERATURE) {
+                        heated.await();
+                    }
+                    t = temperature;
+                    temperature *= COOLING;
+                } finally {
+                    lock.unlock();
+                }
+                long start = System.currentTimeMillis();
+                step(t);
+                publish();
+                long elapsed = System.currentTimeMillis() - start;
+                if (elapsed < STEP_INTERVAL_MS)
+                    Thread.sleep(STEP_INTERVAL_MS - elapsed);
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+    }
+
+    /*
+     * Moves every node along the resultant of the forces on it, by at most the
+     * temperature.
+     *
+     * @param t The temperature
+     */
+    public void step(float t) {
+        tree.build(x, y);
+        int[][] adj = adjacency;
+        float cx = width / 2, cy = height / 2;
+        float k2 = k * k;
+        IntStream.range(0, n).parallel().forEach(i -> {
+            float[] f = tree.repulsion(i, x[i], y[i], k2);
+            float fx = f[0], fy = f[1];
+            for (int j : adj[i]) {
+                float dx = x[i] - x[j];
+                float dy = y[i] - y[j];
+                float d = (float) Math.sqrt(dx * dx + dy * dy);
+                fx -= dx * d / k;
+                fy -= dy * d / k;
+            }
+            fx -= GRAVITY * (x[i] - cx);
+            fy -= GRAVITY * (y[i] - cy);
+            float f2 = (float) Math.sqrt(fx * fx + fy * fy);
+            float move = Math.min(f2, t);
+            float nx = x[i], ny = y[i];
+            if (f2 > 0) {
+                nx += fx / f2 * move;
+                ny += fy / f2 * move;
+            }
+            nextX[i] = Math.max(MARGIN, Math.min(width - MARGIN, nx));
+            nextY[i] = Math.max(MARGIN, Math.min(height - MARGIN, ny));
+        });
+        float[] swap = x;
+        x = nextX;
+        nextX = swap;
+        swap = y;
+        y = nextY;
+        nextY = swap;
+    }
+
+    /*
+     * Publishes a copy of the current positions.
+     */
+    private void publish() {
+        PVector[] p = new PVector[n];
+        for (int i = 0; i < n; i++) {
+            p[i] = new PVector(x[i], y[i]);
+        }
+        positions = p;
+    }
+
+    /*
+     * QuadTree class. Barnes-Hut tree over the positions of the nodes, stored in
+     * flat arrays that are reused between steps. Each cell keeps the number of
+     * nodes inside it and their center of mass.
+     */
+    private static final class QuadTree {
+        private static final float MIN_HALF = 1e-3f; /* Cells smaller than this are not split */
+        private static final int MAX_DEPTH = 64; /* Bounds the depth of the tree, and the search stack */
+
+        private float[] cellX, cellY, half; /* Center and half side of each cell */
+        private float[] mass, massX, massY; /* Number of nodes in each cell and their center of mass */
+        private int[] children; /* First of the four children of each cell, or -1 for leaves */
+        private int[] body; /* Node stored in each leaf, or -1 */
+        private int cells; /* Number of cells in use */
+        private final ThreadLocal<int[]> stacks = ThreadLocal.withInitial(() -> new int[4 * MAX_DEPTH]);
+
+        QuadTree(int n) {
+            allocate(Math.max(16, 4 * n));
+        }
+
+        private void allocate(int capacity) {
+            int old = cellX == null ? 0 : cellX.length;
+            cellX = cellX == null ? new float[capacity] : Arrays.copyOf(cellX, capacity);
+            cellY = cellY == null ? new float[capacity] : Arrays.copyOf(cellY, capacity);
+            half = half == null ? new float[capacity] : Arrays.copyOf(half, capacity);
+            mass = mass == null ? new float[capacity] : Arrays.copyOf(mass, capacity);
+            massX = massX == null ? new float[capacity] : Arrays.copyOf(massX, capacity);
+            massY = massY == null ? new float[capacity] : Arrays.copyOf(massY, capacity);
+            children = children == null ? new int[capacity] : Arrays.copyOf(children, capacity);
+            body = body == null ? new int[capacity] : Arrays.copyOf(body, capacity);
+        }
+
+        /*
+         * Creates an empty leaf.
+         *
+         * @return The index of the cell
+         */
+        private int cell(float cx, float cy, float h) {
+            if (cells == cellX.length)
+                allocate(2 * cells);
+            cellX[cells] = cx;
+            cellY[cells] = cy;
+            half[cells] = h;
+            mass[cells] = 0;
+            massX[cells] = 0;
+            massY[cells] = 0;
+            children[cells] = -1;
+            body[cells] = -1;
+            return cells++;
+        }
+
+        /*
+         * Rebuilds the tree for the given positions.
+         */
+        void build(float[] x, float[] y) {
+            float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+            for (int i = 0; i < x.length; i++) {
+                x0 = Math.min(x0, x[i]);
+                y0 = Math.min(y0, y[i]);
+                x1 = Math.max(x1, x[i]);
+                y1 = Math.max(y1, y[i]);
+            }
+            cells = 0;
+            float h = Math.max(x1 - x0, y1 - y0) / 2 + 1;
+            cell((x0 + x1) / 2, (y0 + y1) / 2, h);
+            for (int i = 0; i < x.length; i++) {
+                insert(i, x[i], y[i]);
+            }
+        }
+
+        private int quadrant(int c, float x, float y) {
+            return (x >= cellX[c] ? 1 : 0) + (y >= cellY[c] ? 2 : 0);
+        }
+
+        private void addMass(int c, float x, float y) {
+            massX[c] = (massX[c] * mass[c] + x) / (mass[c] + 1);
+            massY[c] = (massY[c] * mass[c] + y) / (mass[c] + 1);
+            mass[c]++;
+        }
+
+        private void insert(int b, float x, float y) {
+            int c = 0;
+            int depth = 0;
+            while (true) {
+                if (children[c] < 0) {
+                    if (mass[c] == 0) {
+                        body[c] = b;
+                        addMass(c, x, y);
+                        return;
+                    }
+                    if (half[c] < MIN_HALF || depth == MAX_DEPTH - 1) {
+                        // Nodes at the same position share the leaf
+                        addMass(c, x, y);
+                        return;
+                    }
+                    float h = half[c] / 2;
+                    int first = cell(cellX[c] - h, cellY[c] - h, h);
+                    cell(cellX[c] + h, cellY[c] - h, h);
+                    cell(cellX[c] - h, cellY[c] + h, h);
+                    cell(cellX[c] + h, cellY[c] + h, h);
+                    children[c] = first;
+                    int moved = first + quadrant(c, massX[c], massY[c]);
+                    body[moved] = body[c];
+                    mass[moved] = mass[c];
+                    massX[moved] = massX[c];
+                    massY[moved] = massY[c];
+                    body[c] = -1;
+                }
+                addMass(c, x, y);
+                c = children[c] + quadrant(c, x, y);
+                depth++;
+            }
+        }
+
+        /*
+         * Computes the repulsion on a node. Cells seen under an angle smaller than
+         * THETA act as a single mass at their center of mass.
+         *
+         * @param b Id of the node
+         *
+         * @param k2 Square of the ideal length of a channel
+         *
+         * @return The force {fx, fy}
+         */
+        float[] repulsion(int b, float x, float y, float k2) {
+            int[] stack = stacks.get();
+            int top = 0;
+            float fx = 0, fy = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                int c = stack[--top];
+                if (mass[c] == 0 || body[c] == b)
+                    continue;
+                float dx = x - massX[c];
+                float dy = y - massY[c];
+                float d2 = Math.max(dx * dx + dy * dy, 0.01f);
+                if (children[c] < 0 || 4 * half[c] * half[c] < THETA * THETA * d2) {
+                    fx += dx * k2 * mass[c] / d2;
+                    fy += dy * k2 * mass[c] / d2;
+                } else {
+                    for (int q = 0; q < 4; q++) {
+                        stack[top++] = children[c] + q;
+                    }
+                }
+            }
+            return new float[] { fx, fy };
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package visualization;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PImage;
+
+/*
+ * FrameCapture class. Saves frames of the sketch without blocking the
+ * animation thread. The pixels of the frame are copied on the animation
+ * thread, and the encoding and writing of the image is done by a small pool of
+ * workers. The queue of the pool is bounded, so a slow disk can not exhaust
+ * the memory: when it is full the frame is dropped and counted.
+ */
+public class FrameCapture {
+
+    public static final int QUEUE_CAPACITY = 8; /* Frames waiting to be written, at most */
+
+    private final ThreadPoolExecutor workers; /* Encode and write the frames */
+    private final AtomicLong saved = new AtomicLong(); /* Number of frames written */
+    private final AtomicLong dropped = new AtomicLong(); /* Number of frames dropped because the queue was full */
+
+    /*
+     * Constructor. Creates the workers, one for every two processors.
+     */
+    public FrameCapture() {
+        int n = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        workers = new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), r -> {
+                    Thread t = new Thread(r, "frame-capture");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /*
+     * Copies the current frame of the sketch and queues it to be written. Must
+     * be called from the animation thread, at the end of draw().
+     *
+     * @param app The sketch
+     *
+     * @param path Path of the image, relative to the sketch. The extension
+     * chooses the format
+     *
+     * @return true if the frame was queued, false if it was dropped
+     */
+    public boolean capture(PApplet app, String path) {
+        app.loadPixels();
+        int w = app.pixelWidth;
+        int h = app.pixelHeight;
+        int[] pixels = app.pixels.clone();
+        String file = app.savePath(path);
+        try {
+            workers.execute(() -> {
+                PApplet.createPath(file);
+                PImage image = new PImage(w, h, PConstants.RGB);
+                image.pixels = pixels;
+                if (image.save(file)) {
+                    saved.incrementAndGet();
+                } else {
+                    dropped.incrementAndGet();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+            return false;
+        }
+    }
+
+    public long saved() {
+        return saved.get();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /*
+     * Waits for the queued frames to be written and stops the workers.
+     *
+     * @param timeoutMs Maximum time to wait
+     */
+    public void shutdown(long timeoutMs) {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
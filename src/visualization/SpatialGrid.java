@@ -0,0 +1,179 @@
+package visualization;
+
+import java.util.Arrays;
+
+import processing.core.PVector;
+
+/*
+ * SpatialGrid class. Uniform grid over the positions of the nodes and the
+ * segments of the edges, used to find what is under the mouse by looking only
+ * at the cell of the mouse. Built once per layout.
+ */
+public class SpatialGrid {
+
+    public final float cellSize; /* Side of a cell, in pixels */
+    private final float minX, minY; /* Corner of the area covered by the grid */
+    private final int columns, rows; /* Dimensions of the grid */
+    private final int[][] nodeCells; /* Ids of the nodes whose center is in each cell */
+    private final int[] nodeCounts; /* Number of ids stored in each node cell */
+    private final int[][] edgeCells; /* Edges crossing each cell, encoded as i * n + j */
+    private final int[] edgeCounts; /* Number of edges stored in each edge cell */
+    private final PVector[] points; /* Positions of the nodes */
+
+    /*
+     * Constructor. Indexes the nodes at the given positions and the given edges.
+     *
+     * @param points Positions of the nodes
+     *
+     * @param edges Edges to index, as pairs {i, j} with i < j
+     *
+     * @param cellSize Side of a cell, in pixels
+     */
+    public SpatialGrid(PVector[] points, int[][] edges, float cellSize) {
+        this.points = points;
+        this.cellSize = cellSize;
+        float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+        for (PVector p : points) {
+            x0 = Math.min(x0, p.x);
+            y0 = Math.min(y0, p.y);
+            x1 = Math.max(x1, p.x);
+            y1 = Math.max(y1, p.y);
+        }
+        if (points.length == 0) {
+            x0 = y0 = x1 = y1 = 0;
+        }
+        minX = x0 - cellSize;
+        minY = y0 - cellSize;
+        columns = (int) ((x1 - minX) / cellSize) + 2;
+        rows = (int) ((y1 - minY) / cellSize) + 2;
+        nodeCells = new int[columns * rows][];
+        nodeCounts = new int[columns * rows];
+        edgeCells = new int[columns * rows][];
+        edgeCounts = new int[columns * rows];
+
+        for (int i = 0; i < points.length; i++) {
+            add(nodeCells, nodeCounts, cell(points[i].x, points[i].y), i);
+        }
+        for (int[] e : edges) {
+            addSegment(e[0], e[1]);
+        }
+    }
+
+    /*
+     * Gets the cell containing a position.
+     *
+     * @return The index of the cell, or -1 if the position is outside the grid
+     */
+    private int cell(float x, float y) {
+        int c = (int) Math.floor((x - minX) / cellSize);
+        int r = (int) Math.floor((y - minY) / cellSize);
+        if (c < 0 || r < 0 || c >= columns || r >= rows)
+            return -1;
+        return r * columns + c;
+    }
+
+    /*
+     * Appends a value to a cell, growing its array when full.
+     */
+    private static void add(int[][] cells, int[] counts, int cell, int value) {
+        if (cell < 0)
+            return;
+        if (cells[cell] == null) {
+            cells[cell] = new int[4];
+        } else if (counts[cell] == cells[cell].length) {
+            cells[cell] = Arrays.copyOf(cells[cell], 2 * counts[cell]);
+        }
+        if (counts[cell] > 0 && cells[cell][counts[cell] - 1] == value)
+            return;
+        cells[cell][counts[cell]++] = value;
+    }
+
+    /*
+     * Adds the edge to every cell its segment crosses, walking along it in steps
+     * of half a cell. Cells only touched by a corner are covered by the query,
+     * which also looks at the neighboring cells.
+     */
+    private void addSegment(int i, int j) {
+        PVector p1 = points[i];
+        PVector p2 = points[j];
+        int steps = (int) Math.ceil(p1.dist(p2) / (cellSize / 2)) + 1;
+        int last = -1;
+        for (int s = 0; s <= steps; s++) {
+            float t = (float) s / steps;
+            int c = cell(p1.x + t * (p2.x - p1.x), p1.y + t * (p2.y - p1.y));
+            if (c != last) {
+                add(edgeCells, edgeCounts, c, i * points.length + j);
+                last = c;
+            }
+        }
+    }
+
+    /*
+     * Finds the node within the radius of a position.
+     *
+     * @param p The position
+     *
+     * @param radius Maximum distance to the center of the node. At most cellSize
+     *
+     * @return The smallest id among the nodes found, or -1 if there are none
+     */
+    public int nodeAt(PVector p, float radius) {
+        int found = -1;
+        int c = (int) Math.floor((p.x - minX) / cellSize);
+        int r = (int) Math.floor((p.y - minY) / cellSize);
+        for (int dr = -1; dr <= 1; dr++) {
+            for (int dc = -1; dc <= 1; dc++) {
+                if (c + dc < 0 || r + dr < 0 || c + dc >= columns || r + dr >= rows)
+                    continue;
+                int cell = (r + dr) * columns + c + dc;
+                for (int k = 0; k < nodeCounts[cell]; k++) {
+                    int i = nodeCells[cell][k];
+                    if (p.dist(points[i]) <= radius && (found < 0 || i < found))
+                        found = i;
+                }
+            }
+        }
+        return found;
+    }
+
+    /*
+     * Finds the edge whose segment passes under a position, as tested by the
+     * given predicate. The neighboring cells are also searched, since the test
+     * accepts positions a few pixels away from the segment.
+     *
+     * @param p The position
+     *
+     * @param test Decides if the position is on the segment between two points
+     *
+     * @return The pair {i, j} with the smallest i, then j, among the edges found,
+     * or null if there are none
+     */
+    public int[] edgeAt(PVector p, SegmentTest test) {
+        int found = -1;
+        int c = (int) Math.floor((p.x - minX) / cellSize);
+        int r = (int) Math.floor((p.y - minY) / cellSize);
+        for (int dr = -1; dr <= 1; dr++) {
+            for (int dc = -1; dc <= 1; dc++) {
+                if (c + dc < 0 || r + dr < 0 || c + dc >= columns || r + dr >= rows)
+                    continue;
+                int cell = (r + dr) * columns + c + dc;
+                for (int k = 0; k < edgeCounts[cell]; k++) {
+                    int e = edgeCells[cell][k];
+                    if ((found < 0 || e < found)
+                            && test.on(points[e / points.length], points[e % points.length], p))
+                        found = e;
+                }
+            }
+        }
+        if (found < 0)
+            return null;
+        return new int[] { found / points.length, found % points.length };
+    }
+
+    /*
+     * Test of a position against a segment.
+     */
+    public interface SegmentTest {
+        boolean on(PVector p1, PVector p2, PVector p);
+    }
+}
@@ -0,0 +1,92 @@
+package visualization;
+
+import network.NodeView;
+import network.Trace;
+
+/*
+ * TracePlayer class. Plays back a recorded trace. Keeps the view of every node
+ * at the current time, which advances with the real time multiplied by the
+ * speed. Jumping to another time goes through the keyframes of the trace.
+ * Used only by the animation thread.
+ */
+public class TracePlayer {
+
+    public static final double MIN_SPEED = 0.1; /* Slowest playback, relative to simulated time */
+    public static final double MAX_SPEED = 1000; /* Fastest playback, relative to simulated time */
+
+    public final Trace trace; /* The trace being played */
+    private final NodeView[] state; /* View of each node at the current time */
+    private int next; /* Number of views of the trace applied to the state */
+    private double time; /* Current simulated time, in milliseconds */
+    private double speed = 1; /* Simulated milliseconds played per real millisecond */
+    public boolean playing = true; /* Time advances while true */
+
+    /*
+     * Constructor. Starts at the beginning of the trace.
+     *
+     * @param trace The trace to play
+     */
+    public TracePlayer(Trace trace) {
+        this.trace = trace;
+        state = new NodeView[trace.nodes];
+        next = trace.seek(0, state);
+    }
+
+    /*
+     * Advances the current time, if playing. Stops at the end of the trace.
+     *
+     * @param realMs Real time since the last call, in milliseconds
+     */
+    public void advance(double realMs) {
+        if (!playing)
+            return;
+        time = Math.min(trace.duration(), time + realMs * speed);
+        next = trace.advance(next, time, state);
+        if (time >= trace.duration())
+            playing = false;
+    }
+
+    /*
+     * Jumps to a time. Moving forward before the next keyframe just applies the
+     * views in between, any other jump rebuilds the state from the keyframe
+     * before the time.
+     *
+     * @param t Simulated time in milliseconds
+     */
+    public void seek(double t) {
+        t = Math.max(0, Math.min(trace.duration(), t));
+        if (t >= time && !trace.keyframeBefore(next, t)) {
+            next = trace.advance(next, t, state);
+        } else {
+            next = trace.seek(t, state);
+        }
+        time = t;
+    }
+
+    public double time() {
+        return time;
+    }
+
+    public double speed() {
+        return speed;
+    }
+
+    /*
+     * Sets the playback speed, limited to [MIN_SPEED, MAX_SPEED].
+     *
+     * @param s Simulated milliseconds played per real millisecond
+     */
+    public void setSpeed(double s) {
+        speed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, s));
+    }
+
+    /*
+     * Gets the view of every node at the current time. The array is updated in
+     * place when the time changes.
+     *
+     * @return The views, indexed by node id
+     */
+    public NodeView[] views() {
+        return state;
+    }
+}
@@ -1,10 +1,19 @@
 package visualization;
 
 import akka.actor.ActorSystem;
-import height.Height;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import network.InitialState;
 import network.Network;
 import network.Node;
+import network.NodeView;
+import network.Trace;
 import processing.core.PApplet;
+import processing.core.PGraphics;
 import processing.core.PVector;
 
 /* 
@@ -32,6 +41,14 @@ public class Visualization extends PApplet {
     public boolean screenshooting = false;
     public int screenshotCounter = 0; /* Counts how many screenshots were taken */
     public int recordingCounter = 0; /* Counts how many recordings of the simulation were done */
+    public int recordedFrames = 0; /* Frames queued in the current recording. Numbers the files */
+    public final FrameCapture capture = new FrameCapture(); /* Writes screenshots and recordings off the animation thread */
+    public boolean tracing = false; /* Flag for recording a trace of the simulation in the directory ../traces */
+    public int traceCounter = 0; /* Counts how many traces were recorded */
+    public boolean tracingElections = false; /* Flag for tracing the elections, exported to ../traces when stopped */
+    public volatile TracePlayer player; /* Plays back a trace instead of showing the live network, or null */
+    public int lastFrameMillis; /* millis() at the previous frame, to advance the playback */
+    public final int TIMELINE_HEIGHT = 30; /* Height of the timeline shown during playback */
     
     public int menuState = SIZE; /* State of the menu */
     public int highlightedNode = 0; /* Node being edited at the moment in the menu */
@@ -45,6 +62,46 @@ public class Visualization extends PApplet {
     public int[] localDeltas; /* Array of initial distances to the local leaders of the network */
     public int[] localLeaders; /* Array of local leaders of the network */
     public int maxHops; /* Maximum number of hops between a node and its local leader */
+    public boolean automatic = false; /* Computes the local leaders and the deltas instead of asking for them. Set with A */
+
+    // Cached rendering of the network. The window is split in tiles, each redrawn only when a node or edge on it changes
+    public final int LABEL_WIDTH = 300; /* Width reserved for the label of a node */
+    public final int LAYER_HEIGHT = 40; /* Height reserved for a node and its label */
+    public final int TILE_SIZE = 128; /* Side of a tile, in pixels */
+    public boolean cachedRendering = true; /* Draws the network from the cached tiles. Toggled with C */
+    public PGraphics[] tiles; /* Off-screen layer of each tile, row by row */
+    public boolean[] dirtyTiles; /* Tiles to redraw in the next frame */
+    public PVector[] tilePoints; /* Positions the tiles were drawn for */
+    public NodeView[] drawnViews; /* View of each node when the tiles were last drawn, on screen or not */
+    public int[][] drawnEdges; /* Lower neighbors of each node when the tiles were last drawn */
+    public int[][] drawnLinks; /* Neighbors of each node when the tiles were last drawn */
+    public int[][] tileLinks; /* Ends of the possible edges of each node in the tile lists */
+    public int[][] tileItems; /* Possible edges, then nodes, overlapping each tile, as pairs of ids. -1 ends a node */
+    public int[] tileItemCounts; /* Number of ids stored in each row of tileItems */
+
+    // Spatial index used to find the node or edge under the mouse
+    public final int MAX_INDEXED_PAIRS = 200000; /* Above this, only the edges of the topology are indexed */
+    public SpatialGrid index; /* Index of the positions of nodes and edges */
+    public PVector[] indexedPoints; /* Positions the index was built for */
+    public int[][] indexedEdges; /* Pairs of nodes indexed as possible edges. Null when the topology changed */
+    public boolean indexedAllPairs; /* The index holds every pair of nodes, not only the edges of the topology */
+
+    public ForceLayout layout; /* Force-directed layout moving the nodes, or null. Toggled with L */
+
+    // Overlays coloring each node by one of its counters. Cycled with H
+    public final int NO_OVERLAY = 0; /* No overlay */
+    public final int RATE_OVERLAY = 1; /* Updates received per second */
+    public final int QUEUE_OVERLAY = 2; /* Messages waiting in the outgoing channels */
+    public final int ELECTION_OVERLAY = 3; /* Times the node elected itself */
+    public final String[] OVERLAY_NAMES = { "", "Updates received per second", "Messages queued in outgoing channels",
+            "Self elections" };
+    public int overlay = NO_OVERLAY; /* Overlay being drawn */
+    public long[] lastReceived; /* Updates received by each node at the previous sample */
+    public float[] updateRates; /* Smoothed rate of Updates received by each node */
+    public int lastSampleMillis; /* millis() at the previous sample */
+
+    public boolean clustered = false; /* Draws each local cluster as a single glyph. Toggled with G */
+    public ClusterView clusterView; /* Aggregates of the nodes by local leader */
 
     /*
      * Initial settings. Creates the window.
@@ -86,14 +143,27 @@ public class Visualization extends PApplet {
         }else{
             stroke(0);
         }
-        line(p1.x, p1.y, p2.x, p2.y);
-        pushMatrix();
-        translate(p2.x, p2.y);
+        drawArrow(g, p1, p2);
+    }
+
+    /*
+     * Draws an arrow from p1 to p2 on the given graphics, with its current stroke
+     * 
+     * @param pg The graphics to draw on
+     * 
+     * @param p1 The first point
+     * 
+     * @param p2 The second point
+     */
+    public void drawArrow(PGraphics pg, PVector p1, PVector p2) {
+        pg.line(p1.x, p1.y, p2.x, p2.y);
+        pg.pushMatrix();
+        pg.translate(p2.x, p2.y);
         float a = atan2(p1.x - p2.x, p2.y - p1.y);
-        rotate(a);
-        line(0, 0, -10, -10);
-        line(0, 0, 10, -10);
-        popMatrix();
+        pg.rotate(a);
+        pg.line(0, 0, -10, -10);
+        pg.line(0, 0, 10, -10);
+        pg.popMatrix();
     }
 
     /*
@@ -104,6 +174,34 @@ public class Visualization extends PApplet {
      * @param p2 Geometrical position of the lowest node
      */
     public void drawEdge(PVector p1, PVector p2) {
+        PVector[] ends = edgeEnds(p1, p2);
+        drawArrow(ends[0], ends[1]);
+    }
+
+    /*
+     * Draws an edge between the nodes at p1 and p2 on the given graphics
+     * 
+     * @param pg The graphics to draw on
+     * 
+     * @param p1 Geometrical position of the highest node 
+     * 
+     * @param p2 Geometrical position of the lowest node
+     */
+    public void drawEdge(PGraphics pg, PVector p1, PVector p2) {
+        PVector[] ends = edgeEnds(p1, p2);
+        drawArrow(pg, ends[0], ends[1]);
+    }
+
+    /*
+     * Shortens the segment between two nodes so it ends at their circles
+     * 
+     * @param p1 Geometrical position of the first node
+     * 
+     * @param p2 Geometrical position of the second node
+     * 
+     * @return The two ends of the edge
+     */
+    public PVector[] edgeEnds(PVector p1, PVector p2) {
         float x1 = p1.x;
         float y1 = p1.y;
         float x2 = p2.x;
@@ -117,61 +215,494 @@ public class Visualization extends PApplet {
         x2 = x2 - deltaX * 10 / L;
         y2 = y2 - deltaY * 10 / L;
 
-        drawArrow(new PVector(x1, y1), new PVector(x2, y2));
+        return new PVector[]{new PVector(x1, y1), new PVector(x2, y2)};
     }
 
     /*
      * Draws the node in a position of the circumference defined by the nodeID.
-     * Writes on the screen the nodes height and clock. Draws the edges from this
-     * node to its neighbors of smaller height.
+     * Writes on the given graphics the node's id, height and clock, on the side
+     * of the node facing the center of the window.
+     * 
+     * @param pg The graphics to draw on
      * 
-     * @param n The node to be drawn
+     * @param v The published view of the node to be drawn
      */
-    public void drawNode(Node n) {
+    public void drawNode(PGraphics pg, NodeView v) {
+        float x = points[v.nodeId].x;
+        float y = points[v.nodeId].y;
         int nodeColor = 255;
         int textColor = 0;
-        float x = points[n.nodeId].x;
-        float y = points[n.nodeId].y;
-        fill(255);
-        stroke(0);
-        if (n.nodeId == n.localLeaderId) {
-            ellipse(x, y, 25, 25);
+        pg.fill(255);
+        pg.stroke(0);
+        if (v.nodeId == v.localLeaderId) {
+            pg.ellipse(x, y, 25, 25);
         }
-        if (n.nodeId == n.globalLeaderId) {
+        if (v.nodeId == v.globalLeaderId) {
             nodeColor = 0;
             textColor = 255;
         }
-        fill(nodeColor);
-        ellipse(x, y, 20, 20);
-        fill(textColor);
-        textAlign(CENTER, CENTER);
-        textSize(12);
-        text(n.nodeId, x, y);
-        fill(0);
+        pg.fill(nodeColor);
+        pg.ellipse(x, y, 20, 20);
+        pg.fill(textColor);
+        pg.textAlign(CENTER, CENTER);
+        pg.textSize(12);
+        pg.text(v.nodeId, x, y);
+        pg.fill(0);
         if (x >= width / 2) {
-            textAlign(LEFT, CENTER);
-            text(n.getHeight().toString() + "\nClock: " + n.causalClock, x + 15, y);
+            pg.textAlign(LEFT, CENTER);
+            pg.text(v.height.toString() + "\nClock: " + v.causalClock, x + 15, y);
         } else {
-            textAlign(RIGHT, CENTER);
-            text(n.getHeight().toString() + "\nClock: " + n.causalClock, x - 15, y);
+            pg.textAlign(RIGHT, CENTER);
+            pg.text(v.height.toString() + "\nClock: " + v.causalClock, x - 15, y);
+        }
+    }
+
+    /*
+     * Marks for redrawing the tiles under a node and its label, or adds the
+     * node to the lists of those tiles.
+     * 
+     * @param i The id of the node
+     * 
+     * @param add true to add the node to the lists, false to mark the tiles
+     */
+    public void coverLabel(int i, boolean add) {
+        PVector p = points[i];
+        float left = p.x >= width / 2 ? p.x - LAYER_HEIGHT / 2 : p.x - LABEL_WIDTH - LAYER_HEIGHT / 2;
+        cover(left, p.y - LAYER_HEIGHT / 2, left + LABEL_WIDTH + LAYER_HEIGHT, p.y + LAYER_HEIGHT / 2, i, -1, add);
+    }
+
+    /*
+     * Marks for redrawing the tiles under an edge and its arrow, or adds the
+     * edge to the lists of those tiles.
+     * 
+     * @param i The id of the highest node
+     * 
+     * @param j The id of the lowest node
+     * 
+     * @param add true to add the edge to the lists, false to mark the tiles
+     */
+    public void coverEdge(int i, int j, boolean add) {
+        PVector p1 = points[i];
+        PVector p2 = points[j];
+        cover(min(p1.x, p2.x) - 15, min(p1.y, p2.y) - 15, max(p1.x, p2.x) + 15, max(p1.y, p2.y) + 15, i, j, add);
+    }
+
+    /*
+     * Marks for redrawing the tiles overlapping an area, or adds an item to
+     * their lists.
+     * 
+     * @param left Left bound of the area
+     * 
+     * @param top Top bound of the area
+     * 
+     * @param right Right bound of the area
+     * 
+     * @param bottom Bottom bound of the area
+     * 
+     * @param i The id of the node, or of the highest end of the edge
+     * 
+     * @param j The id of the lowest end of the edge, or -1 for a node
+     * 
+     * @param add true to add the item to the lists, false to mark the tiles
+     */
+    public void cover(float left, float top, float right, float bottom, int i, int j, boolean add) {
+        int cols = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        int c1 = max(0, floor(left / TILE_SIZE));
+        int r1 = max(0, floor(top / TILE_SIZE));
+        int c2 = min(cols - 1, floor(right / TILE_SIZE));
+        int r2 = min(rows - 1, floor(bottom / TILE_SIZE));
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; c++) {
+                int t = r * cols + c;
+                if (!add) {
+                    dirtyTiles[t] = true;
+                    continue;
+                }
+                if (tileItems[t] == null) {
+                    tileItems[t] = new int[16];
+                } else if (tileItemCounts[t] + 2 > tileItems[t].length) {
+                    tileItems[t] = Arrays.copyOf(tileItems[t], 2 * tileItems[t].length);
+                }
+                tileItems[t][tileItemCounts[t]++] = i;
+                tileItems[t][tileItemCounts[t]++] = j;
+            }
+        }
+    }
+
+    /*
+     * Rebuilds the lists of the nodes and possible edges overlapping each tile.
+     * The possible edges of a node go to its neighbors and to its lower
+     * neighbors, in the direction of the node, so only the ones in its current
+     * lower neighbors are drawn. Needed only when the nodes move or their links
+     * change, not when their heights do.
+     * 
+     * @param views The views of the nodes
+     */
+    public void buildTileLists(NodeView[] views) {
+        Arrays.fill(tileItemCounts, 0);
+        for (int i = 0; i < views.length; i++) {
+            NodeView v = views[i];
+            tileLinks[i] = null;
+            if (v == null)
+                continue;
+            int[] links = v.neighborIds;
+            for (int j : v.lowerNeighbors) {
+                if (!contains(links, j)) {
+                    links = Arrays.copyOf(links, links.length + 1);
+                    links[links.length - 1] = j;
+                }
+            }
+            tileLinks[i] = links;
+            for (int j : links) {
+                coverEdge(i, j, true);
+            }
+        }
+        for (int i = 0; i < views.length; i++) {
+            if (views[i] != null)
+                coverLabel(i, true);
+        }
+    }
+
+    /*
+     * Redraws a tile with the edges and nodes in its list.
+     * 
+     * @param t The index of the tile, row by row
+     * 
+     * @param views The views of the nodes
+     */
+    public void drawTile(int t, NodeView[] views) {
+        int cols = (width + TILE_SIZE - 1) / TILE_SIZE;
+        if (tiles[t] == null) {
+            tiles[t] = createGraphics(TILE_SIZE, TILE_SIZE);
         }
-        for (Height h : n.heights) {
-            if (h != null && h.compareTo(n.getHeight()) < 0) {
-                drawEdge(points[n.nodeId], points[h.nodeId]);
+        PGraphics pg = tiles[t];
+        pg.beginDraw();
+        pg.clear();
+        pg.translate(-(t % cols) * TILE_SIZE, -(t / cols) * TILE_SIZE);
+        pg.stroke(0);
+        int[] items = tileItems[t];
+        for (int k = 0; k < tileItemCounts[t]; k += 2) {
+            NodeView v = views[items[k]];
+            int j = items[k + 1];
+            if (v == null)
+                continue;
+            if (j < 0) {
+                drawNode(pg, v);
+            } else if (contains(v.lowerNeighbors, j)) {
+                drawEdge(pg, points[v.nodeId], points[j]);
             }
         }
+        pg.endDraw();
     }
 
     /*
-     * Draws every node in the network
+     * Checks if an array of ids holds an id.
+     * 
+     * @param ids The array
+     * 
+     * @param id The id
+     * 
+     * @return true if it does
      */
-    public void drawNetwork() {
+    public static boolean contains(int[] ids, int id) {
+        if (ids == null)
+            return false;
+        for (int i : ids) {
+            if (i == id)
+                return true;
+        }
+        return false;
+    }
+
+    /*
+     * Gets the latest published view of every node, and makes room for the
+     * nodes that joined since the last frame.
+     * 
+     * @return The views, indexed by node id. Null for removed nodes
+     */
+    public NodeView[] currentViews() {
+        Node[] ns = net.nodes;
+        NodeView[] views = new NodeView[min(ns.length, net.size())];
+        for (int i = 0; i < views.length; i++) {
+            Node n = ns[i];
+            views[i] = n == null ? null : n.getView();
+        }
+        // read after the views, so it covers every id they name
+        addJoinedNodes(views, net.size());
+        return views;
+    }
+
+    /*
+     * Gives a position to the nodes that joined the network, next to one of
+     * their neighbors, and adds their links to the topology. The layout, if
+     * running, restarts from the new positions.
+     * 
+     * @param views The views of the nodes
+     * 
+     * @param size The range of ids used by the network
+     */
+    public void addJoinedNodes(NodeView[] views, int size) {
+        int old = points.length;
+        if (size <= old)
+            return;
+        PVector[] p = Arrays.copyOf(points, size);
+        int[][] t = new int[size][size];
+        for (int i = 0; i < old; i++) {
+            System.arraycopy(topologyGraph[i], 0, t[i], 0, old);
+        }
+        for (int i = old; i < size; i++) {
+            p[i] = new PVector(random(width), random(height));
+            if (i >= views.length || views[i] == null)
+                continue;
+            for (int j : views[i].neighborIds) {
+                t[i][j] = 1;
+                t[j][i] = 1;
+                if (j < old)
+                    p[i] = new PVector(points[j].x + random(-30, 30), points[j].y + random(-30, 30));
+            }
+        }
+        points = p;
+        topologyGraph = t;
+        networkSize = size;
+        indexedEdges = null;
+        if (layout != null) {
+            layout.stop();
+            layout = new ForceLayout(points, topologyGraph, width, height);
+            layout.start();
+        }
+    }
+
+    /*
+     * Draws every node in the network from the cached tiles. A node whose
+     * view changed marks the tiles under its label, and if its edges changed
+     * the tiles under its old and new edges, whether it is on screen or not.
+     * Only the marked tiles are redrawn, and all of them when the nodes moved,
+     * each from its own list of nodes and edges. The lists are rebuilt when
+     * the nodes move or their links change.
+     * 
+     * @param views The views of the nodes
+     * 
+     * @param edge The edge the mouse is over, or null
+     */
+    public void drawNetworkCached(NodeView[] views, PVector edge) {
+        int cols = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        if (tiles == null || tiles.length != cols * rows) {
+            tiles = new PGraphics[cols * rows];
+            dirtyTiles = new boolean[cols * rows];
+            tileItems = new int[cols * rows][];
+            tileItemCounts = new int[cols * rows];
+            tilePoints = null;
+        }
+        if (drawnViews == null || drawnViews.length != views.length) {
+            drawnViews = new NodeView[views.length];
+            drawnEdges = new int[views.length][];
+            drawnLinks = new int[views.length][];
+            tileLinks = new int[views.length][];
+            tilePoints = null;
+        }
         textSize(12);
         textAlign(LEFT, CENTER);
         fill(0);
         text("MAX HOPS: " + Network.MAX_HOPS, 20, 20);
-        for (Node n : net.nodes) {
-            drawNode(n);
+
+        boolean moved = tilePoints != points;
+        boolean relink = moved;
+        for (int i = 0; i < views.length; i++) {
+            NodeView v = views[i];
+            if (v == drawnViews[i])
+                continue;
+            int[] edges = v == null ? null : v.lowerNeighbors;
+            int[] links = v == null ? null : v.neighborIds;
+            if (!moved) {
+                coverLabel(i, false);
+                if (!Arrays.equals(edges, drawnEdges[i])) {
+                    for (int k = 0; drawnEdges[i] != null && k < drawnEdges[i].length; k++) {
+                        coverEdge(i, drawnEdges[i][k], false);
+                    }
+                    for (int k = 0; edges != null && k < edges.length; k++) {
+                        coverEdge(i, edges[k], false);
+                        relink |= !contains(tileLinks[i], edges[k]);
+                    }
+                }
+            }
+            relink |= !Arrays.equals(links, drawnLinks[i]);
+            drawnViews[i] = v;
+            drawnEdges[i] = edges;
+            drawnLinks[i] = links;
+        }
+        if (relink) {
+            buildTileLists(views);
+        }
+        for (int t = 0; t < tiles.length; t++) {
+            if (moved || dirtyTiles[t]) {
+                drawTile(t, views);
+                dirtyTiles[t] = false;
+            }
+        }
+        tilePoints = points;
+
+        for (int t = 0; t < tiles.length; t++) {
+            image(tiles[t], (t % cols) * TILE_SIZE, (t / cols) * TILE_SIZE);
+        }
+
+        if (edge != null) {
+            int i = (int) edge.x;
+            int j = (int) edge.y;
+            stroke(255, 0, 0);
+            for (int k : i < views.length && views[i] != null ? views[i].lowerNeighbors : new int[0]) {
+                if (k == j)
+                    drawEdge(g, points[i], points[j]);
+            }
+            for (int k : j < views.length && views[j] != null ? views[j].lowerNeighbors : new int[0]) {
+                if (k == i)
+                    drawEdge(g, points[j], points[i]);
+            }
+        }
+    }
+
+    /*
+     * Draws every local cluster as a circle at the position of its leader, sized
+     * by the number of members and labelled with their largest local delta. The
+     * cluster of the global leader is black. Links between clusters are drawn as
+     * a single line, thicker with the number of links.
+     * 
+     * @param views The views of the nodes
+     */
+    public void drawClusters(NodeView[] views) {
+        if (clusterView == null) {
+            clusterView = new ClusterView(views.length);
+        }
+        clusterView.update(views);
+        textSize(12);
+        textAlign(LEFT, CENTER);
+        fill(0);
+        text("MAX HOPS: " + Network.MAX_HOPS + "\nClusters: " + clusterView.clusters().size(), 20, 25);
+
+        stroke(0);
+        for (int[] e : clusterView.edges()) {
+            PVector p1 = points[e[0]];
+            PVector p2 = points[e[1]];
+            if (!isVisible(p1, p2))
+                continue;
+            strokeWeight(min(8, 1 + log(e[2])));
+            line(p1.x, p1.y, p2.x, p2.y);
+        }
+        strokeWeight(1);
+
+        for (ClusterView.Cluster c : clusterView.clusters()) {
+            PVector p = points[c.leaderId];
+            float r = 20 + 6 * sqrt(c.size);
+            if (!isVisible(p, r + LABEL_WIDTH))
+                continue;
+            boolean global = c.leaderId < views.length && views[c.leaderId] != null
+                    && clusterView.clusterOf(views[c.leaderId].globalLeaderId) == c;
+            stroke(0);
+            fill(global ? 0 : 255);
+            ellipse(p.x, p.y, r, r);
+            fill(global ? 255 : 0);
+            textAlign(CENTER, CENTER);
+            text(c.leaderId, p.x, p.y);
+            fill(0);
+            String label = "Nodes: " + c.size + "\nMax local delta: " + c.maxDelta();
+            if (p.x >= width / 2) {
+                textAlign(LEFT, CENTER);
+                text(label, p.x + r / 2 + 5, p.y);
+            } else {
+                textAlign(RIGHT, CENTER);
+                text(label, p.x - r / 2 - 5, p.y);
+            }
+        }
+    }
+
+    /*
+     * Samples the counters of the nodes and draws a halo behind each visible
+     * node, from white to red as its value gets close to the largest one. The
+     * counters are read without synchronization, so sampling does not slow the
+     * actors down.
+     */
+    public void drawOverlay() {
+        Node[] ns = net.nodes;
+        int n = min(ns.length, points.length);
+        if (lastReceived == null) {
+            lastReceived = new long[0];
+            updateRates = new float[0];
+            lastSampleMillis = millis();
+        }
+        if (lastReceived.length < n) {
+            int old = lastReceived.length;
+            lastReceived = Arrays.copyOf(lastReceived, n);
+            updateRates = Arrays.copyOf(updateRates, n);
+            for (int i = old; i < n; i++) {
+                lastReceived[i] = ns[i] == null ? 0 : ns[i].receivedUpdates;
+            }
+        }
+        float dt = (millis() - lastSampleMillis) / 1000f;
+        lastSampleMillis = millis();
+        float[] values = new float[n];
+        float maxValue = 0;
+        for (int i = 0; i < n; i++) {
+            Node node = ns[i];
+            if (node == null) { // removed, its id may be taken by a new node
+                lastReceived[i] = 0;
+                updateRates[i] = 0;
+                continue;
+            }
+            long received = node.receivedUpdates;
+            if (dt > 0) {
+                // Moving average over about a second
+                float a = min(1, dt);
+                updateRates[i] += a * ((received - lastReceived[i]) / dt - updateRates[i]);
+            }
+            lastReceived[i] = received;
+            if (overlay == RATE_OVERLAY) {
+                values[i] = updateRates[i];
+            } else if (overlay == QUEUE_OVERLAY) {
+                values[i] = node.queuedMessages();
+            } else if (overlay == ELECTION_OVERLAY) {
+                values[i] = node.selfElections;
+            }
+            maxValue = max(maxValue, values[i]);
+        }
+        noStroke();
+        for (int i = 0; i < n; i++) {
+            if (values[i] <= 0 || !isVisible(points[i], 20))
+                continue;
+            float heat = values[i] / maxValue;
+            fill(255, 255 * (1 - heat), 0, 60 + 140 * heat);
+            ellipse(points[i].x, points[i].y, 40, 40);
+        }
+        fill(0);
+        textSize(12);
+        textAlign(LEFT, CENTER);
+        text(OVERLAY_NAMES[overlay] + ": max " + nf(maxValue, 0, 1), 20, 40);
+    }
+
+    /*
+     * Draws every node in the network straight on the window, with the edges to
+     * their neighbors of smaller height below them
+     * 
+     * @param views The views of the nodes
+     */
+    public void drawNetwork(NodeView[] views) {
+        textSize(12);
+        textAlign(LEFT, CENTER);
+        fill(0);
+        text("MAX HOPS: " + Network.MAX_HOPS, 20, 20);
+        stroke(0);
+        for (NodeView v : views) {
+            if (v == null)
+                continue;
+            PVector p = points[v.nodeId];
+            for (int j : v.lowerNeighbors) {
+                if (isVisible(p, points[j]))
+                    drawEdge(g, p, points[j]);
+            }
+        }
+        for (NodeView v : views) {
+            if (v != null && isVisible(points[v.nodeId], LABEL_WIDTH))
+                drawNode(g, v);
         }
     }
 
@@ -204,6 +735,10 @@ public class Visualization extends PApplet {
         else if(menuState==TOPOLOGY && key == ENTER){
             menuTransition();
         }
+        else if(menuState==TOPOLOGY && (key == 'a' || key == 'A')){
+            automatic = true;
+            menuState = GLEADER;
+        }
         else if(menuState==LLEADER && key == ENTER && isFull(localLeaders)){
             menuTransition();
         }
@@ -246,13 +781,55 @@ public class Visualization extends PApplet {
             }
         }
 
+        if (key == 'c' || key == 'C') {
+            cachedRendering = !cachedRendering;
+        }
         if (key == 'p' || key == 'P') {
             screenshooting = true;
         }
+        if (menuState > GDELTA) {
+            if (key == 't' || key == 'T') {
+                toggleTrace();
+            }
+            if (key == 'e' || key == 'E') {
+                toggleElectionTracing();
+            }
+            if (key == 'o' || key == 'O') {
+                if (player != null) {
+                    player = null;
+                } else {
+                    selectInput("Select a trace to play back", "traceSelected");
+                }
+            }
+            TracePlayer tp = player;
+            if (tp != null) {
+                if (key == ' ') {
+                    tp.playing = !tp.playing;
+                } else if (key == '+' || key == '=') {
+                    tp.setSpeed(tp.speed() * 2);
+                } else if (key == '-') {
+                    tp.setSpeed(tp.speed() / 2);
+                } else if (key == CODED && keyCode == RIGHT) {
+                    tp.seek(tp.time() + tp.trace.duration() / 100);
+                } else if (key == CODED && keyCode == LEFT) {
+                    tp.seek(tp.time() - tp.trace.duration() / 100);
+                }
+            }
+        }
+        if (key == 'h' || key == 'H') {
+            overlay = (overlay + 1) % OVERLAY_NAMES.length;
+        }
+        if (key == 'g' || key == 'G') {
+            clustered = !clustered;
+        }
+        if ((key == 'l' || key == 'L') && menuState >= TOPOLOGY) {
+            toggleLayout();
+        }
         if (key == 'r' || key == 'R') {
             recording = !recording;
             if (!recording)
                 recordingCounter++;
+            recordedFrames = 0;
         }
     }
 
@@ -264,21 +841,17 @@ public class Visualization extends PApplet {
      * @return null if the mouse is not over an edge
      */
     public PVector mouseOverEdge(){
-        PVector mouse = new PVector(mouseX, mouseY);
-        PVector p1;
-        PVector p2;
-        for (int i = 0; i < networkSize; i++) {
-            p1 = points[i];
-            for (int j = 0; j < networkSize; j++) {
-                if (i != j) {
-                    p2 = points[j];
-                    if (pointBetweenPoints(p1, p2, mouse)) {
-                        return new PVector(i,j);
-                    }
-                }
-            }
+        if (points == null) {
+            return null;
+        }
+        if (index == null || indexedPoints != points || indexedAllPairs != indexAllPairs()) {
+            rebuildIndex();
         }
-        return null;
+        int[] ij = index.edgeAt(new PVector(mouseX, mouseY), this::pointBetweenPoints);
+        if (ij == null) {
+            return null;
+        }
+        return new PVector(ij[0], ij[1]);
     }
 
     /*
@@ -289,15 +862,76 @@ public class Visualization extends PApplet {
      * @return -1 if the mouse is not over any node 
      */
     public int mouseOverNode(){
-        PVector mouse = new PVector(mouseX, mouseY);
-        PVector p;
-        for(int i=0;i<networkSize;i++){
-            p = points[i];
-            if(mouse.dist(p) <= 10){
-                return i;
+        if (points == null) {
+            return -1;
+        }
+        if (index == null || indexedPoints != points || indexedAllPairs != indexAllPairs()) {
+            rebuildIndex();
+        }
+        return index.nodeAt(new PVector(mouseX, mouseY), 10);
+    }
+
+    /*
+     * Checks if every pair of nodes should be indexed as a possible edge: while
+     * there are at most MAX_INDEXED_PAIRS pairs, and the positions stay put.
+     * A running layout replaces the positions every step, and the index with
+     * them, so only the edges of the topology are indexed until it settles.
+     * 
+     * @return true to index every pair
+     */
+    public boolean indexAllPairs() {
+        return (long) networkSize * (networkSize - 1) / 2 <= MAX_INDEXED_PAIRS && (layout == null || layout.settled());
+    }
+
+    /*
+     * Rebuilds the spatial index of nodes and edges for the current positions.
+     * Every pair of nodes is a possible edge when indexAllPairs() says so.
+     * Otherwise only the edges of the topology are indexed, so the mouse can
+     * only drop and remake existing links.
+     */
+    public void rebuildIndex() {
+        boolean allPairs = indexAllPairs();
+        if (indexedEdges == null || allPairs != indexedAllPairs) {
+            ArrayList<int[]> edges = new ArrayList<int[]>();
+            for (int i = 0; i < networkSize; i++) {
+                for (int j = i + 1; j < networkSize; j++) {
+                    if (allPairs || topologyGraph[i][j] == 1) {
+                        edges.add(new int[] { i, j });
+                    }
+                }
             }
+            indexedEdges = edges.toArray(new int[0][]);
         }
-        return -1;
+        index = new SpatialGrid(points, indexedEdges, 20);
+        indexedPoints = points;
+        indexedAllPairs = allPairs;
+    }
+
+    /*
+     * Checks if a position is inside the window, with a margin.
+     * 
+     * @param p The position
+     * 
+     * @param margin Distance outside the window still considered visible
+     * 
+     * @return true if the position is visible
+     */
+    public boolean isVisible(PVector p, float margin) {
+        return p.x >= -margin && p.y >= -margin && p.x <= width + margin && p.y <= height + margin;
+    }
+
+    /*
+     * Checks if the bounding box of a segment intersects the window.
+     * 
+     * @param p1 One end of the segment
+     * 
+     * @param p2 The other end
+     * 
+     * @return true if the segment may be visible
+     */
+    public boolean isVisible(PVector p1, PVector p2) {
+        return max(p1.x, p2.x) >= 0 && max(p1.y, p2.y) >= 0 && min(p1.x, p2.x) <= width
+                && min(p1.y, p2.y) <= height;
     }
 
     /* 
@@ -306,15 +940,22 @@ public class Visualization extends PApplet {
     public void mousePressed() {
         PVector ij;
         int n;
+        if (player != null) {
+            mouseDragged();
+            return;
+        }
         if((ij = mouseOverEdge())!=null){
             int i = (int) ij.x;
             int j = (int) ij.y;
             if(menuState == TOPOLOGY && mouseButton == LEFT){
                 topologyGraph[i][j] = 1 - topologyGraph[i][j]; 
                 topologyGraph[j][i] = 1 - topologyGraph[j][i]; 
+                channelToggled(i, j);
             }
             else if(menuState > GDELTA){
                 if (mouseButton == LEFT){
+                    if (!net.hasNode(i) || !net.hasNode(j))
+                        return; // one of them left the network
                     if(topologyGraph[i][j] == 1){
                         net.dropChannel(i, j);
                     } else{
@@ -322,6 +963,7 @@ public class Visualization extends PApplet {
                     }
                     topologyGraph[i][j] = 1 - topologyGraph[i][j]; 
                     topologyGraph[j][i] = 1 - topologyGraph[j][i];
+                    channelToggled(i, j);
                 }
             }
         }
@@ -337,6 +979,129 @@ public class Visualization extends PApplet {
         }
     }
 
+    /*
+     * Mouse dragged handler. Moves the playback to the time under the mouse
+     * when it is over the timeline.
+     */
+    public void mouseDragged() {
+        TracePlayer tp = player;
+        if (tp != null && mouseY >= height - TIMELINE_HEIGHT) {
+            tp.seek((double) constrain(mouseX, 0, width) / width * tp.trace.duration());
+        }
+    }
+
+    /*
+     * Draws the timeline of the trace being played, with the current time and
+     * speed.
+     * 
+     * @param tp The player
+     */
+    public void drawTimeline(TracePlayer tp) {
+        float y = height - TIMELINE_HEIGHT;
+        noStroke();
+        fill(230);
+        rect(0, y, width, TIMELINE_HEIGHT);
+        float x = tp.trace.duration() > 0 ? (float) (tp.time() / tp.trace.duration()) * width : 0;
+        fill(150);
+        rect(0, y, x, TIMELINE_HEIGHT);
+        fill(0);
+        textSize(12);
+        textAlign(LEFT, CENTER);
+        text(nf((float) tp.time() / 1000, 0, 1) + " s / " + nf((float) tp.trace.duration() / 1000, 0, 1) + " s   x"
+                + nf((float) tp.speed(), 0, 1) + (tp.playing ? "" : "   paused"), 10, y + TIMELINE_HEIGHT / 2);
+    }
+
+    /*
+     * Starts or stops recording a trace of the network.
+     */
+    public void toggleTrace() {
+        try {
+            if (tracing) {
+                net.stopTrace();
+                traceCounter++;
+            } else {
+                net.startTrace(savePath("../traces/trace" + traceCounter + ".txt"));
+            }
+            tracing = !tracing;
+        } catch (IOException e) {
+            println("Trace failed: " + e.getMessage());
+            tracing = false;
+        }
+    }
+
+    /*
+     * Starts tracing the elections, or stops and exports the spans recorded.
+     */
+    public void toggleElectionTracing() {
+        if (!tracingElections) {
+            net.startElectionTracing();
+            tracingElections = true;
+            return;
+        }
+        tracingElections = false;
+        String path = savePath("../traces/elections" + traceCounter + ".json");
+        try {
+            net.stopElectionTracing().export(path);
+            println("Elections exported to " + path);
+        } catch (IOException e) {
+            println("Could not export the elections: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Called when a trace file is chosen to be played back. Runs on the thread
+     * of the file dialog.
+     * 
+     * @param file The chosen file, or null if the dialog was canceled
+     */
+    public void traceSelected(File file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Trace trace = new Trace(file.getAbsolutePath());
+            if (trace.nodes != networkSize) {
+                println("The trace has " + trace.nodes + " nodes, the network has " + networkSize);
+                return;
+            }
+            player = new TracePlayer(trace);
+        } catch (IOException | RuntimeException e) {
+            println("Could not load the trace: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Updates the spatial index and the layout after a channel of the topology
+     * is added or removed.
+     * 
+     * @param i Id of one end of the channel
+     * 
+     * @param j Id of the other end
+     */
+    public void channelToggled(int i, int j) {
+        if (!indexedAllPairs) {
+            indexedEdges = null;
+            index = null;
+        }
+        if (layout != null) {
+            layout.setChannel(i, j, topologyGraph[i][j] == 1);
+        }
+    }
+
+    /*
+     * Starts the force-directed layout from the current positions, or stops it
+     * and keeps the positions it reached.
+     */
+    public void toggleLayout() {
+        if (layout != null) {
+            layout.stop();
+            layout = null;
+        } else if (points != null) {
+            layout = new ForceLayout(points, topologyGraph, width, height);
+            layout.start();
+        }
+    }
+
     /* 
      * Checks if the array's positions are not negative
      * 
@@ -363,6 +1128,7 @@ public class Visualization extends PApplet {
                 networkSize = Integer.parseInt(input);
                 input = "";
                 points = new PVector[networkSize];
+                indexedEdges = null;
                 topologyGraph = new int[networkSize][networkSize];
                 globalDeltas = new int[networkSize];
                 localDeltas = new int[networkSize];
@@ -401,10 +1167,20 @@ public class Visualization extends PApplet {
                 menuState++;
                 highlightedNode = 0;
                 input = "";
+                if (automatic) {
+                    InitialState state = InitialState.compute(system, topologyGraph, globalLeader, new int[] { maxHops });
+                    globalDeltas = state.deltas[0];
+                    localDeltas = state.deltas[1];
+                    localLeaders = state.leaders[1];
+                    menuState++;
+                    net = new Network(system, topologyGraph, new InitialState[] { state }, null);
+                    rebuildIndex();
+                }
                 break;
             case GDELTA:
                 menuState++;
                 net = new Network(system, topologyGraph, globalDeltas, globalLeader, localDeltas, localLeaders, maxHops);
+                rebuildIndex();
                 break;
             default:
                 break;
@@ -513,7 +1289,7 @@ public class Visualization extends PApplet {
                 fill(0);
                 textSize(20);
                 textAlign(CENTER, CENTER);
-                text("Use your mouse to draw the topology.\nPress ENTER when done", width/2, height/10);
+                text("Use your mouse to draw the topology.\nPress ENTER when done, or A to compute the leaders and deltas", width/2, height/10);
             }
             else if(menuState==LLEADER){
                 fill(0);
@@ -564,6 +1340,9 @@ public class Visualization extends PApplet {
      */
     public void draw() {
         background(255);
+        if (layout != null && layout.positions() != points) {
+            points = layout.positions();
+        }
         PVector edge = mouseOverEdge();
         int node = mouseOverNode();
 
@@ -586,28 +1365,64 @@ public class Visualization extends PApplet {
             }
         }
         else{
-            if(edge != null && topologyGraph[(int) edge.x][(int) edge.y]==0){
+            TracePlayer tp = player;
+            if(tp == null && edge != null && topologyGraph[(int) edge.x][(int) edge.y]==0){
                 PVector p1 = points[(int) edge.x];
                 PVector p2 = points[(int) edge.y];
                 stroke(51); 
                 line(p1.x,p1.y,p2.x,p2.y);
             }
-            drawNetwork();
+            NodeView[] views;
+            if (tp != null) {
+                tp.advance(millis() - lastFrameMillis);
+                views = tp.views();
+            } else {
+                views = currentViews();
+            }
+            if (overlay != NO_OVERLAY && tp == null && !clustered) {
+                drawOverlay();
+            }
+            if (clustered) {
+                drawClusters(views);
+            } else if (cachedRendering) {
+                drawNetworkCached(views, edge);
+            } else {
+                drawNetwork(views);
+            }
+            if (tp != null) {
+                drawTimeline(tp);
+            }
         }
+        lastFrameMillis = millis();
 
         if(screenshooting){
             screenshooting = false;
-            save("../screenshots/simulation" + screenshotCounter + ".png");
+            capture.capture(this, "../screenshots/simulation" + screenshotCounter + ".png");
             fill(255);
             rect(0,0,width,height);
             screenshotCounter++;
         }
         
         if (recording) {
-            saveFrame("../recordings/simulation" + recordingCounter + "-######.png");
+            if (capture.capture(this, "../recordings/simulation" + recordingCounter + "-"
+                    + nf(recordedFrames, 6) + ".png")) {
+                recordedFrames++;
+            }
             fill(255, 0, 0);
             ellipse(width - 20, 20, 15, 15);
+            if (capture.dropped() > 0) {
+                textAlign(RIGHT, CENTER);
+                textSize(12);
+                text("Dropped: " + capture.dropped(), width - 35, 20);
+            }
         }
     }
 
-}
\ No newline at end of file
+    /*
+     * Called when the sketch closes. Waits for the frames still being written.
+     */
+    public void dispose() {
+        capture.shutdown(10000);
+        super.dispose();
+    }
+}